@@ -1,6 +1,7 @@
 plugins {
 	java
 	id ("io.freefair.lombok") version "8.0.1"
+	id ("me.champeau.jmh") version "0.7.2"
 }
 
 group = "com.boku"
@@ -26,3 +27,14 @@ dependencies {
 tasks.withType<Test> {
 	useJUnitPlatform()
 }
+
+// Benchmarks live in src/jmh, run with: ./gradlew jmh [-PjmhInclude=TransferBenchmark] [-PjmhThreads=8]
+jmh {
+	warmupIterations.set(3)
+	iterations.set(5)
+	fork.set(1)
+	includeTests.set(false)
+	threads.set((findProperty("jmhThreads") as String?)?.toInt() ?: 1)
+	(findProperty("jmhInclude") as String?)?.let { includes.set(listOf(it)) }
+	resultFormat.set("JSON")
+}
@@ -0,0 +1,24 @@
+plugins {
+	application
+}
+
+group = "com.boku"
+version = "1.0.0-SNAPSHOT"
+
+java {
+	sourceCompatibility = JavaVersion.VERSION_17
+}
+
+repositories {
+	mavenCentral()
+}
+
+// The service itself, for the inprocess and http targets
+dependencies {
+	implementation(project(":"))
+}
+
+// ./gradlew :load-generator:run --args="--target http --concurrency 400 --duration 30"
+application {
+	mainClass.set("com.boku.moneytransferservice.loadgen.LoadGenerator")
+}
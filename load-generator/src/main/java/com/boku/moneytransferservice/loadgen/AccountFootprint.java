@@ -0,0 +1,135 @@
+package com.boku.moneytransferservice.loadgen;
+
+import com.boku.moneytransferservice.model.AccountStore;
+import com.boku.moneytransferservice.model.CompactAccountStore;
+import com.boku.moneytransferservice.model.LedgerEntry;
+import com.boku.moneytransferservice.model.MapAccountStore;
+import com.boku.moneytransferservice.model.Money;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+/**
+ * Heap taken per account and GC pauses with many accounts held, for one account store per run:
+ * <pre>
+ * java -Xmx4g -cp "load-generator/build/install/load-generator/lib/*" \
+ *     com.boku.moneytransferservice.loadgen.AccountFootprint --store compact --accounts 10000000
+ * </pre>
+ * Fills the store with --accounts accounts, measures the live heap after a full collection, then runs
+ * --duration seconds of random transfers over them that also allocate request-sized garbage, recording every GC
+ * pause, and ends with one more full collection. Options (defaults in brackets): --store map|compact [compact],
+ * --accounts [10000000], --duration seconds [30], --seed [42]. Run each store in its own JVM with the same heap
+ * settings, a heap shared with another store's leftovers would blur both numbers.
+ */
+public class AccountFootprint {
+    private static final int GARBAGE_PER_TRANSFER = 512;
+    // Garbage survives a little while, as request objects do
+    private final byte[][] garbage = new byte[1024][];
+
+    private final List<Long> youngPauses = new ArrayList<>();
+    private final List<Long> fullPauses = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        var options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) options.put(args[i].substring(2), args[i + 1]);
+        new AccountFootprint().run(options.getOrDefault("store", "compact"),
+                Integer.parseInt(options.getOrDefault("accounts", "10000000")),
+                Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "30"))),
+                Long.parseLong(options.getOrDefault("seed", "42")));
+    }
+
+    private void run(String storeName, int count, Duration duration, long seed) throws Exception {
+        listenForPauses();
+        var baseline = liveHeap();
+        AccountStore store = storeName.equals("map") ? new MapAccountStore() : new CompactAccountStore();
+        var random = new SplittableRandom(seed);
+        var start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            store.add(id(seed, i), "Account " + i, Money.DEFAULT_CURRENCY, 100_000);
+        var fillMillis = (System.nanoTime() - start) / 1_000_000;
+        var live = liveHeap() - baseline;
+        System.out.printf("store=%s accounts=%d filled in %d ms, live heap %d MB, %.1f bytes per account%n",
+                storeName, count, fillMillis, live >> 20, (double) live / count);
+
+        synchronized (this) {
+            youngPauses.clear();
+            fullPauses.clear();
+        }
+        long transfers = 0;
+        var end = System.nanoTime() + duration.toNanos();
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < 10_000; i++) {
+                var sender = store.get(id(seed, random.nextInt(count)));
+                var receiver = store.get(id(seed, random.nextInt(count)));
+                if (sender.tryWithdraw(1)) {
+                    receiver.deposit(1);
+                    sender.getLedger().append(LedgerEntry.Type.TRANSFER_OUT, 1, receiver.getId());
+                    receiver.getLedger().append(LedgerEntry.Type.TRANSFER_IN, 1, sender.getId());
+                }
+                garbage[(int) transfers & (garbage.length - 1)] = new byte[GARBAGE_PER_TRANSFER];
+                transfers++;
+            }
+        }
+        System.gc();
+        Thread.sleep(200);
+        synchronized (this) {
+            System.out.printf("transfers=%d in %d s, young pauses %s, full pauses %s%n", transfers,
+                    duration.toSeconds(), summary(youngPauses), summary(fullPauses));
+        }
+    }
+
+    /**
+     * Random-looking ids computed from the account's index, so the load phase finds accounts without an array of
+     * ids that would cost as much heap as the compact store itself
+     */
+    private static UUID id(long seed, int index) {
+        return new UUID(mix(seed + index * 0x9E3779B97F4A7C15L), mix(~seed + index * 0xC2B2AE3D27D4EB4FL));
+    }
+
+    // SplitMix64's finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static String summary(List<Long> pausesMillis) {
+        if (pausesMillis.isEmpty()) return "none";
+        long total = 0, max = 0;
+        for (var pause : pausesMillis) {
+            total += pause;
+            max = Math.max(max, pause);
+        }
+        return String.format("count=%d avg=%.1f max=%d ms", pausesMillis.size(), (double) total / pausesMillis.size(), max);
+    }
+
+    private void listenForPauses() {
+        for (var collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+                    return;
+                var info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                var pauses = info.getGcAction().contains("major") ? fullPauses : youngPauses;
+                synchronized (this) {
+                    pauses.add(info.getGcInfo().getDuration());
+                }
+            }, null, null);
+        }
+    }
+
+    private static long liveHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
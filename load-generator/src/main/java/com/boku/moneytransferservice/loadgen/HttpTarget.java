@@ -0,0 +1,103 @@
+package com.boku.moneytransferservice.loadgen;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Sends JSON request bodies to a service over HTTP/1.1. Responses are small and of known shape, so the few fields
+ * needed are picked out with patterns rather than a JSON library
+ */
+final class HttpTarget implements Target {
+    private static final Pattern RESULT = Pattern.compile("\"result\":\"([0-9a-f-]{36})\"");
+    private static final Pattern BALANCE = Pattern.compile("\"balance\":(-?[0-9.]+)");
+    private static final Pattern STATE = Pattern.compile("\"(PROCESSING|COMPLETED|FAILED)\"");
+
+    private final URI baseUri;
+    private final int scale;
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    /**
+     * @param scale decimal places of the accounts' currency
+     */
+    HttpTarget(URI baseUri, int scale) {
+        this.baseUri = baseUri;
+        this.scale = scale;
+    }
+
+    @Override
+    public void transfer(UUID senderAccountId, UUID receiverAccountId, long amount) throws Exception {
+        send(post("/transfer", "{\"senderAccountId\":\"" + senderAccountId + "\",\"receiverAccountId\":\""
+                + receiverAccountId + "\",\"amount\":" + decimal(amount) + "}"));
+    }
+
+    @Override
+    public UUID withdraw(UUID senderAccountId, long amount) throws Exception {
+        var body = send(post("/withdrawal", "{\"senderAccountId\":\"" + senderAccountId
+                + "\",\"address\":\"load-test\",\"amount\":" + decimal(amount) + "}"));
+        return UUID.fromString(find(RESULT, body));
+    }
+
+    @Override
+    public void readAccount(UUID accountId) throws Exception {
+        send(get("/account/" + accountId));
+    }
+
+    @Override
+    public long balance(UUID accountId) throws Exception {
+        return new BigDecimal(find(BALANCE, send(get("/account/" + accountId)))).movePointRight(scale).longValueExact();
+    }
+
+    @Override
+    public String withdrawalState(UUID withdrawalId) throws Exception {
+        return find(STATE, send(get("/withdrawal/status/" + withdrawalId)));
+    }
+
+    private String decimal(long amount) {
+        return BigDecimal.valueOf(amount, scale).toPlainString();
+    }
+
+    private HttpRequest post(String path, String json) {
+        return HttpRequest.newBuilder(baseUri.resolve(path))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(baseUri.resolve(path)).timeout(Duration.ofSeconds(30)).GET().build();
+    }
+
+    private String send(HttpRequest request) throws IOException, InterruptedException {
+        var response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() == 429) throw new Shed(request.uri().getPath());
+        if (response.statusCode() != 200)
+            throw new IOException(request.uri().getPath() + " returned " + response.statusCode() + ": " + response.body());
+        return response.body();
+    }
+
+    /**
+     * The service refused the request with 429 without running it
+     */
+    static final class Shed extends IOException {
+        Shed(String path) {
+            super(path + " returned 429");
+        }
+    }
+
+    private static String find(Pattern pattern, String body) throws IOException {
+        var matcher = pattern.matcher(body);
+        if (!matcher.find()) throw new IOException("Unexpected response " + body);
+        return matcher.group(1);
+    }
+}
@@ -0,0 +1,41 @@
+package com.boku.moneytransferservice.loadgen;
+
+import com.boku.moneytransferservice.service.TransferService;
+
+import java.util.UUID;
+
+/**
+ * Calls the service directly, measuring it without HTTP, serialization or the server's threads in the way
+ */
+final class InProcessTarget implements Target {
+    private final TransferService transferService;
+
+    InProcessTarget(TransferService transferService) {
+        this.transferService = transferService;
+    }
+
+    @Override
+    public void transfer(UUID senderAccountId, UUID receiverAccountId, long amount) throws Exception {
+        transferService.transferMoney(senderAccountId, receiverAccountId, amount);
+    }
+
+    @Override
+    public UUID withdraw(UUID senderAccountId, long amount) throws Exception {
+        return transferService.withdrawMoney(senderAccountId, "load-test", amount);
+    }
+
+    @Override
+    public void readAccount(UUID accountId) {
+        transferService.getAccountById(accountId).getBalance();
+    }
+
+    @Override
+    public long balance(UUID accountId) {
+        return transferService.getAccountById(accountId).getBalanceMinorUnits();
+    }
+
+    @Override
+    public String withdrawalState(UUID withdrawalId) {
+        return transferService.getWithdrawalStatus(withdrawalId).name();
+    }
+}
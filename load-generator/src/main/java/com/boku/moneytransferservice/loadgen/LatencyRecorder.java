@@ -0,0 +1,41 @@
+package com.boku.moneytransferservice.loadgen;
+
+import java.util.Arrays;
+
+/**
+ * Keeps every latency sample of one worker so percentiles are exact rather than bucketed. Not thread safe,
+ * workers record into their own instance and the results are merged at the end
+ */
+final class LatencyRecorder {
+    private long[] samples = new long[1 << 14];
+    private int count;
+
+    void record(long nanos) {
+        if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+        samples[count++] = nanos;
+    }
+
+    int count() {
+        return count;
+    }
+
+    static LatencyRecorder merge(Iterable<LatencyRecorder> recorders) {
+        var merged = new LatencyRecorder();
+        for (var recorder : recorders) {
+            merged.samples = Arrays.copyOf(merged.samples, Math.max(merged.samples.length, merged.count + recorder.count));
+            System.arraycopy(recorder.samples, 0, merged.samples, merged.count, recorder.count);
+            merged.count += recorder.count;
+        }
+        Arrays.sort(merged.samples, 0, merged.count);
+        return merged;
+    }
+
+    /**
+     * @param percentile 0-100, on a merged (sorted) recorder
+     */
+    long percentile(double percentile) {
+        if (count == 0) return 0;
+        var rank = (int) Math.ceil(percentile / 100 * count);
+        return samples[Math.max(0, Math.min(count, rank) - 1)];
+    }
+}
@@ -0,0 +1,297 @@
+package com.boku.moneytransferservice.loadgen;
+
+import com.boku.moneytransferservice.config.AppConfig;
+import com.boku.moneytransferservice.controler.MoneyTransferController;
+import com.boku.moneytransferservice.model.Money;
+import com.boku.moneytransferservice.service.TransferService;
+import com.boku.moneytransferservice.service.WithdrawalServiceStub;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * Closed-loop load against the service: each of --concurrency workers sends a request, waits for the response and
+ * sends the next one. Workers draw from random streams seeded with --seed, so two runs send the same request mix,
+ * whether against differently configured servers (e.g. -Dserver.threadMode=pool vs virtual) or before and after a
+ * change.
+ * <p>
+ * With --rate the load is open instead: requests are due at a fixed rate whatever the service does, as from many
+ * independent clients, and the workers take them in turn. A request's latency counts from when it was due, so when
+ * all workers are busy the wait for one is charged to the service too. This is the load under which an overloaded
+ * service's latency keeps growing, and which shows whether refusing part of it (429) keeps the rest fast.
+ * <p>
+ * Targets (--target):
+ * <ul>
+ *     <li>inprocess: creates --accounts accounts in a TransferService backed by WithdrawalServiceStub and calls it
+ *     directly</li>
+ *     <li>http: the same, with the service's HTTP API started on --port and the load sent through it</li>
+ *     <li>remote: an already running service at --url, using the ids in --accountIds (default the two demo
+ *     accounts), which should not take other traffic during the run</li>
+ * </ul>
+ * Once the load stops, withdrawals still in flight are given --settle seconds to reach a final state, then the
+ * money is counted: the balances plus the withdrawals that completed or are still processing must add up to the
+ * balances at the start. The generator tracks every withdrawal it was given an id for, so this holds the service to
+ * account without trusting its own bookkeeping. The exit status is 1 when money was created or lost.
+ * <p>
+ * Options (defaults in brackets): --target [inprocess], --url [http://localhost:8000], --port [18000],
+ * --accounts [1000], --accountIds, --initialBalance minor units [100000], --maxAmount minor units [1000],
+ * --skew [1.0], --mix transfer:withdrawal:read [70:10:20], --concurrency [64], --rate requests per second [0, a
+ * closed loop], --duration seconds [30], --warmup seconds [5], --settle seconds [15], --seed [42]. Any -Dkey=value
+ * JVM property configures the in-process service as in application.properties.
+ */
+public class LoadGenerator {
+    private static final List<String> DEMO_ACCOUNTS =
+            List.of("12345678-abcd-abcd-1234-000000000001", "12345678-abcd-abcd-1234-000000000002");
+
+    private final Map<String, String> options;
+    private final int concurrency;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final long settleNanos;
+    private final long seed;
+    // Between requests of an open load, 0 for a closed one
+    private final long arrivalIntervalNanos;
+    private final AtomicLong arrivals = new AtomicLong();
+    private final Map<Workload.Operation, LongAdder> failures = new EnumMap<>(Workload.Operation.class);
+    private final Map<Workload.Operation, LongAdder> shed = new EnumMap<>(Workload.Operation.class);
+    private Target target;
+    private Workload workload;
+
+    LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        concurrency = Integer.parseInt(options.getOrDefault("concurrency", "64"));
+        durationNanos = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "30"))).toNanos();
+        warmupNanos = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "5"))).toNanos();
+        settleNanos = Duration.ofSeconds(Long.parseLong(options.getOrDefault("settle", "15"))).toNanos();
+        seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        var rate = Long.parseLong(options.getOrDefault("rate", "0"));
+        arrivalIntervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+        for (var operation : Workload.Operation.values()) {
+            failures.put(operation, new LongAdder());
+            shed.put(operation, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        var options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Expected --option value, got " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        var conserved = new LoadGenerator(options).run();
+        // The in-process service keeps non-daemon threads running
+        System.exit(conserved ? 0 : 1);
+    }
+
+    /**
+     * @return whether money was conserved
+     */
+    boolean run() throws Exception {
+        setUp();
+        var initialTotal = totalBalance();
+        System.out.printf("target=%s accounts=%d concurrency=%d seed=%d initialTotal=%d%n", options.getOrDefault("target", "inprocess"),
+                workload.accounts().size(), concurrency, seed, initialTotal);
+
+        var workers = new ArrayList<Worker>();
+        var done = new CountDownLatch(concurrency);
+        var start = System.nanoTime();
+        var measureFrom = start + warmupNanos;
+        var end = measureFrom + durationNanos;
+        for (int i = 0; i < concurrency; i++) {
+            var worker = new Worker(new SplittableRandom(seed + i), start, measureFrom, end);
+            workers.add(worker);
+            var thread = new Thread(() -> {
+                try {
+                    worker.run();
+                } finally {
+                    done.countDown();
+                }
+            }, "load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        // An open load still running late when the duration is up is measured until it is done
+        report(workers, Math.max(durationNanos, System.nanoTime() - measureFrom) / 1e9);
+
+        var withdrawals = workers.stream().flatMap(worker -> worker.withdrawals.stream()).collect(Collectors.toList());
+        return checkConservation(initialTotal, withdrawals);
+    }
+
+    private void setUp() {
+        var skew = Double.parseDouble(options.getOrDefault("skew", "1.0"));
+        var mix = options.getOrDefault("mix", "70:10:20").split(":");
+        var weights = new double[]{Double.parseDouble(mix[0]), Double.parseDouble(mix[1]), Double.parseDouble(mix[2])};
+        var maxAmount = Long.parseLong(options.getOrDefault("maxAmount", "1000"));
+
+        var targetName = options.getOrDefault("target", "inprocess");
+        if (targetName.equals("remote")) {
+            var ids = options.containsKey("accountIds") ? List.of(options.get("accountIds").split(",")) : DEMO_ACCOUNTS;
+            target = new HttpTarget(URI.create(options.getOrDefault("url", "http://localhost:8000")), Money.SCALE);
+            workload = new Workload(ids.stream().map(String::trim).map(UUID::fromString).collect(Collectors.toList()),
+                    skew, weights, maxAmount);
+            return;
+        }
+
+        var config = AppConfig.load();
+        var transferService = new TransferService(
+                new WithdrawalServiceStub(config.getLong("withdrawal.stub.requestLatencyMillis", 0)), config);
+        var accounts = new ArrayList<UUID>();
+        var random = new SplittableRandom(seed);
+        var initialBalance = Long.parseLong(options.getOrDefault("initialBalance", "100000"));
+        for (int i = 0, count = Integer.parseInt(options.getOrDefault("accounts", "1000")); i < count; i++) {
+            var id = new UUID(random.nextLong(), random.nextLong());
+            transferService.createAccount(id, "Load " + i, initialBalance);
+            accounts.add(id);
+        }
+        workload = new Workload(accounts, skew, weights, maxAmount);
+
+        switch (targetName) {
+            case "inprocess" -> target = new InProcessTarget(transferService);
+            case "http" -> {
+                var port = options.getOrDefault("port", "18000");
+                var properties = new Properties();
+                properties.putAll(System.getProperties());
+                properties.setProperty("server.port", port);
+                new MoneyTransferController(transferService, new AppConfig(properties)).setupRoutes();
+                target = new HttpTarget(URI.create("http://localhost:" + port), Money.SCALE);
+            }
+            default -> throw new IllegalArgumentException("--target must be inprocess, http or remote");
+        }
+    }
+
+    private long totalBalance() throws Exception {
+        long total = 0;
+        for (var account : workload.accounts()) total += target.balance(account);
+        return total;
+    }
+
+    private record AcceptedWithdrawal(UUID id, long amount) { }
+
+    private final class Worker {
+        private final SplittableRandom random;
+        private final long start;
+        private final long measureFrom;
+        private final long end;
+        private final Map<Workload.Operation, LatencyRecorder> latencies = new EnumMap<>(Workload.Operation.class);
+        private final List<AcceptedWithdrawal> withdrawals = new ArrayList<>();
+
+        Worker(SplittableRandom random, long start, long measureFrom, long end) {
+            this.random = random;
+            this.start = start;
+            this.measureFrom = measureFrom;
+            this.end = end;
+            for (var operation : Workload.Operation.values()) latencies.put(operation, new LatencyRecorder());
+        }
+
+        void run() {
+            for (long now = nextStart(); now < end; now = nextStart()) {
+                var operation = workload.nextOperation(random);
+                var account = workload.nextAccount(random);
+                boolean failed = false;
+                boolean refused = false;
+                try {
+                    switch (operation) {
+                        case TRANSFER -> target.transfer(account, workload.nextAccountOtherThan(random, account),
+                                workload.nextAmount(random));
+                        case WITHDRAWAL -> {
+                            var amount = workload.nextAmount(random);
+                            withdrawals.add(new AcceptedWithdrawal(target.withdraw(account, amount), amount));
+                        }
+                        case READ -> target.readAccount(account);
+                    }
+                } catch (HttpTarget.Shed e) {
+                    refused = true;
+                } catch (Exception e) {
+                    failed = true;
+                }
+                if (now < measureFrom) continue;
+                // Latencies are of requests the service ran, a refusal is fast and would flatter them
+                if (refused) shed.get(operation).increment();
+                else latencies.get(operation).record(System.nanoTime() - now);
+                if (failed) failures.get(operation).increment();
+            }
+        }
+
+        /**
+         * @return when the next request is due, now for a closed load
+         */
+        private long nextStart() {
+            if (arrivalIntervalNanos == 0) return System.nanoTime();
+            var due = start + arrivals.getAndIncrement() * arrivalIntervalNanos;
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) LockSupport.parkNanos(wait);
+            return due;
+        }
+    }
+
+    private void report(List<Worker> workers, double seconds) {
+        long requests = 0;
+        long succeeded = 0;
+        for (var operation : Workload.Operation.values()) {
+            var latencies = LatencyRecorder.merge(workers.stream().map(worker -> worker.latencies.get(operation))
+                    .collect(Collectors.toList()));
+            var refused = shed.get(operation).sum();
+            if (latencies.count() + refused == 0) continue;
+            var ok = latencies.count() - failures.get(operation).sum();
+            requests += latencies.count() + refused;
+            succeeded += ok;
+            System.out.printf("%-10s requests=%d failed=%d shed=%d goodput=%.0f/s p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f ms%n",
+                    operation.name().toLowerCase(), latencies.count() + refused, failures.get(operation).sum(), refused,
+                    ok / seconds, latencies.percentile(50) / 1e6, latencies.percentile(90) / 1e6,
+                    latencies.percentile(99) / 1e6, latencies.percentile(99.9) / 1e6, latencies.percentile(100) / 1e6);
+        }
+        System.out.printf("total      requests=%d throughput=%.0f/s goodput=%.0f/s%n", requests, requests / seconds,
+                succeeded / seconds);
+    }
+
+    /**
+     * Wait for in-flight withdrawals to settle, then compare the money in accounts and withdrawals with the start.
+     * Balances are read only after the states, so a refund of a withdrawal seen as FAILED is already in them
+     */
+    private boolean checkConservation(long initialTotal, List<AcceptedWithdrawal> withdrawals) throws Exception {
+        var pending = new ArrayList<>(withdrawals);
+        long completed = 0;
+        var deadline = System.nanoTime() + settleNanos;
+        while (true) {
+            var stillPending = new ArrayList<AcceptedWithdrawal>();
+            for (var withdrawal : pending) {
+                switch (target.withdrawalState(withdrawal.id())) {
+                    case "COMPLETED" -> completed += withdrawal.amount();
+                    case "FAILED" -> { }
+                    default -> stillPending.add(withdrawal);
+                }
+            }
+            pending = stillPending;
+            if (pending.isEmpty() || System.nanoTime() > deadline) break;
+            Thread.sleep(250);
+        }
+
+        long inFlight = pending.stream().mapToLong(AcceptedWithdrawal::amount).sum();
+        var balances = totalBalance();
+        var difference = balances + completed + inFlight - initialTotal;
+        System.out.printf("withdrawals=%d completed=%d inFlight=%d (%d still processing) balances=%d difference=%d%n",
+                withdrawals.size(), completed, inFlight, pending.size(), balances, difference);
+        if (difference != 0) {
+            System.out.println("MONEY NOT CONSERVED");
+            if (!pending.isEmpty())
+                System.out.println("Withdrawals still processing may have settled while balances were read, try a longer --settle");
+            return false;
+        }
+        System.out.println("money conserved");
+        return true;
+    }
+}
@@ -0,0 +1,25 @@
+package com.boku.moneytransferservice.loadgen;
+
+import java.util.UUID;
+
+/**
+ * What the load is sent to. Amounts are in minor units of the accounts' currency. Operations the service refuses
+ * (insufficient balance, full withdrawal backlog) throw, so the worker counts them as failed
+ */
+interface Target {
+    void transfer(UUID senderAccountId, UUID receiverAccountId, long amount) throws Exception;
+
+    /**
+     * @return id of the accepted withdrawal
+     */
+    UUID withdraw(UUID senderAccountId, long amount) throws Exception;
+
+    void readAccount(UUID accountId) throws Exception;
+
+    long balance(UUID accountId) throws Exception;
+
+    /**
+     * @return PROCESSING, COMPLETED or FAILED
+     */
+    String withdrawalState(UUID withdrawalId) throws Exception;
+}
@@ -0,0 +1,73 @@
+package com.boku.moneytransferservice.loadgen;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+/**
+ * The request mix: which operation comes next, between which accounts and for how much. Accounts are picked from a
+ * Zipf distribution over their index, so with skew 0 every account is equally likely and with skew 1 the first
+ * account gets about as much traffic as the next nine together (for a thousand accounts). Immutable and shared by
+ * all workers; each worker draws from its own seeded random stream
+ */
+final class Workload {
+    enum Operation { TRANSFER, WITHDRAWAL, READ }
+
+    private final List<UUID> accounts;
+    private final double[] cumulativeWeights;
+    private final double transferShare;
+    private final double withdrawalShare;
+    private final long maxAmount;
+
+    /**
+     * @param mix       relative weights of transfers, withdrawals and reads
+     * @param maxAmount in minor units, amounts are drawn uniformly from 1 up to it
+     */
+    Workload(List<UUID> accounts, double skew, double[] mix, long maxAmount) {
+        if (accounts.size() < 2) throw new IllegalArgumentException("Transfers need at least two accounts");
+        this.accounts = List.copyOf(accounts);
+        this.cumulativeWeights = new double[accounts.size()];
+        double total = 0;
+        for (int rank = 0; rank < accounts.size(); rank++) {
+            total += 1 / Math.pow(rank + 1, skew);
+            cumulativeWeights[rank] = total;
+        }
+        for (int rank = 0; rank < accounts.size(); rank++) cumulativeWeights[rank] /= total;
+
+        var mixTotal = mix[0] + mix[1] + mix[2];
+        this.transferShare = mix[0] / mixTotal;
+        this.withdrawalShare = mix[1] / mixTotal;
+        this.maxAmount = maxAmount;
+    }
+
+    List<UUID> accounts() {
+        return accounts;
+    }
+
+    Operation nextOperation(SplittableRandom random) {
+        var draw = random.nextDouble();
+        if (draw < transferShare) return Operation.TRANSFER;
+        return draw < transferShare + withdrawalShare ? Operation.WITHDRAWAL : Operation.READ;
+    }
+
+    UUID nextAccount(SplittableRandom random) {
+        var rank = Arrays.binarySearch(cumulativeWeights, random.nextDouble());
+        return accounts.get(Math.min(rank < 0 ? -rank - 1 : rank, accounts.size() - 1));
+    }
+
+    /**
+     * An account other than the given one
+     */
+    UUID nextAccountOtherThan(SplittableRandom random, UUID account) {
+        UUID other;
+        do {
+            other = nextAccount(random);
+        } while (other.equals(account));
+        return other;
+    }
+
+    long nextAmount(SplittableRandom random) {
+        return random.nextLong(1, maxAmount + 1);
+    }
+}
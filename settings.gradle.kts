@@ -1 +1,2 @@
 rootProject.name = "money-transfer-service"
+include("load-generator")
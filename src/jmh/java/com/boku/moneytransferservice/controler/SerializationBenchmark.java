@@ -0,0 +1,69 @@
+package com.boku.moneytransferservice.controler;
+
+import com.boku.moneytransferservice.exception.ValidationException;
+import com.boku.moneytransferservice.model.Account;
+import com.boku.moneytransferservice.model.StatusResponse;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON serialization of the controller responses through Jackson, as Javalin's default mapper does it, against the
+ * streaming serializers in {@link JsonResponses}; and a transfer body read through a tree against {@link JsonRequests}.
+ * The streaming variants write into a reused buffer, standing in for the server's response buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SerializationBenchmark {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Account account = new Account(UUID.randomUUID(), "Boku User 1", 123_456);
+    private final StatusResponse statusResponse = new StatusResponse("success", "Withdrawal request submitted.", UUID.randomUUID());
+    private final ByteArrayOutputStream responseBuffer = new ByteArrayOutputStream(1024);
+    private final byte[] transferBody = ("{\"senderAccountId\":\"" + UUID.randomUUID() + "\",\"receiverAccountId\":\""
+            + UUID.randomUUID() + "\",\"amount\":12.50}").getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public byte[] account() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(account).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int accountStreaming() throws IOException {
+        responseBuffer.reset();
+        JsonResponses.write(responseBuffer, json -> JsonResponses.writeAccount(json, account));
+        return responseBuffer.size();
+    }
+
+    @Benchmark
+    public byte[] statusResponse() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(statusResponse).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int statusResponseStreaming() throws IOException {
+        responseBuffer.reset();
+        JsonResponses.write(responseBuffer, json -> JsonResponses.writeStatus(json, statusResponse.status(),
+                statusResponse.message(), (UUID) statusResponse.result()));
+        return responseBuffer.size();
+    }
+
+    @Benchmark
+    public JsonRequests.TransferRequest transferBodyTree() throws IOException, ValidationException {
+        var tree = objectMapper.readTree(transferBody);
+        return new JsonRequests.TransferRequest(UUID.fromString(tree.get("senderAccountId").asText()),
+                UUID.fromString(tree.get("receiverAccountId").asText()),
+                JsonRequests.amount(tree.get("amount").asText()));
+    }
+
+    @Benchmark
+    public JsonRequests.TransferRequest transferBodyStreaming() throws ValidationException {
+        return JsonRequests.parseTransfer(transferBody);
+    }
+}
@@ -0,0 +1,46 @@
+package com.boku.moneytransferservice.journal;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journal write throughput, each operation appends a transfer record and waits until it is durable.
+ * With fsync, concurrent threads (-PjmhThreads) share disk syncs through group commit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JournalBenchmark {
+    @Param({"false", "true"})
+    public boolean fsync;
+
+    private final UUID sender = UUID.randomUUID();
+    private final UUID receiver = UUID.randomUUID();
+    private Path directory;
+    private MappedJournal journal;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal-benchmark");
+        journal = new MappedJournal(directory, 64 * 1024 * 1024, fsync, 200);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        journal.close();
+        try (var files = Files.walk(directory)) {
+            for (var path : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        }
+    }
+
+    @Benchmark
+    public void appendTransfer() {
+        journal.awaitDurable(journal.transferred(sender, receiver, 1, 1));
+    }
+}
@@ -0,0 +1,21 @@
+package com.boku.moneytransferservice.metrics;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording one request latency, run with -prof gc to confirm nothing is allocated.
+ * Vary threads with -PjmhThreads to see contention on the shared buckets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LatencyHistogramBenchmark {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Benchmark
+    public void recordSince() {
+        histogram.recordSince(System.nanoTime() - 50_000);
+    }
+}
@@ -0,0 +1,61 @@
+package com.boku.moneytransferservice.model;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a 50 entry page from a ledger of a million entries, at the newest end, half way back and at the very
+ * first entries, which should all cost the same. Setup prints the ledger's footprint per million entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AccountLedgerBenchmark {
+    private static final int ENTRIES = 1_000_000;
+    private static final int PAGE = 50;
+
+    @Param({"newest", "middle", "oldest"})
+    public String position;
+
+    private AccountLedger ledger;
+    private long cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ledger = new AccountLedger(Money.SCALE, ENTRIES);
+        var counterparty = UUID.randomUUID();
+        for (int i = 0; i < ENTRIES; i++)
+            ledger.append(LedgerEntry.Type.values()[i % 4], i, counterparty);
+        cursor = switch (position) {
+            case "newest" -> Long.MAX_VALUE;
+            case "middle" -> ENTRIES / 2;
+            default -> PAGE;
+        };
+        System.out.printf("%nLedger footprint: %.1f MB per million entries%n", ledger.footprintBytes() / 1e6);
+    }
+
+    @Benchmark
+    public TransactionPage readPage() {
+        return ledger.page(cursor, PAGE);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void append(AppendState state) {
+        state.ledger.append(LedgerEntry.Type.TRANSFER_OUT, 100, state.counterparty);
+    }
+
+    @State(Scope.Thread)
+    public static class AppendState {
+        private final UUID counterparty = UUID.randomUUID();
+        private AccountLedger ledger;
+
+        // A fresh ledger per iteration keeps memory bounded over long runs
+        @Setup(Level.Iteration)
+        public void setUp() {
+            ledger = new AccountLedger();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.boku.moneytransferservice.service;
+
+import com.boku.moneytransferservice.config.AppConfig;
+import com.boku.moneytransferservice.exception.ValidationException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getAccountById readers running next to a transfer writer on the same set of accounts, for each account store.
+ * A million accounts no longer fit in cache, so lookups there pay for the store's memory layout
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AccountReadBenchmark {
+    private static final long INITIAL_BALANCE = 1_000_000_000_000L;
+
+    @Param({"compact", "map"})
+    public String store;
+
+    @Param({"1024", "1000000"})
+    public int accounts;
+
+    private UUID[] accountIds;
+    private TransferService transferService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var properties = new Properties();
+        properties.setProperty("account.store", store);
+        transferService = new TransferService(new WithdrawalServiceStub(), new AppConfig(properties));
+        accountIds = new UUID[accounts];
+        for (int i = 0; i < accounts; i++) {
+            accountIds[i] = UUID.randomUUID();
+            transferService.createAccount(accountIds[i], "Account " + i, INITIAL_BALANCE);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        transferService.executor.shutdownNow();
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public long read() {
+        return transferService.getAccountById(accountIds[ThreadLocalRandom.current().nextInt(accounts)]).getBalanceMinorUnits();
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void write() throws ValidationException {
+        var random = ThreadLocalRandom.current();
+        transferService.transferMoney(accountIds[random.nextInt(accounts)], accountIds[random.nextInt(accounts)], 1);
+    }
+}
@@ -0,0 +1,90 @@
+package com.boku.moneytransferservice.service;
+
+import com.boku.moneytransferservice.config.AppConfig;
+import com.boku.moneytransferservice.exception.ValidationException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random transfers between accounts while subscribers follow their balances, spread evenly over the accounts.
+ * A fast consumer takes each update as soon as it is woken, standing in for a connection that is always writable;
+ * a stalled one never takes anything, like a client that stopped reading. Transfers should cost the same either way.
+ * delivered and coalesced count updates left in and replaced in subscriber slots, over all benchmark threads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BalanceEventsBenchmark {
+    private static final long INITIAL_BALANCE = 1_000_000_000_000L;
+    private static final int ACCOUNTS = 1024;
+
+    @Param({"0", "10000"})
+    public int subscribers;
+
+    @Param({"fast", "stalled"})
+    public String consumer;
+
+    private final UUID[] accountIds = new UUID[ACCOUNTS];
+    private final List<BalanceEvents.Subscription> subscriptions = new ArrayList<>();
+    private TransferService transferService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var properties = new Properties();
+        properties.setProperty("events.maxSubscribers", String.valueOf(subscribers));
+        transferService = new TransferService(new WithdrawalServiceStub(), new AppConfig(properties));
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountIds[i] = UUID.randomUUID();
+            transferService.createAccount(accountIds[i], "Account " + i, INITIAL_BALANCE);
+        }
+        var stalled = "stalled".equals(consumer);
+        for (int i = 0; i < subscribers; i++) {
+            var slot = new BalanceEvents.Subscription[1];
+            slot[0] = transferService.subscribeToBalance(accountIds[i % ACCOUNTS], stalled ? () -> {
+            } : () -> slot[0].poll());
+            if (!stalled) slot[0].poll();
+            subscriptions.add(slot[0]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        subscriptions.forEach(BalanceEvents.Subscription::close);
+        transferService.executor.shutdownNow();
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        private BalanceEvents events;
+        private long publishedAtStart;
+        private long coalescedAtStart;
+
+        @Setup(Level.Iteration)
+        public void setUp(BalanceEventsBenchmark benchmark) {
+            events = benchmark.transferService.balanceEvents;
+            publishedAtStart = events.published();
+            coalescedAtStart = events.coalesced();
+        }
+
+        public long delivered() {
+            return events == null ? 0 : events.published() - publishedAtStart;
+        }
+
+        public long coalesced() {
+            return events == null ? 0 : events.coalesced() - coalescedAtStart;
+        }
+    }
+
+    @Benchmark
+    public void transfer(Counters counters) throws ValidationException {
+        var random = ThreadLocalRandom.current();
+        transferService.transferMoney(accountIds[random.nextInt(ACCOUNTS)], accountIds[random.nextInt(ACCOUNTS)], 1);
+    }
+}
@@ -0,0 +1,69 @@
+package com.boku.moneytransferservice.service;
+
+import com.boku.moneytransferservice.exception.ValidationException;
+import com.boku.moneytransferservice.model.BatchMode;
+import com.boku.moneytransferservice.model.TransferLeg;
+import com.boku.moneytransferservice.model.TransferLegResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Legs per second for a batch of 1k legs over 100 accounts, applied one transferMoney call at a time versus
+ * one transferBatch call in each mode. Scores are per leg.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BatchTransferBenchmark {
+    private static final int ACCOUNTS = 100;
+    private static final int LEGS = 1_000;
+    private static final long INITIAL_BALANCE = 1_000_000_000_000L;
+
+    private final List<TransferLeg> legs = new ArrayList<>(LEGS);
+    private TransferService transferService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        transferService = new TransferService(new WithdrawalServiceStub());
+        var accountIds = new UUID[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountIds[i] = UUID.randomUUID();
+            transferService.createAccount(accountIds[i], "Account " + i, INITIAL_BALANCE);
+        }
+        var random = new SplittableRandom(42);
+        for (int i = 0; i < LEGS; i++) {
+            var sender = random.nextInt(ACCOUNTS);
+            var receiver = (sender + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+            legs.add(new TransferLeg(accountIds[sender], accountIds[receiver], 1 + random.nextInt(100)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        transferService.executor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LEGS)
+    public void singleCalls() throws ValidationException {
+        for (var leg : legs)
+            transferService.transferMoney(leg.senderAccountId(), leg.receiverAccountId(), leg.amount());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LEGS)
+    public List<TransferLegResult> bestEffortBatch() {
+        return transferService.transferBatch(legs, BatchMode.BEST_EFFORT);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LEGS)
+    public List<TransferLegResult> allOrNothingBatch() {
+        return transferService.transferBatch(legs, BatchMode.ALL_OR_NOTHING);
+    }
+}
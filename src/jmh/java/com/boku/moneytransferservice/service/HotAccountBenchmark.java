@@ -0,0 +1,49 @@
+package com.boku.moneytransferservice.service;
+
+import com.boku.moneytransferservice.config.AppConfig;
+import com.boku.moneytransferservice.exception.ValidationException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every thread pays one merchant account from its own payer account, so the merchant's balance and ledger take
+ * every credit. Contention only shows with several cores: run with -PjmhThreads=8 (or -t 8 on the jar).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HotAccountBenchmark {
+    private static final long INITIAL_BALANCE = 1_000_000_000_000L;
+
+    private final UUID merchantId = UUID.randomUUID();
+    private TransferService transferService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        transferService = new TransferService(new WithdrawalServiceStub(), new AppConfig(new Properties()));
+        transferService.createAccount(merchantId, "Merchant", 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        transferService.executor.shutdownNow();
+    }
+
+    @State(Scope.Thread)
+    public static class Payer {
+        private final UUID id = UUID.randomUUID();
+
+        @Setup(Level.Trial)
+        public void setUp(HotAccountBenchmark benchmark) {
+            benchmark.transferService.createAccount(id, "Payer", INITIAL_BALANCE);
+        }
+    }
+
+    @Benchmark
+    public void payMerchant(Payer payer) throws ValidationException {
+        transferService.transferMoney(payer.id, merchantId, 1);
+    }
+}
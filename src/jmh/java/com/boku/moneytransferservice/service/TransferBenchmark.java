@@ -0,0 +1,84 @@
+package com.boku.moneytransferservice.service;
+
+import com.boku.moneytransferservice.config.AppConfig;
+import com.boku.moneytransferservice.exception.ValidationException;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * transferMoney throughput. "uncontended" gives every benchmark thread its own pair of accounts,
+ * "contended" makes all threads transfer between the same two accounts. Vary threads with -PjmhThreads.
+ * "converted" puts the receivers in another currency, so every transfer goes through the exchange rate table.
+ * "sequencer" hands every transfer to the single engine thread instead of applying it on the calling thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransferBenchmark {
+    private static final int PAIRS = 256;
+    private static final long INITIAL_BALANCE = 1_000_000_000_000L;
+
+    @Param({"uncontended", "contended"})
+    public String accountPairs;
+
+    @Param({"same", "converted"})
+    public String currencies;
+
+    @Param({"concurrent", "sequencer"})
+    public String engine;
+
+    private final AtomicInteger nextPair = new AtomicInteger();
+    private final List<UUID[]> pairs = new ArrayList<>();
+    private TransferService transferService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var properties = new Properties();
+        properties.setProperty("engine.mode", engine);
+        transferService = new TransferService(new WithdrawalServiceStub(), new AppConfig(properties));
+        transferService.getExchangeRates().replace(Map.of("EUR/USD", new BigDecimal("1.0850")));
+        var receiverCurrency = Currency.getInstance("converted".equals(currencies) ? "USD" : "EUR");
+        for (int i = 0; i < PAIRS; i++) {
+            var pair = new UUID[]{UUID.randomUUID(), UUID.randomUUID()};
+            transferService.createAccount(pair[0], "Sender " + i, INITIAL_BALANCE);
+            transferService.createAccount(pair[1], "Receiver " + i, receiverCurrency, INITIAL_BALANCE);
+            pairs.add(pair);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        transferService.executor.shutdownNow();
+    }
+
+    @State(Scope.Thread)
+    public static class AccountPair {
+        private UUID first;
+        private UUID second;
+        private boolean reverse;
+
+        @Setup(Level.Trial)
+        public void setUp(TransferBenchmark benchmark) {
+            var index = "contended".equals(benchmark.accountPairs) ? 0 : benchmark.nextPair.getAndIncrement() % PAIRS;
+            first = benchmark.pairs.get(index)[0];
+            second = benchmark.pairs.get(index)[1];
+        }
+    }
+
+    @Benchmark
+    public void transfer(AccountPair pair) throws ValidationException {
+        // Alternate direction so balances never run out
+        pair.reverse = !pair.reverse;
+        if (pair.reverse) transferService.transferMoney(pair.second, pair.first, 100);
+        else transferService.transferMoney(pair.first, pair.second, 100);
+    }
+}
@@ -0,0 +1,60 @@
+package com.boku.moneytransferservice.service;
+
+import com.boku.moneytransferservice.exception.ValidationException;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * withdrawMoney throughput and the cost of one poller pass with a backlog of pending withdrawals.
+ * The provider is pull-only so the poller does the settling, as it would for a provider without callbacks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WithdrawalBenchmark {
+    @Param({"0", "100000"})
+    public int backlog;
+
+    private TransferService transferService;
+    private UUID accountId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ValidationException {
+        transferService = new TransferService(new PullOnlyProvider(new WithdrawalServiceStub()));
+        accountId = UUID.randomUUID();
+        transferService.createAccount(accountId, "Sender", Long.MAX_VALUE / 2);
+        for (int i = 0; i < backlog; i++) {
+            transferService.withdrawMoney(accountId, "Address", 1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        transferService.executor.shutdownNow();
+    }
+
+    @Benchmark
+    public UUID withdraw() throws ValidationException {
+        return transferService.withdrawMoney(accountId, "Address", 1);
+    }
+
+    @Benchmark
+    public void pollerPass() {
+        transferService.checkWithdrawalStatus();
+    }
+
+    private record PullOnlyProvider(WithdrawalService delegate) implements WithdrawalService {
+        @Override
+        public void requestWithdrawal(WithdrawalId id, Address address, BigDecimal amount) {
+            delegate.requestWithdrawal(id, address, amount);
+        }
+
+        @Override
+        public WithdrawalState getRequestState(WithdrawalId id) {
+            return delegate.getRequestState(id);
+        }
+    }
+}
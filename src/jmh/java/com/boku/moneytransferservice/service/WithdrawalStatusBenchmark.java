@@ -0,0 +1,92 @@
+package com.boku.moneytransferservice.service;
+
+import com.boku.moneytransferservice.config.AppConfig;
+import com.boku.moneytransferservice.exception.ValidationException;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dashboards polling GET /withdrawal/status for a set of recent withdrawals, some still processing and some
+ * settled, against a provider whose status call takes providerLatencyMicros. cacheEntries=0 turns the status cache
+ * off; providerCalls per second against ops per second is the load the endpoint puts on the provider. Run with
+ * several threads, e.g. -t 8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WithdrawalStatusBenchmark {
+    private static final int WITHDRAWALS = 1_000;
+
+    @Param({"0", "100000"})
+    public int cacheEntries;
+
+    @Param({"200"})
+    public long providerLatencyMicros;
+
+    private final UUID[] withdrawalIds = new UUID[WITHDRAWALS];
+    private TransferService transferService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ValidationException {
+        var properties = new Properties();
+        properties.setProperty("withdrawal.status.cache.maxEntries", String.valueOf(cacheEntries));
+        transferService = new TransferService(new CountingProvider(new WithdrawalServiceStub(), providerLatencyMicros),
+                new AppConfig(properties));
+        var accountId = UUID.randomUUID();
+        transferService.createAccount(accountId, "Sender", Long.MAX_VALUE / 2);
+        for (int i = 0; i < WITHDRAWALS; i++) withdrawalIds[i] = transferService.withdrawMoney(accountId, "Address", 1);
+        while (transferService.getWithdrawalSenderMetrics().sent() < WITHDRAWALS) Thread.onSpinWait();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        transferService.executor.shutdownNow();
+    }
+
+    /**
+     * Provider calls made by each benchmark thread, status queries call the provider on the querying thread
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        private long[] calls;
+        private long callsAtStart;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            calls = CountingProvider.CALLS.get();
+            callsAtStart = calls[0];
+        }
+
+        public long providerCalls() {
+            return calls == null ? 0 : calls[0] - callsAtStart;
+        }
+    }
+
+    @Benchmark
+    public WithdrawalService.WithdrawalState status(Counters counters) {
+        return transferService.getWithdrawalStatus(withdrawalIds[ThreadLocalRandom.current().nextInt(WITHDRAWALS)]);
+    }
+
+    private record CountingProvider(WithdrawalService delegate, long latencyMicros) implements WithdrawalService {
+        static final ThreadLocal<long[]> CALLS = ThreadLocal.withInitial(() -> new long[1]);
+
+        @Override
+        public void requestWithdrawal(WithdrawalId id, Address address, BigDecimal amount) {
+            delegate.requestWithdrawal(id, address, amount);
+        }
+
+        @Override
+        public WithdrawalState getRequestState(WithdrawalId id) {
+            CALLS.get()[0]++;
+            var until = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+            while (System.nanoTime() < until) Thread.onSpinWait();
+            return delegate.getRequestState(id);
+        }
+    }
+}
@@ -1,30 +1,80 @@
 package com.boku.moneytransferservice;
 
 
+import com.boku.moneytransferservice.config.AppConfig;
 import com.boku.moneytransferservice.controler.MoneyTransferController;
+import com.boku.moneytransferservice.journal.Journal;
+import com.boku.moneytransferservice.journal.JournalCheckpointer;
+import com.boku.moneytransferservice.journal.MappedJournal;
+import com.boku.moneytransferservice.journal.NoOpJournal;
+import com.boku.moneytransferservice.model.Money;
+import com.boku.moneytransferservice.service.Reconciliation;
 import com.boku.moneytransferservice.service.TransferService;
 import com.boku.moneytransferservice.service.WithdrawalServiceStub;
 
-import java.math.BigDecimal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Currency;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class MoneyTransferServiceApplication {
+	private static final Logger log = LoggerFactory.getLogger(MoneyTransferServiceApplication.class);
+
+	private final AppConfig config;
 	private final TransferService transferService;
+	private final Reconciliation reconciliation;
 
 	public MoneyTransferServiceApplication() {
-		var withdrawalService = new WithdrawalServiceStub();
-		transferService = new TransferService(withdrawalService);
+		config = AppConfig.load();
+		var withdrawalService = new WithdrawalServiceStub(config.getLong("withdrawal.stub.requestLatencyMillis", 0));
+		Journal journal = NoOpJournal.INSTANCE;
+		JournalCheckpointer checkpointer = null;
+		if (config.getBoolean("journal.enabled", false)) {
+			var mappedJournal = MappedJournal.open(config);
+			Runtime.getRuntime().addShutdownHook(new Thread(mappedJournal::close, "journal-shutdown"));
+			checkpointer = new JournalCheckpointer(mappedJournal, config);
+			scheduleSnapshots(checkpointer, config.getLong("journal.snapshotIntervalSeconds", 300));
+			journal = mappedJournal;
+		}
+		transferService = new TransferService(withdrawalService, config, journal);
+		// Reconcile against the checkpointer's consistent snapshot, or the live balances without a journal
+		reconciliation = new Reconciliation(withdrawalService,
+				checkpointer != null ? checkpointer::readSnapshot : transferService::readLiveBalances, config);
+	}
+
+	private static void scheduleSnapshots(JournalCheckpointer checkpointer, long intervalSeconds) {
+		var scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			var thread = new Thread(runnable, "journal-snapshot");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				checkpointer.checkpoint();
+			} catch (RuntimeException e) {
+				log.error("Journal snapshot failed", e);
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
 	}
 
 	public void init() {
-		var controller = new MoneyTransferController(transferService);
+		var controller = new MoneyTransferController(transferService, config, reconciliation);
 		controller.setupRoutes();
 
-		var acc1 = transferService.createAccount(UUID.fromString("12345678-abcd-abcd-1234-000000000001"), "Boku User 1", new BigDecimal("1000"));
-		var acc2 = transferService.createAccount(UUID.fromString("12345678-abcd-abcd-1234-000000000002"), "Boku User 2", new BigDecimal("500"));
+		addAccountIfMissing(UUID.fromString("12345678-abcd-abcd-1234-000000000001"), "Boku User 1", Money.DEFAULT_CURRENCY, 100_000);
+		addAccountIfMissing(UUID.fromString("12345678-abcd-abcd-1234-000000000002"), "Boku User 2", Money.DEFAULT_CURRENCY, 50_000);
+		addAccountIfMissing(UUID.fromString("12345678-abcd-abcd-1234-000000000003"), "Boku User 3", Currency.getInstance("USD"), 50_000);
+		addAccountIfMissing(UUID.fromString("12345678-abcd-abcd-1234-000000000004"), "Boku User 4", Currency.getInstance("JPY"), 150_000);
+	}
 
-		System.out.println("Account added, " + acc1.getId());
-		System.out.println("Account added, " + acc2.getId());
+	private void addAccountIfMissing(UUID id, String name, Currency currency, long balance) {
+		// Accounts restored from the journal keep their balance
+		if (transferService.accountExists(id)) return;
+		var account = transferService.createAccount(id, name, currency, balance);
+		log.info("Account added, {}", account.getId());
 	}
 
 	public static void main(String[] args) {
@@ -0,0 +1,143 @@
+package com.boku.moneytransferservice.admission;
+
+import com.boku.moneytransferservice.config.AppConfig;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket per account, admission.account.ratePerSecond requests with bursts of up to admission.account.burst,
+ * kept as the generic cell rate algorithm: one long per account, the time at which its bucket would be full again,
+ * moved forward by a compare-and-set for every request admitted.
+ * <p>
+ * Buckets live in a fixed table of admission.account.maxTracked slots (rounded up to a power of two). An account
+ * may sit in any of a few slots from its hash, and a bucket that has filled up again is no different from a new one,
+ * so the slot of an account that has been quiet for a burst's worth of time is simply taken over. Memory stays
+ * fixed however many accounts send, and nothing locks. When every slot an account could use holds an active
+ * bucket of another account, the request is let through untracked and counted, rather than punished for a full
+ * table.
+ */
+public class AccountRateLimiter {
+    private static final int PROBES = 4;
+
+    private final long intervalNanos;
+    // How far ahead of now a bucket's full time may be: a full bucket has burst - 1 requests to spare after this one
+    private final long toleranceNanos;
+    private final AtomicReferenceArray<Bucket> buckets;
+    private final int mask;
+    private final LongSupplier nanoClock;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder untracked = new LongAdder();
+
+    private static final class Bucket {
+        final UUID accountId;
+        final AtomicLong fullAtNanos;
+
+        Bucket(UUID accountId, long fullAtNanos) {
+            this.accountId = accountId;
+            this.fullAtNanos = new AtomicLong(fullAtNanos);
+        }
+    }
+
+    public AccountRateLimiter(AppConfig config) {
+        this(config.getInt("admission.account.ratePerSecond", 0), config.getInt("admission.account.burst", 20),
+                config.getInt("admission.account.maxTracked", 65_536), System::nanoTime);
+    }
+
+    AccountRateLimiter(int ratePerSecond, int burst, int maxTracked, LongSupplier nanoClock) {
+        if (ratePerSecond <= 0) throw new IllegalArgumentException("admission.account.ratePerSecond must be positive");
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+        this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        var size = Integer.highestOneBit(Math.max(PROBES, maxTracked) - 1) << 1;
+        this.buckets = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Take one token from the account's bucket
+     *
+     * @return 0 when the request is admitted, otherwise how many nanoseconds until it would be
+     */
+    public long acquire(UUID accountId) {
+        var now = nanoClock.getAsLong();
+        var hash = accountId.hashCode();
+        var start = hash ^ (hash >>> 16);
+        // A slot can change under us, when it does look again, a few times at most
+        for (int attempt = 0; attempt < PROBES; attempt++) {
+            var free = -1;
+            Bucket replaced = null;
+            for (int i = 0; i < PROBES; i++) {
+                var slot = (start + i) & mask;
+                var bucket = buckets.get(slot);
+                if (bucket == null) {
+                    if (free < 0) free = slot;
+                } else if (bucket.accountId.equals(accountId)) {
+                    return take(bucket, now);
+                } else if (free < 0 && bucket.fullAtNanos.get() - now <= 0) {
+                    free = slot;
+                    replaced = bucket;
+                }
+            }
+            if (free < 0) break;
+            // A new bucket starts full, less this request
+            if (buckets.compareAndSet(free, replaced, new Bucket(accountId, now + intervalNanos))) {
+                merge(start, accountId, now);
+                return 0;
+            }
+        }
+        untracked.increment();
+        return 0;
+    }
+
+    /**
+     * Two first requests for an account can each create a bucket for it, in different slots. Lookups only ever use
+     * the first in probe order, so any later one is removed and what was charged to it moves to the first: the
+     * account is left with one bucket and no admitted request is forgotten
+     */
+    private void merge(int start, UUID accountId, long now) {
+        Bucket first = null;
+        for (int i = 0; i < PROBES; i++) {
+            var slot = (start + i) & mask;
+            var bucket = buckets.get(slot);
+            if (bucket == null || !bucket.accountId.equals(accountId)) continue;
+            if (first == null) {
+                first = bucket;
+            } else if (buckets.compareAndSet(slot, bucket, null)) {
+                var charged = Math.max(0, bucket.fullAtNanos.get() - now);
+                first.fullAtNanos.accumulateAndGet(charged, (fullAt, extra) -> (fullAt - now > 0 ? fullAt : now) + extra);
+            }
+        }
+    }
+
+    private long take(Bucket bucket, long now) {
+        while (true) {
+            var fullAt = bucket.fullAtNanos.get();
+            var from = fullAt - now > 0 ? fullAt : now;
+            var ahead = from - now;
+            if (ahead > toleranceNanos) {
+                rejected.increment();
+                return ahead - toleranceNanos;
+            }
+            if (bucket.fullAtNanos.compareAndSet(fullAt, from + intervalNanos)) return 0;
+        }
+    }
+
+    /**
+     * Requests refused for exceeding their account's rate
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Requests let through without a bucket because the table had no slot for their account
+     */
+    public long untracked() {
+        return untracked.sum();
+    }
+}
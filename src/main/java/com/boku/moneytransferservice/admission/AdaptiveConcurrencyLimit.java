@@ -0,0 +1,108 @@
+package com.boku.moneytransferservice.admission;
+
+import com.boku.moneytransferservice.config.AppConfig;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.LongSupplier;
+
+/**
+ * Caps the requests running at once, with a cap that follows their latency (additive increase, multiplicative
+ * decrease), moved only by requests finishing while the limit is at least half used. One finishing within
+ * admission.latencyTargetMillis raises the limit by 1/limit, so by about one per limit's worth of requests; a slower
+ * one cuts it by admission.backoffRatio, at most once per target period so a burst of slow requests that were
+ * already running counts as one signal. The limit stays between admission.minLimit and admission.maxLimit.
+ * <p>
+ * Requests over the limit are refused straight away instead of queueing behind the ones running, so the latency
+ * of admitted requests stays near the target however much is offered. Nothing here locks.
+ */
+public class AdaptiveConcurrencyLimit {
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetNanos;
+    private final double backoffRatio;
+    private final LongSupplier nanoClock;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // Bits of the limit as a double, fractional so it can grow by 1/limit
+    private final AtomicLong limitBits;
+    private final AtomicLong lastDecreaseNanos;
+    private final LongAdder rejected = new LongAdder();
+
+    public AdaptiveConcurrencyLimit(AppConfig config) {
+        this(config.getInt("admission.initialLimit", 50), config.getInt("admission.minLimit", 4),
+                config.getInt("admission.maxLimit", 200),
+                TimeUnit.MILLISECONDS.toNanos(config.getLong("admission.latencyTargetMillis", 100)),
+                Double.parseDouble(config.getString("admission.backoffRatio", "0.9")), System::nanoTime);
+    }
+
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, long targetNanos, double backoffRatio,
+                             LongSupplier nanoClock) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetNanos = targetNanos;
+        this.backoffRatio = backoffRatio;
+        this.nanoClock = nanoClock;
+        this.limitBits = new AtomicLong(Double.doubleToLongBits(Math.max(minLimit, Math.min(maxLimit, initialLimit))));
+        this.lastDecreaseNanos = new AtomicLong(nanoClock.getAsLong() - targetNanos);
+    }
+
+    /**
+     * @return whether the request may run, in which case {@link #release} must follow once it is done
+     */
+    public boolean tryAcquire() {
+        var limit = limit();
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * @param latencyNanos how long the admitted request took
+     */
+    public void release(long latencyNanos) {
+        var running = inFlight.getAndDecrement();
+        // Only move a limit that is being used: an idle service says nothing about how much it could take, and one
+        // that is slow with few requests running would not get faster with fewer
+        if (running * 2 < limit()) return;
+        if (latencyNanos > targetNanos) {
+            var now = nanoClock.getAsLong();
+            var last = lastDecreaseNanos.get();
+            if (now - last >= targetNanos && lastDecreaseNanos.compareAndSet(last, now))
+                updateLimit(limit -> Math.max(minLimit, limit * backoffRatio));
+        } else {
+            updateLimit(limit -> Math.min(maxLimit, limit + 1 / limit));
+        }
+    }
+
+    private void updateLimit(DoubleUnaryOperator update) {
+        long bits, updated;
+        do {
+            bits = limitBits.get();
+            updated = Double.doubleToLongBits(update.applyAsDouble(Double.longBitsToDouble(bits)));
+        } while (bits != updated && !limitBits.compareAndSet(bits, updated));
+    }
+
+    public int limit() {
+        return (int) Double.longBitsToDouble(limitBits.get());
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Requests refused for being over the limit
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+}
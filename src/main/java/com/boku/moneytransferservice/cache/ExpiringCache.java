@@ -0,0 +1,174 @@
+package com.boku.moneytransferservice.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Size and TTL bounded cache where concurrent lookups of a missing key share a single load.
+ * <p>
+ * Loaded entries are evicted oldest first once maxEntries is exceeded, or once the weights of the loaded values add
+ * up to more than maxWeight, and dropped on access after their TTL, which may depend on the loaded value. Entries
+ * still loading are never evicted, so every lookup of their key shares the load, and the cache may briefly hold more
+ * than maxEntries while that many loads are in flight. A load that throws is not cached: callers already waiting on
+ * it get the same exception and the next lookup loads again. The map is only locked for the lookup itself, never
+ * during a load.
+ */
+public class ExpiringCache<K, V> {
+    private final Map<K, Entry<V>> entries;
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final LongSupplier nanoClock;
+    // Weight of the loaded entries, guarded by entries
+    private long weight;
+
+    public ExpiringCache(int maxEntries) {
+        this(maxEntries, Long.MAX_VALUE, value -> 0, System::nanoTime);
+    }
+
+    /**
+     * @param weigher the weight of a value, in whatever unit maxWeight is given in (bytes, say)
+     */
+    public ExpiringCache(int maxEntries, long maxWeight, ToLongFunction<V> weigher) {
+        this(maxEntries, maxWeight, weigher, System::nanoTime);
+    }
+
+    ExpiringCache(int maxEntries, LongSupplier nanoClock) {
+        this(maxEntries, Long.MAX_VALUE, value -> 0, nanoClock);
+    }
+
+    ExpiringCache(int maxEntries, long maxWeight, ToLongFunction<V> weigher, LongSupplier nanoClock) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.nanoClock = nanoClock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() <= maxEntries) return false;
+                for (var iterator = values().iterator(); iterator.hasNext(); ) {
+                    var candidate = iterator.next();
+                    if (candidate.isLoading()) continue;
+                    weight -= candidate.weight;
+                    iterator.remove();
+                    break;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Return the cached value for key, or run loader once and cache its result for ttlNanos(result)
+     */
+    public V get(K key, Callable<V> loader, ToLongFunction<V> ttlNanos) throws Exception {
+        Entry<V> entry;
+        boolean owner = false;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null || entry.isExpired(nanoClock.getAsLong())) {
+                var expired = entry;
+                entry = new Entry<>();
+                entries.put(key, entry);
+                if (expired != null) weight -= expired.weight;
+                owner = true;
+            }
+        }
+        if (!owner) return entry.await();
+
+        try {
+            var value = loader.call();
+            entry.complete(value, nanoClock.getAsLong() + ttlNanos.applyAsLong(value));
+            weigh(key, entry, value);
+            return value;
+        } catch (Exception e) {
+            synchronized (entries) {
+                entries.remove(key, entry);
+            }
+            entry.future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Cache a value learned some other way, replacing whatever is cached for key. Lookups already waiting on a
+     * load still get the loaded value
+     */
+    public void put(K key, V value, long ttlNanos) {
+        var entry = new Entry<V>();
+        entry.complete(value, nanoClock.getAsLong() + ttlNanos);
+        synchronized (entries) {
+            var replaced = entries.put(key, entry);
+            if (replaced != null) weight -= replaced.weight;
+        }
+        weigh(key, entry, value);
+    }
+
+    /**
+     * Count a loaded entry's weight, if it is still cached, and evict loaded entries oldest first while over maxWeight
+     */
+    private void weigh(K key, Entry<V> entry, V value) {
+        var valueWeight = weigher.applyAsLong(value);
+        if (valueWeight == 0) return;
+        synchronized (entries) {
+            if (entries.get(key) != entry) return;
+            entry.weight = valueWeight;
+            weight += valueWeight;
+            for (var iterator = entries.values().iterator(); weight > maxWeight && iterator.hasNext(); ) {
+                var eldest = iterator.next();
+                // Also skips loading entries, which weigh nothing until loaded
+                if (eldest.weight == 0) continue;
+                weight -= eldest.weight;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Summed weight of the cached values
+     */
+    public long weight() {
+        synchronized (entries) {
+            return weight;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static class Entry<V> {
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+        // Loading entries never expire
+        private volatile long expiresAtNanos = Long.MAX_VALUE;
+        // 0 until loaded, guarded by the cache's entries
+        private long weight;
+
+        void complete(V value, long expiresAtNanos) {
+            this.expiresAtNanos = expiresAtNanos;
+            future.complete(value);
+        }
+
+        boolean isLoading() {
+            return !future.isDone();
+        }
+
+        boolean isExpired(long nowNanos) {
+            return expiresAtNanos != Long.MAX_VALUE && nowNanos - expiresAtNanos >= 0;
+        }
+
+        V await() throws Exception {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Exception cause) throw cause;
+                throw e;
+            }
+        }
+    }
+}
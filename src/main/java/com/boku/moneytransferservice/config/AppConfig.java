@@ -0,0 +1,53 @@
+package com.boku.moneytransferservice.config;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Properties;
+
+/**
+ * Settings read from application.properties, any key can be overridden with a JVM system property (-Dkey=value)
+ */
+public class AppConfig {
+    private static final String RESOURCE = "/application.properties";
+
+    private final Properties properties;
+
+    public AppConfig(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static AppConfig defaults() {
+        return new AppConfig(new Properties());
+    }
+
+    public static AppConfig load() {
+        var properties = new Properties();
+        try (var in = AppConfig.class.getResourceAsStream(RESOURCE)) {
+            if (in != null) properties.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + RESOURCE, e);
+        }
+        System.getProperties().forEach((key, value) -> properties.put(key, value));
+        return new AppConfig(properties);
+    }
+
+    public String getString(String key, String defaultValue) {
+        var value = properties.getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public int getInt(String key, int defaultValue) {
+        var value = getString(key, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        var value = getString(key, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        var value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
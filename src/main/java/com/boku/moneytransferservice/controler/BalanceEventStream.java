@@ -0,0 +1,148 @@
+package com.boku.moneytransferservice.controler;
+
+import com.boku.moneytransferservice.model.Money;
+import com.boku.moneytransferservice.service.BalanceEvents;
+import com.boku.moneytransferservice.service.BalanceEvents.BalanceUpdate;
+import com.boku.moneytransferservice.service.TransferService;
+import io.javalin.http.Context;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * One GET /account/{accountId}/events response: a server-sent event stream of the account's balance.
+ * <p>
+ * The response is written with non-blocking servlet output. Updates are only written while the connection can take
+ * them; when it can't, the newest one waits in the subscription until Jetty reports the connection writable again,
+ * so a slow client holds one update and a connection's buffer, and never a thread. Writes happen on whichever thread
+ * finds work, the dispatcher or a Jetty callback, one at a time per stream.
+ */
+final class BalanceEventStream implements WriteListener, AsyncListener {
+    static final String CONTENT_TYPE = "text/event-stream";
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(US_ASCII);
+    // Every subscriber of an account is sent the same update, so encoding it once serves the whole fan-out
+    private static volatile Encoded lastEncoded;
+
+    // Requests to write, only the caller that raises it from 0 writes and it loops until it is back at 0
+    private final AtomicInteger pendingDrains = new AtomicInteger();
+    private BalanceEvents.Subscription subscription;
+    private AsyncContext async;
+    private ServletOutputStream out;
+    // Set by Jetty's first onWritePossible, once the output is non-blocking, and publishes the fields above to the
+    // dispatcher. Before that its drains are skipped, the first onWritePossible writes whatever they would have
+    private volatile boolean open;
+
+    private record Encoded(BalanceUpdate update, byte[] bytes) {
+    }
+
+    /**
+     * Subscribe first so an unknown account or a full subscriber table is answered like any other request, then
+     * hand the response over to asynchronous writes. The first write, of the current balance, comes from Jetty's
+     * initial onWritePossible. When handing over fails the subscription is closed, so it doesn't keep a slot
+     */
+    static void open(Context context, TransferService transferService, UUID accountId) throws IOException {
+        var stream = new BalanceEventStream();
+        stream.subscription = transferService.subscribeToBalance(accountId, stream::drain);
+        try {
+            context.status(200);
+            context.res.setContentType(CONTENT_TYPE);
+            context.res.setCharacterEncoding("UTF-8");
+            context.res.setHeader("Cache-Control", "no-cache");
+            stream.async = context.req.startAsync();
+            stream.async.setTimeout(0);
+            stream.async.addListener(stream);
+            stream.out = context.res.getOutputStream();
+            stream.out.setWriteListener(stream);
+        } catch (IOException | RuntimeException e) {
+            if (stream.async != null) stream.close();
+            else stream.subscription.close();
+            throw e;
+        }
+    }
+
+    void drain() {
+        if (!open || pendingDrains.getAndIncrement() != 0) return;
+        var requests = 1;
+        try {
+            do {
+                BalanceUpdate update;
+                while (out.isReady() && (update = subscription.poll()) != null) {
+                    out.write(update == BalanceEvents.HEARTBEAT ? HEARTBEAT : encode(update));
+                    // Not ready means the write went out asynchronously, onWritePossible follows once it's done
+                    if (out.isReady()) out.flush();
+                }
+                requests = pendingDrains.addAndGet(-requests);
+            } while (requests != 0);
+        } catch (IOException | IllegalStateException e) {
+            // The client went away
+            close();
+        }
+    }
+
+    private static byte[] encode(BalanceUpdate update) throws IOException {
+        var encoded = lastEncoded;
+        if (encoded != null && encoded.update() == update) return encoded.bytes();
+
+        var buffer = new ByteArrayOutputStream(128);
+        buffer.write("event: balance\ndata: ".getBytes(US_ASCII));
+        JsonResponses.write(buffer, json -> {
+            json.writeStartObject();
+            json.writeStringField("id", update.accountId().toString());
+            json.writeStringField("currency", update.currency().getCurrencyCode());
+            json.writeNumberField("balance", Money.fromMinorUnits(update.balance(), update.currency()));
+            json.writeEndObject();
+        });
+        buffer.write("\n\n".getBytes(US_ASCII));
+        var bytes = buffer.toByteArray();
+        lastEncoded = new Encoded(update, bytes);
+        return bytes;
+    }
+
+    private void close() {
+        subscription.close();
+        try {
+            async.complete();
+        } catch (IllegalStateException e) {
+            // Already completed
+        }
+    }
+
+    @Override
+    public void onWritePossible() {
+        open = true;
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        close();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        subscription.close();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        close();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        close();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+}
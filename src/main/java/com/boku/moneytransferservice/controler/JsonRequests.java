@@ -0,0 +1,224 @@
+package com.boku.moneytransferservice.controler;
+
+import com.boku.moneytransferservice.exception.ValidationException;
+import com.boku.moneytransferservice.model.BatchMode;
+import com.boku.moneytransferservice.model.TransferLeg;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Request bodies read token by token with Jackson's streaming parser, straight into the values the service
+ * takes, without building a JSON tree or binding to intermediate objects. Also holds the field conversions
+ * shared with query parameters, so malformed input of either kind is a {@link ValidationException}.
+ */
+final class JsonRequests {
+    private static final JsonFactory JSON = new JsonFactory();
+
+    record Batch(BatchMode mode, List<TransferLeg> legs) { }
+
+    record TransferRequest(UUID senderAccountId, UUID receiverAccountId, BigDecimal amount) { }
+
+    record WithdrawalRequest(UUID senderAccountId, String address, BigDecimal amount) { }
+
+    /**
+     * Amounts are in the sending account's currency, so its minor units are only known once the account is
+     */
+    @FunctionalInterface
+    interface AmountConverter {
+        long toMinorUnits(UUID accountId, BigDecimal amount) throws ValidationException;
+    }
+
+    private JsonRequests() { }
+
+    /**
+     * {"senderAccountId": ..., "receiverAccountId": ..., "amount": ...}, the amount as a number or a string
+     */
+    static TransferRequest parseTransfer(byte[] body) throws ValidationException {
+        try (var parser = startObject(body)) {
+            String sender = null, receiver = null, amount = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "senderAccountId" -> sender = scalar(parser, "senderAccountId");
+                    case "receiverAccountId" -> receiver = scalar(parser, "receiverAccountId");
+                    case "amount" -> amount = scalar(parser, "amount");
+                    default -> parser.skipChildren();
+                }
+            }
+            requireEnd(parser, JsonToken.END_OBJECT, "Malformed JSON body");
+            return new TransferRequest(uuid("senderAccountId", required(sender, "senderAccountId")),
+                    uuid("receiverAccountId", required(receiver, "receiverAccountId")),
+                    amount(required(amount, "amount")));
+        } catch (IOException e) {
+            throw new ValidationException("Malformed JSON body");
+        }
+    }
+
+    /**
+     * {"senderAccountId": ..., "address": ..., "amount": ...}
+     */
+    static WithdrawalRequest parseWithdrawal(byte[] body) throws ValidationException {
+        try (var parser = startObject(body)) {
+            String sender = null, address = null, amount = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "senderAccountId" -> sender = scalar(parser, "senderAccountId");
+                    case "address" -> address = scalar(parser, "address");
+                    case "amount" -> amount = scalar(parser, "amount");
+                    default -> parser.skipChildren();
+                }
+            }
+            requireEnd(parser, JsonToken.END_OBJECT, "Malformed JSON body");
+            return new WithdrawalRequest(uuid("senderAccountId", required(sender, "senderAccountId")),
+                    required(address, "address"), amount(required(amount, "amount")));
+        } catch (IOException e) {
+            throw new ValidationException("Malformed JSON body");
+        }
+    }
+
+    private static JsonParser startObject(byte[] body) throws IOException, ValidationException {
+        var parser = JSON.createParser(body);
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            parser.close();
+            throw new ValidationException("Body must be a JSON object");
+        }
+        return parser;
+    }
+
+    /**
+     * The value just read must be closed by the given token and be the whole body, so a truncated body or one with
+     * more after it is refused rather than read as far as it goes
+     */
+    private static void requireEnd(JsonParser parser, JsonToken closing, String message)
+            throws IOException, ValidationException {
+        if (parser.currentToken() != closing || parser.nextToken() != null)
+            throw new ValidationException(message);
+    }
+
+    /**
+     * Reads a batch body, either {"mode": ..., "legs": [...]} or a bare array of legs, so large batches are
+     * decoded straight into legs
+     */
+    static Batch parseBatch(byte[] body, BatchMode defaultMode, int maxLegs, AmountConverter amounts)
+            throws ValidationException {
+        try (var parser = JSON.createParser(body)) {
+            var token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                var legs = readLegs(parser, maxLegs, amounts);
+                requireEnd(parser, JsonToken.END_ARRAY, "Malformed batch request");
+                return new Batch(defaultMode, legs);
+            }
+            if (token != JsonToken.START_OBJECT)
+                throw new ValidationException("Batch must be a JSON object or array");
+
+            var mode = defaultMode;
+            List<TransferLeg> legs = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "mode" -> mode = parseMode(scalar(parser, "mode"));
+                    case "legs" -> {
+                        if (parser.currentToken() != JsonToken.START_ARRAY)
+                            throw new ValidationException("legs must be an array");
+                        legs = readLegs(parser, maxLegs, amounts);
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+            requireEnd(parser, JsonToken.END_OBJECT, "Malformed batch request");
+            if (legs == null)
+                throw new ValidationException("legs is required");
+            return new Batch(mode, legs);
+        } catch (IOException e) {
+            throw new ValidationException("Malformed batch request");
+        }
+    }
+
+    static BatchMode parseMode(String mode) throws ValidationException {
+        try {
+            return BatchMode.valueOf(mode);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new ValidationException("mode must be one of ALL_OR_NOTHING, BEST_EFFORT");
+        }
+    }
+
+    private static List<TransferLeg> readLegs(JsonParser parser, int maxLegs, AmountConverter amounts)
+            throws IOException, ValidationException {
+        var legs = new ArrayList<TransferLeg>();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            if (legs.size() == maxLegs)
+                throw new ValidationException("Batch exceeds " + maxLegs + " legs");
+            legs.add(readLeg(parser, legs.size(), amounts));
+        }
+        if (parser.currentToken() != JsonToken.END_ARRAY)
+            throw new ValidationException("Legs must be JSON objects");
+        if (legs.isEmpty())
+            throw new ValidationException("Batch has no legs");
+        return legs;
+    }
+
+    private static TransferLeg readLeg(JsonParser parser, int index, AmountConverter amounts)
+            throws IOException, ValidationException {
+        String sender = null, receiver = null, amount = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "senderAccountId" -> sender = scalar(parser, "senderAccountId");
+                case "receiverAccountId" -> receiver = scalar(parser, "receiverAccountId");
+                case "amount" -> amount = scalar(parser, "amount");
+                default -> parser.skipChildren();
+            }
+        }
+        try {
+            var senderAccountId = uuid("senderAccountId", required(sender, "senderAccountId"));
+            return new TransferLeg(senderAccountId, uuid("receiverAccountId", required(receiver, "receiverAccountId")),
+                    amounts.toMinorUnits(senderAccountId, amount(required(amount, "amount"))));
+        } catch (ValidationException e) {
+            throw new ValidationException("Invalid leg " + index + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * The current value as text. An object or array is refused rather than skipped, reading on from its start would
+     * take its members for the enclosing object's
+     */
+    private static String scalar(JsonParser parser, String field) throws IOException, ValidationException {
+        if (parser.currentToken().isStructStart())
+            throw new ValidationException(field + " must not be an object or array");
+        return parser.getValueAsString();
+    }
+
+    private static String required(String value, String field) throws ValidationException {
+        if (value == null || value.isEmpty())
+            throw new ValidationException(field + " is required");
+        return value;
+    }
+
+    static UUID uuid(String field, String value) throws ValidationException {
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException(field + " must be a UUID");
+        }
+    }
+
+    static BigDecimal amount(String value) throws ValidationException {
+        try {
+            return new BigDecimal(value);
+        } catch (NumberFormatException e) {
+            throw new ValidationException("amount must be a decimal number");
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.boku.moneytransferservice.controler;
+
+import com.boku.moneytransferservice.model.Account;
+import com.boku.moneytransferservice.service.WithdrawalService.WithdrawalState;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.javalin.http.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * Hand-written serializers for the hot responses, producing the same JSON Javalin's Jackson mapper would but
+ * writing it with a streaming generator straight to the response stream, without building a response object or
+ * an intermediate String or byte[].
+ * <p>
+ * Responses that have to be kept, such as those stored for idempotent replays, are buffered into the context
+ * result instead; callers ask for that by setting {@link #BUFFER_ATTRIBUTE}.
+ */
+final class JsonResponses {
+    static final String BUFFER_ATTRIBUTE = JsonResponses.class.getName() + ".buffer";
+    private static final String CONTENT_TYPE = "application/json";
+    private static final JsonFactory JSON = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    @FunctionalInterface
+    interface Body {
+        void write(JsonGenerator json) throws IOException;
+    }
+
+    private JsonResponses() { }
+
+    /**
+     * A StatusResponse whose result is null or an id
+     */
+    static void status(Context context, String status, String message, UUID result) throws IOException {
+        send(context, json -> writeStatus(json, status, message, result));
+    }
+
+    static void writeStatus(JsonGenerator json, String status, String message, UUID result) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("status", status);
+        json.writeStringField("message", message);
+        if (result == null) json.writeNullField("result");
+        else json.writeStringField("result", result.toString());
+        json.writeEndObject();
+    }
+
+    static void account(Context context, Account account) throws IOException {
+        send(context, json -> writeAccount(json, account));
+    }
+
+    static void writeAccount(JsonGenerator json, Account account) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("id", account.getId().toString());
+        json.writeStringField("name", account.getName());
+        json.writeStringField("currency", account.getCurrency().getCurrencyCode());
+        json.writeNumberField("balance", account.getBalance());
+        json.writeEndObject();
+    }
+
+    static void withdrawalState(Context context, WithdrawalState state) throws IOException {
+        send(context, json -> json.writeString(state.name()));
+    }
+
+    private static void send(Context context, Body body) throws IOException {
+        context.contentType(CONTENT_TYPE);
+        if (context.attribute(BUFFER_ATTRIBUTE) != null) {
+            var buffer = new ByteArrayOutputStream(256);
+            write(buffer, body);
+            context.result(buffer.toByteArray());
+        } else {
+            write(context.res.getOutputStream(), body);
+        }
+    }
+
+    static void write(OutputStream out, Body body) throws IOException {
+        try (var json = JSON.createGenerator(out)) {
+            body.write(json);
+        }
+    }
+}
@@ -1,67 +1,397 @@
 package com.boku.moneytransferservice.controler;
 
+import com.boku.moneytransferservice.admission.AccountRateLimiter;
+import com.boku.moneytransferservice.admission.AdaptiveConcurrencyLimit;
+import com.boku.moneytransferservice.cache.ExpiringCache;
+import com.boku.moneytransferservice.config.AppConfig;
+import com.boku.moneytransferservice.exception.IdempotencyKeyReusedException;
 import com.boku.moneytransferservice.exception.MissingParameterException;
+import com.boku.moneytransferservice.exception.TooManyRequestsException;
+import com.boku.moneytransferservice.exception.TooManySubscribersException;
 import com.boku.moneytransferservice.exception.ValidationException;
+import com.boku.moneytransferservice.exception.WithdrawalBacklogFullException;
+import com.boku.moneytransferservice.metrics.MetricsRegistry;
+import com.boku.moneytransferservice.model.BatchMode;
 import com.boku.moneytransferservice.model.StatusResponse;
+import com.boku.moneytransferservice.model.TransferLeg;
+import com.boku.moneytransferservice.model.TransferLegResult;
+import com.boku.moneytransferservice.server.ServerThreadPool;
+import com.boku.moneytransferservice.server.ServerThreadPools;
+import com.boku.moneytransferservice.service.Reconciliation;
 import com.boku.moneytransferservice.service.TransferService;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import org.eclipse.jetty.server.Server;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class MoneyTransferController {
+    private static final Logger log = LoggerFactory.getLogger(MoneyTransferController.class);
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    static final String IDEMPOTENT_REPLAY_HEADER = "Idempotent-Replayed";
+
     private final TransferService transferService;
+    // Null when the service is run without the admin reconciliation job
+    private final Reconciliation reconciliation;
+    private final ExpiringCache<String, IdempotentResponse> idempotentResponses;
+    private final long idempotencyTtlNanos;
+    private final int maxBatchLegs;
+    private final int maxTransactionsPageSize;
+    private final int port;
+    private final ServerThreadPool serverThreadPool;
+    // Null when admission control is off
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    // Null when accounts are not rate limited
+    private final AccountRateLimiter accountRateLimiter;
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final LongAdder validationFailures =
+            metrics.counter("validation_failures_total", "Requests rejected with 400 for missing or invalid input");
 
     public MoneyTransferController(TransferService transferService) {
+        this(transferService, AppConfig.defaults());
+    }
+
+    public MoneyTransferController(TransferService transferService, AppConfig config) {
+        this(transferService, config, null);
+    }
+
+    public MoneyTransferController(TransferService transferService, AppConfig config, Reconciliation reconciliation) {
         this.transferService = transferService;
+        this.reconciliation = reconciliation;
+        this.idempotentResponses = new ExpiringCache<>(config.getInt("idempotency.maxEntries", 100_000),
+                config.getLong("idempotency.maxBytes", 256L * 1024 * 1024), IdempotentResponse::bytes);
+        this.idempotencyTtlNanos = TimeUnit.SECONDS.toNanos(config.getLong("idempotency.ttlSeconds", 24 * 60 * 60));
+        this.maxBatchLegs = config.getInt("transfer.batch.maxLegs", 10_000);
+        this.maxTransactionsPageSize = config.getInt("account.transactions.maxLimit", 500);
+        this.port = config.getInt("server.port", 8000);
+        this.serverThreadPool = ServerThreadPools.create(config);
+        this.concurrencyLimit = config.getBoolean("admission.enabled", false) ? new AdaptiveConcurrencyLimit(config) : null;
+        this.accountRateLimiter = config.getInt("admission.account.ratePerSecond", 0) > 0
+                ? new AccountRateLimiter(config) : null;
     }
 
     public void setupRoutes() {
-        final var app = Javalin.create().start(8000);
+        startServer();
+    }
 
-        app.post("/transfer", this::handleTransferRequest);
-        app.post("/withdrawal", this::handleWithdrawalRequest);
-        app.get("/withdrawal/status/{withdrawalId}", this::handleWithdrawalStatusRequest);
-        app.get("/account/{accountId}", this::handleGetAccountRequest);
+    /**
+     * @return the started server, listening on server.port, or on a free port when that is 0
+     */
+    Javalin startServer() {
+        final var app = Javalin.create(config -> config.server(() -> new Server(serverThreadPool))).start(port);
+        log.info("Listening on port {} with {} request threads", app.port(), serverThreadPool.metrics().mode());
+
+        route(app, HandlerType.POST, "/transfer", admitted(idempotent(this::handleTransferRequest)));
+        route(app, HandlerType.POST, "/transfers/batch", admitted(idempotent(this::handleBatchTransferRequest)));
+        route(app, HandlerType.POST, "/withdrawal", admitted(idempotent(this::handleWithdrawalRequest)));
+        route(app, HandlerType.GET, "/withdrawal/status/{withdrawalId}", admitted(this::handleWithdrawalStatusRequest));
+        route(app, HandlerType.GET, "/account/{accountId}", admitted(this::handleGetAccountRequest));
+        route(app, HandlerType.GET, "/account/{accountId}/transactions", admitted(this::handleGetTransactionsRequest));
+        route(app, HandlerType.GET, "/account/{accountId}/events", this::handleAccountEventsRequest);
+        if (reconciliation != null)
+            route(app, HandlerType.GET, "/admin/reconciliation", this::handleReconciliationRequest);
+        app.get("/metrics", this::handleMetricsRequest);
+        app.get("/metrics/server", context -> context.json(serverThreadPool.metrics()));
+        app.get("/metrics/withdrawals", context -> context.json(transferService.getWithdrawalSenderMetrics()));
+        registerMetrics();
 
         app.exception(MissingParameterException.class, (e, context) -> {
+            validationFailures.increment();
             context.status(400);
             context.json(new StatusResponse("error", e.getMessage(), null));
         });
         app.exception(ValidationException.class, (e, ctx) -> {
+            validationFailures.increment();
             ctx.status(400);
             ctx.json(new StatusResponse("error", e.getMessage(), null));
         });
+        app.exception(IllegalArgumentException.class, this::handleIllegalArgument);
+        app.exception(IdempotencyKeyReusedException.class, (e, ctx) -> {
+            ctx.status(422);
+            ctx.json(new StatusResponse("error", e.getMessage(), null));
+        });
+        app.exception(WithdrawalBacklogFullException.class, (e, ctx) -> {
+            ctx.status(503);
+            ctx.header("Retry-After", "1");
+            ctx.json(new StatusResponse("error", e.getMessage(), null));
+        });
+        app.exception(TooManyRequestsException.class, (e, ctx) -> {
+            ctx.status(429);
+            ctx.header("Retry-After", Long.toString(e.getRetryAfterSeconds()));
+            ctx.json(new StatusResponse("error", e.getMessage(), null));
+        });
+        app.exception(TooManySubscribersException.class, (e, ctx) -> {
+            ctx.status(503);
+            ctx.header("Retry-After", "10");
+            ctx.json(new StatusResponse("error", e.getMessage(), null));
+        });
+        return app;
+    }
+
+    /**
+     * Register the handler with its own latency summary, resolved here so timing a request allocates nothing
+     */
+    private void route(Javalin app, HandlerType method, String path, Handler handler) {
+        var latency = metrics.summary("http_request_duration_seconds", "Request latency by route",
+                "method", method.name(), "route", path);
+        app.addHandler(method, path, context -> {
+            var start = System.nanoTime();
+            try {
+                handler.handle(context);
+            } finally {
+                latency.recordSince(start);
+            }
+        });
+    }
+
+    private void registerMetrics() {
+        transferService.registerMetrics(metrics);
+        metrics.gauge("http_threads_busy", "Request threads running a task", () -> serverThreadPool.metrics().busyThreads());
+        metrics.gauge("http_queue_depth", "Requests waiting for a thread", () -> serverThreadPool.metrics().queueDepth());
+        metrics.counter("http_rejected_total", "Requests refused by a full thread pool",
+                () -> serverThreadPool.metrics().rejectedTasks());
+        if (concurrencyLimit != null) {
+            metrics.gauge("admission_concurrency_limit", "Requests admitted to run at once", concurrencyLimit::limit);
+            metrics.gauge("admission_in_flight", "Admitted requests running", concurrencyLimit::inFlight);
+            metrics.counter("admission_rejected_total", "Requests refused with 429", concurrencyLimit::rejected,
+                    "reason", "concurrency");
+        }
+        if (accountRateLimiter != null) {
+            metrics.counter("admission_rejected_total", "Requests refused with 429", accountRateLimiter::rejected,
+                    "reason", "account_rate");
+            metrics.counter("admission_untracked_total", "Requests let through without an account rate limit bucket",
+                    accountRateLimiter::untracked);
+        }
+    }
+
+    void handleMetricsRequest(Context context) {
+        context.contentType(MetricsRegistry.CONTENT_TYPE);
+        context.result(metrics.scrape());
+    }
+
+    /**
+     * Runs the reconciliation job and streams its report as NDJSON while it runs, see {@link Reconciliation}
+     */
+    void handleReconciliationRequest(Context context) throws IOException {
+        context.contentType(ReconciliationNdjson.CONTENT_TYPE);
+        try (var report = new ReconciliationNdjson(context.res.getOutputStream())) {
+            reconciliation.run(report);
+        }
+    }
+
+    /**
+     * Runs the handler only while the service is within its adaptive concurrency limit, see
+     * {@link AdaptiveConcurrencyLimit}, and feeds the handler's latency back into the limit. Over the limit the
+     * request is answered 429 without touching the service
+     */
+    Handler admitted(Handler handler) {
+        if (concurrencyLimit == null) return handler;
+        return context -> {
+            if (!concurrencyLimit.tryAcquire())
+                throw new TooManyRequestsException("Server is busy, try again later", 1);
+            var start = System.nanoTime();
+            try {
+                handler.handle(context);
+            } finally {
+                concurrencyLimit.release(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * Take a token from the sending account's rate limit, if accounts are rate limited
+     */
+    private void admitAccount(UUID accountId) {
+        if (accountRateLimiter == null) return;
+        var waitNanos = accountRateLimiter.acquire(accountId);
+        if (waitNanos > 0)
+            throw new TooManyRequestsException("Too many requests from account " + accountId + ", try again later",
+                    TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1);
     }
 
-    void handleTransferRequest(Context context) throws MissingParameterException, ValidationException
+    /**
+     * A batch counts as one request for each account sending in it, however many legs it sends
+     */
+    private void admitSenders(List<TransferLeg> legs) {
+        if (accountRateLimiter == null) return;
+        var senders = new HashSet<UUID>();
+        for (var leg : legs)
+            if (senders.add(leg.senderAccountId())) admitAccount(leg.senderAccountId());
+    }
+
+    /**
+     * Requests carrying an Idempotency-Key run at most once per key: the response is kept for idempotency.ttlSeconds
+     * and replayed to retries, and a retry arriving while the first request is still running waits for its result.
+     * Failed requests are not kept, so they can be retried. Only a SHA-256 digest of the parameters is kept to tell a
+     * retry from a reused key, and responses are evicted oldest first once they add up to idempotency.maxBytes.
+     */
+    Handler idempotent(Handler handler) {
+        return context -> {
+            var key = context.header(IDEMPOTENCY_KEY_HEADER);
+            if (key == null || key.isEmpty()) {
+                handler.handle(context);
+                return;
+            }
+
+            var fingerprint = fingerprint(context);
+            var executed = new boolean[1];
+            var response = idempotentResponses.get(context.path() + " " + key, () -> {
+                executed[0] = true;
+                context.attribute(JsonResponses.BUFFER_ATTRIBUTE, true);
+                handler.handle(context);
+                return new IdempotentResponse(fingerprint, context.status(), context.resultString());
+            }, ignored -> idempotencyTtlNanos);
+
+            if (!MessageDigest.isEqual(response.fingerprint(), fingerprint))
+                throw new IdempotencyKeyReusedException(key);
+            if (!executed[0]) {
+                context.status(response.status());
+                context.contentType("application/json");
+                context.header(IDEMPOTENT_REPLAY_HEADER, "true");
+                context.result(response.body());
+            }
+        };
+    }
+
+    /**
+     * The service refuses requests it cannot apply (insufficient balance, unknown accounts, names too long to store)
+     * with an IllegalArgumentException, which is the caller's input rather than a server fault
+     */
+    void handleIllegalArgument(IllegalArgumentException e, Context context) {
+        validationFailures.increment();
+        context.status(400);
+        context.json(new StatusResponse("error", e.getMessage(), null));
+    }
+
+    /**
+     * Takes senderAccountId, receiverAccountId and amount as query parameters, or as a JSON object body when the
+     * request is sent as application/json. The amount is in the sender's currency
+     */
+    void handleTransferRequest(Context context) throws IOException, MissingParameterException, ValidationException
     {
-        var senderAccountId = UUID.fromString(getQueryParam(context, "senderAccountId"));
-        var receiverAccountId = UUID.fromString(getQueryParam(context, "receiverAccountId"));
-        var amount = new BigDecimal(getQueryParam(context, "amount"));
-        transferService.transferMoney(senderAccountId, receiverAccountId, amount);
-        context.json(new StatusResponse("success", "Money transferred successfully.", null));
+        if (isJson(context)) {
+            var request = JsonRequests.parseTransfer(context.bodyAsBytes());
+            admitAccount(request.senderAccountId());
+            transferService.transferMoney(request.senderAccountId(), request.receiverAccountId(),
+                    transferService.toMinorUnits(request.senderAccountId(), request.amount()));
+        } else {
+            var senderAccountId = JsonRequests.uuid("senderAccountId", getQueryParam(context, "senderAccountId"));
+            var receiverAccountId = JsonRequests.uuid("receiverAccountId", getQueryParam(context, "receiverAccountId"));
+            var amount = JsonRequests.amount(getQueryParam(context, "amount"));
+            admitAccount(senderAccountId);
+            transferService.transferMoney(senderAccountId, receiverAccountId,
+                    transferService.toMinorUnits(senderAccountId, amount));
+        }
+        JsonResponses.status(context, "success", "Money transferred successfully.", null);
     }
 
-    void handleWithdrawalRequest(Context context) throws MissingParameterException, ValidationException {
-        var senderAccountId = UUID.fromString(getQueryParam(context, "senderAccountId"));
-        var amount = new BigDecimal(getQueryParam(context, "amount"));
-        var address = getQueryParam(context, "address");
-        var withdrawalId = transferService.withdrawMoney(senderAccountId, address, amount);
-        context.json(new StatusResponse("success", "Withdrawal request submitted.", withdrawalId));
+    /**
+     * Body is {"mode": "ALL_OR_NOTHING" | "BEST_EFFORT", "legs": [...]} or a bare array of legs with the mode in the
+     * query string. Each leg has senderAccountId, receiverAccountId and amount; results come back in leg order
+     */
+    void handleBatchTransferRequest(Context context) throws ValidationException {
+        var mode = context.queryParam("mode");
+        var batch = JsonRequests.parseBatch(context.bodyAsBytes(),
+                mode == null ? BatchMode.ALL_OR_NOTHING : JsonRequests.parseMode(mode), maxBatchLegs,
+                transferService::toMinorUnits);
+        admitSenders(batch.legs());
+        var results = transferService.transferBatch(batch.legs(), batch.mode());
+
+        var transferred = results.stream().filter(TransferLegResult::succeeded).count();
+        var message = transferred + " of " + results.size() + " legs transferred.";
+        if (transferred == results.size()) {
+            context.json(new StatusResponse("success", message, results));
+        } else if (transferred > 0) {
+            context.json(new StatusResponse("partial", message, results));
+        } else {
+            context.status(422);
+            context.json(new StatusResponse("error", message, results));
+        }
     }
 
-    void handleWithdrawalStatusRequest(Context context) {
-        var id = UUID.fromString(context.pathParam("withdrawalId"));
+    /**
+     * Takes senderAccountId, address and amount as query parameters, or as a JSON object body when the request is
+     * sent as application/json
+     */
+    void handleWithdrawalRequest(Context context) throws IOException, MissingParameterException, ValidationException {
+        UUID withdrawalId;
+        if (isJson(context)) {
+            var request = JsonRequests.parseWithdrawal(context.bodyAsBytes());
+            admitAccount(request.senderAccountId());
+            withdrawalId = transferService.withdrawMoney(request.senderAccountId(), request.address(),
+                    transferService.toMinorUnits(request.senderAccountId(), request.amount()));
+        } else {
+            var senderAccountId = JsonRequests.uuid("senderAccountId", getQueryParam(context, "senderAccountId"));
+            var amount = JsonRequests.amount(getQueryParam(context, "amount"));
+            var address = getQueryParam(context, "address");
+            admitAccount(senderAccountId);
+            withdrawalId = transferService.withdrawMoney(senderAccountId, address,
+                    transferService.toMinorUnits(senderAccountId, amount));
+        }
+        JsonResponses.status(context, "success", "Withdrawal request submitted.", withdrawalId);
+    }
+
+    void handleWithdrawalStatusRequest(Context context) throws IOException, ValidationException {
+        var id = JsonRequests.uuid("withdrawalId", context.pathParam("withdrawalId"));
         var state = transferService.getWithdrawalStatus(id);
-        context.json(state);
+        JsonResponses.withdrawalState(context, state);
     }
 
-    void handleGetAccountRequest(Context context) {
-        var accountId = UUID.fromString(context.pathParam("accountId"));
+    void handleGetAccountRequest(Context context) throws IOException, ValidationException {
+        var accountId = JsonRequests.uuid("accountId", context.pathParam("accountId"));
         var account = transferService.getAccountById(accountId);
-        context.json(account);
+        JsonResponses.account(context, account);
+    }
+
+    /**
+     * Server-sent events with the account's balance, the current one first and then every change, coalesced to the
+     * latest for clients that read slower than it changes. The handler returns once the stream is open
+     */
+    void handleAccountEventsRequest(Context context) throws IOException, ValidationException {
+        var accountId = JsonRequests.uuid("accountId", context.pathParam("accountId"));
+        BalanceEventStream.open(context, transferService, accountId);
+    }
+
+    /**
+     * Newest first, ?limit= entries per page (default 50). Each page carries the cursor for the next older one
+     */
+    void handleGetTransactionsRequest(Context context) throws ValidationException {
+        var accountId = JsonRequests.uuid("accountId", context.pathParam("accountId"));
+        var cursor = parseOptionalLong(context, "cursor", null);
+        var limit = parseOptionalLong(context, "limit", 50L);
+        if (cursor != null && cursor < 0)
+            throw new ValidationException("cursor must not be negative");
+        if (limit < 1 || limit > maxTransactionsPageSize)
+            throw new ValidationException("limit must be between 1 and " + maxTransactionsPageSize);
+        context.json(transferService.getTransactions(accountId, cursor, limit.intValue()));
+    }
+
+    private static Long parseOptionalLong(Context context, String paramName, Long defaultValue) throws ValidationException {
+        var paramVal = context.queryParam(paramName);
+        if (paramVal == null || paramVal.isEmpty()) return defaultValue;
+        try {
+            return Long.parseLong(paramVal);
+        } catch (NumberFormatException e) {
+            throw new ValidationException(paramName + " must be a number");
+        }
+    }
+
+    private static boolean isJson(Context context) {
+        var contentType = context.contentType();
+        return contentType != null && contentType.startsWith("application/json");
     }
 
     private String getQueryParam(Context context, String paramName) throws MissingParameterException {
@@ -71,4 +401,26 @@ public class MoneyTransferController {
         }
         return paramVal;
     }
+
+    private static byte[] fingerprint(Context context) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(Objects.toString(context.queryString(), "").getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            return digest.digest(context.bodyAsBytes());
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param fingerprint SHA-256 of the query string and body of the request that produced the response
+     */
+    private record IdempotentResponse(byte[] fingerprint, int status, String body) {
+        // Fingerprint, body and the objects holding them, roughly
+        long bytes() {
+            return fingerprint.length + (body == null ? 0 : body.length()) + 128;
+        }
+    }
 }
@@ -0,0 +1,109 @@
+package com.boku.moneytransferservice.controler;
+
+import com.boku.moneytransferservice.model.BalanceSnapshot.Balance;
+import com.boku.moneytransferservice.model.BalanceSnapshot.PendingWithdrawal;
+import com.boku.moneytransferservice.model.Money;
+import com.boku.moneytransferservice.service.Reconciliation;
+import com.boku.moneytransferservice.service.WithdrawalService.WithdrawalState;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Currency;
+
+/**
+ * Writes a reconciliation report as newline delimited JSON, one object per line with a "type" of snapshot,
+ * account, withdrawal, currency or summary. Lines go out through the generator's buffer as they are reported.
+ */
+final class ReconciliationNdjson implements Reconciliation.Report, Closeable {
+    static final String CONTENT_TYPE = "application/x-ndjson";
+    private static final JsonFactory JSON = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final JsonGenerator json;
+
+    ReconciliationNdjson(OutputStream out) throws IOException {
+        json = JSON.createGenerator(out);
+        json.setRootValueSeparator(new SerializedString(""));
+    }
+
+    @Override
+    public void snapshot(boolean consistent) throws IOException {
+        start("snapshot");
+        json.writeBooleanField("consistent", consistent);
+        end();
+        // Let the client see the job has started, the account pass can take a while
+        json.flush();
+    }
+
+    @Override
+    public void flaggedAccount(Balance account, Reconciliation.Flag flag) throws IOException {
+        start("account");
+        json.writeStringField("id", account.accountId().toString());
+        json.writeStringField("currency", account.currency().getCurrencyCode());
+        writeAmount("balance", account.balance(), account.currency());
+        json.writeStringField("flag", flag.name());
+        end();
+    }
+
+    @Override
+    public void withdrawalMismatch(PendingWithdrawal withdrawal, WithdrawalState providerState) throws IOException {
+        start("withdrawal");
+        json.writeStringField("id", withdrawal.withdrawalId().toString());
+        json.writeStringField("accountId", withdrawal.accountId().toString());
+        json.writeStringField("currency", withdrawal.currency().getCurrencyCode());
+        writeAmount("amount", withdrawal.amount(), withdrawal.currency());
+        json.writeStringField("providerState", providerState == null ? "UNKNOWN" : providerState.name());
+        end();
+    }
+
+    @Override
+    public void currencyTotal(Reconciliation.CurrencyTotal total) throws IOException {
+        start("currency");
+        json.writeStringField("currency", total.currency().getCurrencyCode());
+        json.writeNumberField("accounts", total.accounts());
+        writeAmount("balances", total.balances(), total.currency());
+        writeAmount("pendingWithdrawals", total.pendingWithdrawals(), total.currency());
+        writeAmount("liability", total.liability(), total.currency());
+        json.writeNumberField("negativeAccounts", total.negativeAccounts());
+        end();
+    }
+
+    @Override
+    public void summary(Reconciliation.Summary summary) throws IOException {
+        start("summary");
+        json.writeBooleanField("consistent", summary.consistent());
+        json.writeNumberField("accounts", summary.accounts());
+        json.writeNumberField("flaggedAccounts", summary.flaggedAccounts());
+        json.writeNumberField("listedAccounts", summary.listedAccounts());
+        json.writeNumberField("pendingWithdrawals", summary.pendingWithdrawals());
+        json.writeNumberField("withdrawalMismatches", summary.withdrawalMismatches());
+        json.writeNumberField("uncheckedWithdrawals", summary.uncheckedWithdrawals());
+        json.writeNumberField("durationMillis", summary.durationMillis());
+        json.writeNumberField("parallelism", summary.parallelism());
+        json.writeNumberField("threadsUsed", summary.threadsUsed());
+        json.writeNumberField("availableProcessors", summary.availableProcessors());
+        end();
+    }
+
+    private void start(String type) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("type", type);
+    }
+
+    private void end() throws IOException {
+        json.writeEndObject();
+        json.writeRaw('\n');
+    }
+
+    private void writeAmount(String field, long minorUnits, Currency currency) throws IOException {
+        json.writeNumberField(field, Money.fromMinorUnits(minorUnits, currency));
+    }
+
+    @Override
+    public void close() throws IOException {
+        json.close();
+    }
+}
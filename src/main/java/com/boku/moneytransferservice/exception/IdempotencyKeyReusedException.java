@@ -0,0 +1,7 @@
+package com.boku.moneytransferservice.exception;
+
+public class IdempotencyKeyReusedException extends Exception {
+    public IdempotencyKeyReusedException(String key) {
+        super("Idempotency key " + key + " was already used with different parameters");
+    }
+}
@@ -0,0 +1,22 @@
+package com.boku.moneytransferservice.exception;
+
+public class TooManyRequestsException extends IllegalStateException {
+    private final long retryAfterSeconds;
+
+    public TooManyRequestsException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * Thrown to shed load, so it has to be cheap: no stack trace
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
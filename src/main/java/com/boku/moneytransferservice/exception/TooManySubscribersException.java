@@ -0,0 +1,7 @@
+package com.boku.moneytransferservice.exception;
+
+public class TooManySubscribersException extends IllegalStateException {
+    public TooManySubscribersException(int maxSubscribers) {
+        super("Too many balance event subscribers (" + maxSubscribers + "), try again later");
+    }
+}
@@ -0,0 +1,7 @@
+package com.boku.moneytransferservice.exception;
+
+public class WithdrawalBacklogFullException extends IllegalStateException {
+    public WithdrawalBacklogFullException(int capacity) {
+        super("Too many withdrawals waiting to be sent to the provider (" + capacity + "), try again later");
+    }
+}
@@ -0,0 +1,62 @@
+package com.boku.moneytransferservice.journal;
+
+import com.boku.moneytransferservice.model.TransferLeg;
+
+import java.util.Currency;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Append-only log of every state change made by TransferService, replayed on startup to rebuild balances
+ * and pending withdrawals. Each append returns the journal position right after the record, pass it to
+ * {@link #awaitDurable} before acknowledging the operation to the caller.
+ */
+public interface Journal {
+    long accountCreated(UUID accountId, String name, Currency currency, long balance);
+
+    /**
+     * @param amount         debited from the sender, in its currency
+     * @param creditedAmount credited to the receiver, in its currency; equal to amount unless the transfer converted
+     */
+    long transferred(UUID senderAccountId, UUID receiverAccountId, long amount, long creditedAmount);
+
+    /**
+     * The legs of an all-or-nothing batch in one record, so replay applies every leg or, when a crash tore the
+     * record, none. Replayed as one {@link JournalReplayHandler#transferred} per leg
+     *
+     * @param creditedAmounts per leg, as for {@link #transferred}
+     */
+    long batchTransferred(List<TransferLeg> legs, long[] creditedAmounts);
+
+    long withdrawalRequested(UUID withdrawalId, UUID accountId, long amount, String address);
+
+    long withdrawalCompleted(UUID withdrawalId);
+
+    long withdrawalRefunded(UUID withdrawalId);
+
+    /**
+     * Run an operation that changes state and appends the records for it, with no other append in between, so
+     * records are in the order their changes were made. Otherwise an operation that saw another one's change could
+     * be journaled first, and made durable while the change it depends on is not yet
+     *
+     * @return what the operation returns, the position after its last record
+     */
+    <E extends Exception> long inOrder(Operation<E> operation) throws E;
+
+    /**
+     * Block until every record up to the given position is on disk. Concurrent callers share one sync (group commit)
+     */
+    void awaitDurable(long position);
+
+    /**
+     * Feed every record written by previous runs to the handler, in append order
+     */
+    void replay(JournalReplayHandler handler);
+
+    interface Operation<E extends Exception> {
+        /**
+         * @return journal position after the last record appended
+         */
+        long apply() throws E;
+    }
+}
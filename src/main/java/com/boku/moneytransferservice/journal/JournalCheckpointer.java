@@ -0,0 +1,106 @@
+package com.boku.moneytransferservice.journal;
+
+import com.boku.moneytransferservice.config.AppConfig;
+import com.boku.moneytransferservice.model.BalanceSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Periodically folds sealed journal segments into a snapshot and deletes them, so startup loads one snapshot
+ * and replays only the journal tail.
+ * <p>
+ * A checkpoint never reads live account state: it seals the current segment (an O(1) epoch switch under the
+ * journal append lock), loads the latest snapshot and applies the now immutable segments to it. Transfers keep
+ * appending to the new segment the whole time. The loaded state is dropped once the new snapshot is written, so
+ * between checkpoints it takes no heap, and while one runs it takes about what the service's compact account store
+ * does (see {@link SnapshotState}). When no segment was written since the latest snapshot nothing is loaded.
+ */
+public class JournalCheckpointer {
+    private static final Logger log = LoggerFactory.getLogger(JournalCheckpointer.class);
+
+    private final MappedJournal journal;
+    private final long maxSnapshotAgeNanos;
+    private final LongSupplier nanoClock;
+    // When the latest snapshot's segments were sealed, only used holding the lock
+    private long checkpointNanos;
+    private boolean checkpointed;
+
+    /**
+     * Snapshots are never reused, every {@link #readSnapshot} runs a checkpoint first
+     */
+    public JournalCheckpointer(MappedJournal journal) {
+        this(journal, 0, System::nanoTime);
+    }
+
+    public JournalCheckpointer(MappedJournal journal, AppConfig config) {
+        this(journal, TimeUnit.SECONDS.toNanos(config.getLong("reconciliation.maxSnapshotAgeSeconds", 60)),
+                System::nanoTime);
+    }
+
+    JournalCheckpointer(MappedJournal journal, long maxSnapshotAgeNanos, LongSupplier nanoClock) {
+        this.journal = journal;
+        this.maxSnapshotAgeNanos = maxSnapshotAgeNanos;
+        this.nanoClock = nanoClock;
+    }
+
+    public synchronized void checkpoint() {
+        fold();
+    }
+
+    /**
+     * Let the reader go through the state as of the latest checkpoint, running one first when that is
+     * maxSnapshotAge old or more. Only picking the snapshot holds the lock: its file is opened there, so a checkpoint
+     * deleting it afterwards doesn't take it from the reader, and it is loaded and read outside, so neither
+     * checkpoints nor transfers wait for the reader. A checkpoint running meanwhile loads a copy of its own.
+     * <p>
+     * Every change is journaled in the order it was applied (see {@link Journal#inOrder}), so the state at the seal
+     * is one the service really was in, whichever engine.mode runs
+     */
+    public void readSnapshot(BalanceSnapshot.Reader reader) throws IOException {
+        Path latest;
+        InputStream pinned;
+        synchronized (this) {
+            if (!checkpointed || nanoClock.getAsLong() - checkpointNanos >= maxSnapshotAgeNanos) fold();
+            latest = journal.latestSnapshot();
+            pinned = latest == null ? null : Files.newInputStream(latest);
+        }
+
+        var state = new SnapshotState();
+        if (pinned != null) state.setCoveredSegment(SnapshotState.read(latest, pinned, state));
+        reader.read(state);
+    }
+
+    private void fold() {
+        var sealedNanos = nanoClock.getAsLong();
+        var startNanos = System.nanoTime();
+        var currentSegment = journal.rollSegment();
+        var latest = journal.latestSnapshot();
+        var segments = journal.segments(latest == null ? -1 : MappedJournal.coveredSegmentOf(latest), currentSegment);
+
+        if (!segments.isEmpty()) {
+            var state = new SnapshotState();
+            if (latest != null) state.setCoveredSegment(SnapshotState.read(latest, state));
+            long records = 0;
+            for (var segment : segments) {
+                records += MappedJournal.replaySegment(segment, state);
+            }
+            state.setCoveredSegment(currentSegment - 1);
+            state.write(journal.snapshotPath(state.getCoveredSegment()));
+            journal.truncate(state.getCoveredSegment());
+
+            log.info("Snapshot of {} accounts and {} pending withdrawals written in {} ms, folded {} records from {} segments",
+                    state.accountCount(), state.withdrawalCount(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), records, segments.size());
+        }
+        // With nothing to fold the latest snapshot is already as of this seal
+        checkpointNanos = sealedNanos;
+        checkpointed = true;
+    }
+}
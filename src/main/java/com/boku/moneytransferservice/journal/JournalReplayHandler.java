@@ -0,0 +1,24 @@
+package com.boku.moneytransferservice.journal;
+
+import java.util.Currency;
+import java.util.UUID;
+
+/**
+ * Receives journal records during startup replay, one method per record type of {@link Journal}
+ */
+public interface JournalReplayHandler {
+    void accountCreated(UUID accountId, String name, Currency currency, long balance);
+
+    void transferred(UUID senderAccountId, UUID receiverAccountId, long amount, long creditedAmount);
+
+    void withdrawalRequested(UUID withdrawalId, UUID accountId, long amount, String address);
+
+    void withdrawalCompleted(UUID withdrawalId);
+
+    void withdrawalRefunded(UUID withdrawalId);
+
+    /**
+     * A withdrawal restored from a snapshot, its amount is already deducted from the account balance
+     */
+    void withdrawalPending(UUID withdrawalId, UUID accountId, long amount, String address);
+}
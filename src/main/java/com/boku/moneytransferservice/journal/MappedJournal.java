@@ -0,0 +1,500 @@
+package com.boku.moneytransferservice.journal;
+
+import com.boku.moneytransferservice.config.AppConfig;
+import com.boku.moneytransferservice.model.TransferLeg;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Journal written to fixed size memory-mapped segment files (journal-&lt;index&gt;.log).
+ * <p>
+ * Record layout: int length (type + payload), int CRC32C of type + payload, byte type, payload.
+ * Accounts are written with their currency and transfers that convert with both amounts. An all-or-nothing batch is
+ * one record holding every leg, so a torn write drops the whole batch.
+ * A zero length marks the unused tail of a segment, a checksum mismatch marks a torn write and ends replay of
+ * that segment. Every run appends to a fresh segment, so older segments are never written again.
+ * Segments already covered by a snapshot (see {@link JournalCheckpointer}) are deleted.
+ * <p>
+ * Appends only copy bytes into the mapping under a short lock, which {@link #inOrder} also holds while the caller
+ * applies the change being journaled. With fsync enabled a single flusher thread
+ * forces the mapped pages to disk and wakes every caller waiting in {@link #awaitDurable} whose records were
+ * covered, so one disk sync is shared by all operations that arrived in the meantime (group commit).
+ */
+public class MappedJournal implements Journal, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(MappedJournal.class);
+
+    static final byte ACCOUNT_CREATED = 1;
+    static final byte TRANSFERRED = 2;
+    static final byte WITHDRAWAL_REQUESTED = 3;
+    static final byte WITHDRAWAL_COMPLETED = 4;
+    static final byte WITHDRAWAL_REFUNDED = 5;
+    static final byte CONVERTED = 6;
+    static final byte BATCH_TRANSFERRED = 7;
+
+    private static final int HEADER_BYTES = 9;
+    private static final int UUID_BYTES = 16;
+    private static final int CURRENCY_BYTES = 3;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean fsync;
+    private final long groupCommitNanos;
+    private final List<Path> previousSegments;
+    private final CRC32C crc = new CRC32C();
+    private final ArrayDeque<MappedByteBuffer> sealedSegments = new ArrayDeque<>();
+    private final Object flushMonitor = new Object();
+    private final Thread flusher;
+
+    // Guarded by this
+    private long segmentIndex;
+    private MappedByteBuffer segment;
+    private ByteBuffer checksumView;
+    private int recordStart;
+
+    private volatile long writtenPosition;
+    private volatile long flushedPosition;
+    // Guarded by flushMonitor
+    private long requestedPosition;
+    private volatile boolean running = true;
+
+    private volatile long recordsAppended;
+    private volatile long bytesAppended;
+    private volatile long syncs;
+
+    MappedJournal(Path directory, int segmentSize, boolean fsync, long groupCommitMicros) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+        this.groupCommitNanos = TimeUnit.MICROSECONDS.toNanos(groupCommitMicros);
+        this.previousSegments = listFiles(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+        this.segmentIndex = previousSegments.isEmpty() ? 0 : segmentIndexOf(previousSegments.get(previousSegments.size() - 1)) + 1;
+        openSegment();
+        this.writtenPosition = this.flushedPosition = segmentIndex * segmentSize;
+
+        this.flusher = new Thread(this::runFlusher, "journal-flusher");
+        this.flusher.setDaemon(true);
+        if (fsync) flusher.start();
+    }
+
+    public static MappedJournal open(AppConfig config) {
+        try {
+            return new MappedJournal(
+                    Path.of(config.getString("journal.dir", "data/journal")),
+                    config.getInt("journal.segmentSizeBytes", 64 * 1024 * 1024),
+                    config.getBoolean("journal.fsync", true),
+                    config.getLong("journal.groupCommitMicros", 200));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open journal", e);
+        }
+    }
+
+    @Override
+    public synchronized long accountCreated(UUID accountId, String name, Currency currency, long balance) {
+        var nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        var buffer = begin(ACCOUNT_CREATED, UUID_BYTES + 8 + CURRENCY_BYTES + 4 + nameBytes.length);
+        putUuid(buffer, accountId);
+        buffer.putLong(balance);
+        putCurrency(buffer, currency);
+        buffer.putInt(nameBytes.length).put(nameBytes);
+        return end();
+    }
+
+    @Override
+    public synchronized long transferred(UUID senderAccountId, UUID receiverAccountId, long amount, long creditedAmount) {
+        // Same-currency transfers keep the shorter record
+        var converted = creditedAmount != amount;
+        var buffer = begin(converted ? CONVERTED : TRANSFERRED, 2 * UUID_BYTES + (converted ? 16 : 8));
+        putUuid(buffer, senderAccountId);
+        putUuid(buffer, receiverAccountId);
+        buffer.putLong(amount);
+        if (converted) buffer.putLong(creditedAmount);
+        return end();
+    }
+
+    @Override
+    public synchronized long batchTransferred(List<TransferLeg> legs, long[] creditedAmounts) {
+        var buffer = begin(BATCH_TRANSFERRED, 4 + legs.size() * (2 * UUID_BYTES + 16));
+        buffer.putInt(legs.size());
+        for (int i = 0; i < legs.size(); i++) {
+            var leg = legs.get(i);
+            putUuid(buffer, leg.senderAccountId());
+            putUuid(buffer, leg.receiverAccountId());
+            buffer.putLong(leg.amount()).putLong(creditedAmounts[i]);
+        }
+        return end();
+    }
+
+    @Override
+    public synchronized long withdrawalRequested(UUID withdrawalId, UUID accountId, long amount, String address) {
+        var addressBytes = address.getBytes(StandardCharsets.UTF_8);
+        var buffer = begin(WITHDRAWAL_REQUESTED, 2 * UUID_BYTES + 8 + 4 + addressBytes.length);
+        putUuid(buffer, withdrawalId);
+        putUuid(buffer, accountId);
+        buffer.putLong(amount);
+        buffer.putInt(addressBytes.length).put(addressBytes);
+        return end();
+    }
+
+    @Override
+    public synchronized long withdrawalCompleted(UUID withdrawalId) {
+        putUuid(begin(WITHDRAWAL_COMPLETED, UUID_BYTES), withdrawalId);
+        return end();
+    }
+
+    @Override
+    public synchronized long withdrawalRefunded(UUID withdrawalId) {
+        putUuid(begin(WITHDRAWAL_REFUNDED, UUID_BYTES), withdrawalId);
+        return end();
+    }
+
+    /**
+     * Holds the append lock for the whole operation, the appends it makes take it again
+     */
+    @Override
+    public synchronized <E extends Exception> long inOrder(Operation<E> operation) throws E {
+        return operation.apply();
+    }
+
+    @Override
+    public void awaitDurable(long position) {
+        if (!fsync || flushedPosition >= position) return;
+        synchronized (flushMonitor) {
+            if (requestedPosition < position) {
+                requestedPosition = position;
+                flushMonitor.notifyAll();
+            }
+            while (flushedPosition < position) {
+                if (!running) throw new IllegalStateException("Journal is closed");
+                try {
+                    flushMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for journal sync", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Load the latest snapshot, if any, then replay the segments written after it
+     */
+    @Override
+    public void replay(JournalReplayHandler handler) {
+        var startNanos = System.nanoTime();
+        var coveredSegment = -1L;
+        var snapshot = latestSnapshot();
+        if (snapshot != null) {
+            coveredSegment = SnapshotState.read(snapshot, handler);
+            log.info("Loaded snapshot {} in {} ms", snapshot.getFileName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        }
+
+        long records = 0;
+        var segments = 0;
+        for (var path : previousSegments) {
+            if (segmentIndexOf(path) <= coveredSegment) continue;
+            records += replaySegment(path, handler);
+            segments++;
+        }
+        var millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        log.info("Replayed {} journal records from {} segments in {} ms, {} records/s",
+                records, segments, millis, millis == 0 ? records : records * 1000 / millis);
+    }
+
+    /**
+     * Feed every intact record of one segment file to the handler
+     * @return number of records replayed
+     */
+    static long replaySegment(Path path, JournalReplayHandler handler) {
+        long records = 0;
+        var checksum = new CRC32C();
+        try (var channel = FileChannel.open(path, READ)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.remaining() >= HEADER_BYTES) {
+                var offset = buffer.position();
+                var length = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining() - 4) break;
+                var expected = buffer.getInt();
+                checksum.reset();
+                checksum.update(buffer.slice(buffer.position(), length));
+                if ((int) checksum.getValue() != expected) {
+                    log.warn("Torn record in {} at offset {}, ignoring the rest of the segment", path, offset);
+                    break;
+                }
+                dispatch(buffer.get(), buffer, handler);
+                records++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to replay journal segment " + path, e);
+        }
+        return records;
+    }
+
+    /**
+     * Start a new segment so everything written so far becomes immutable
+     * @return index of the new current segment, all segments below it are sealed
+     */
+    synchronized long rollSegment() {
+        if (segment.position() > 0) {
+            sealedSegments.add(segment);
+            segmentIndex++;
+            openSegment();
+        }
+        return segmentIndex;
+    }
+
+    /**
+     * Sealed segment files with an index in (afterIndex, beforeIndex), oldest first
+     */
+    List<Path> segments(long afterIndex, long beforeIndex) {
+        try {
+            return listFiles(SEGMENT_PREFIX, SEGMENT_SUFFIX).stream()
+                    .filter(path -> segmentIndexOf(path) > afterIndex && segmentIndexOf(path) < beforeIndex)
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list journal segments", e);
+        }
+    }
+
+    Path snapshotPath(long coveredSegment) {
+        return directory.resolve(SNAPSHOT_PREFIX + "%020d".formatted(coveredSegment) + SNAPSHOT_SUFFIX);
+    }
+
+    Path latestSnapshot() {
+        try {
+            var snapshots = listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+            return snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list journal snapshots", e);
+        }
+    }
+
+    /**
+     * @return index of the last segment the snapshot at this path covers, see {@link #snapshotPath}
+     */
+    static long coveredSegmentOf(Path snapshot) {
+        var name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+    }
+
+    /**
+     * Drop segments and older snapshots made redundant by the snapshot covering segments up to coveredSegment
+     */
+    void truncate(long coveredSegment) {
+        try {
+            for (var path : listFiles(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+                if (segmentIndexOf(path) <= coveredSegment) Files.delete(path);
+            }
+            var latest = snapshotPath(coveredSegment);
+            for (var path : listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+                if (!path.equals(latest)) Files.delete(path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to truncate journal", e);
+        }
+    }
+
+    public long getRecordsAppended() {
+        return recordsAppended;
+    }
+
+    public long getBytesAppended() {
+        return bytesAppended;
+    }
+
+    public long getSyncs() {
+        return syncs;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        synchronized (flushMonitor) {
+            flushMonitor.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private ByteBuffer begin(byte type, int payloadLength) {
+        var recordLength = HEADER_BYTES + payloadLength;
+        if (recordLength > segmentSize)
+            throw new IllegalArgumentException("Journal record of %d bytes does not fit a segment".formatted(recordLength));
+        if (segment.remaining() < recordLength) {
+            sealedSegments.add(segment);
+            segmentIndex++;
+            openSegment();
+        }
+        recordStart = segment.position();
+        return segment.putInt(1 + payloadLength).putInt(0).put(type);
+    }
+
+    private long end() {
+        var end = segment.position();
+        // Checksum through a separate view so the flusher never sees a shrunken limit on the segment itself
+        crc.reset();
+        crc.update(checksumView.limit(end).position(recordStart + 8));
+        segment.putInt(recordStart + 4, (int) crc.getValue());
+        recordsAppended++;
+        bytesAppended += end - recordStart;
+        return writtenPosition = segmentIndex * segmentSize + end;
+    }
+
+    private void openSegment() {
+        var path = directory.resolve(SEGMENT_PREFIX + "%020d".formatted(segmentIndex) + SEGMENT_SUFFIX);
+        try (var channel = FileChannel.open(path, CREATE_NEW, READ, WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            checksumView = segment.duplicate();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create journal segment " + path, e);
+        }
+    }
+
+    private void runFlusher() {
+        while (running) {
+            synchronized (flushMonitor) {
+                while (running && requestedPosition <= flushedPosition) {
+                    try {
+                        flushMonitor.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            // Give concurrent writers a moment to join this sync
+            if (groupCommitNanos > 0) LockSupport.parkNanos(groupCommitNanos);
+            flush();
+        }
+    }
+
+    private void flush() {
+        List<MappedByteBuffer> sealed;
+        MappedByteBuffer current;
+        long currentStart;
+        long target;
+        synchronized (this) {
+            sealed = new ArrayList<>(sealedSegments);
+            sealedSegments.clear();
+            current = segment;
+            currentStart = segmentIndex * segmentSize;
+            target = writtenPosition;
+        }
+        sealed.forEach(MappedByteBuffer::force);
+        if (target > currentStart) {
+            var fromOffset = (int) Math.max(0, flushedPosition - currentStart);
+            current.force(fromOffset, (int) (target - currentStart) - fromOffset);
+        }
+        syncs++;
+        synchronized (flushMonitor) {
+            flushedPosition = target;
+            flushMonitor.notifyAll();
+        }
+    }
+
+    private static void dispatch(byte type, ByteBuffer buffer, JournalReplayHandler handler) {
+        switch (type) {
+            case ACCOUNT_CREATED -> {
+                var accountId = getUuid(buffer);
+                var balance = buffer.getLong();
+                var currency = getCurrency(buffer);
+                handler.accountCreated(accountId, getString(buffer), currency, balance);
+            }
+            case TRANSFERRED -> {
+                var senderAccountId = getUuid(buffer);
+                var receiverAccountId = getUuid(buffer);
+                var amount = buffer.getLong();
+                handler.transferred(senderAccountId, receiverAccountId, amount, amount);
+            }
+            case CONVERTED -> {
+                var senderAccountId = getUuid(buffer);
+                var receiverAccountId = getUuid(buffer);
+                var amount = buffer.getLong();
+                handler.transferred(senderAccountId, receiverAccountId, amount, buffer.getLong());
+            }
+            case BATCH_TRANSFERRED -> {
+                var legs = buffer.getInt();
+                for (int i = 0; i < legs; i++) {
+                    var senderAccountId = getUuid(buffer);
+                    var receiverAccountId = getUuid(buffer);
+                    var amount = buffer.getLong();
+                    handler.transferred(senderAccountId, receiverAccountId, amount, buffer.getLong());
+                }
+            }
+            case WITHDRAWAL_REQUESTED -> {
+                var withdrawalId = getUuid(buffer);
+                var accountId = getUuid(buffer);
+                var amount = buffer.getLong();
+                handler.withdrawalRequested(withdrawalId, accountId, amount, getString(buffer));
+            }
+            case WITHDRAWAL_COMPLETED -> handler.withdrawalCompleted(getUuid(buffer));
+            case WITHDRAWAL_REFUNDED -> handler.withdrawalRefunded(getUuid(buffer));
+            default -> throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    private static void putUuid(ByteBuffer buffer, UUID uuid) {
+        buffer.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID getUuid(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static void putCurrency(ByteBuffer buffer, Currency currency) {
+        buffer.put(currency.getCurrencyCode().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static Currency getCurrency(ByteBuffer buffer) {
+        var code = new byte[CURRENCY_BYTES];
+        buffer.get(code);
+        return Currency.getInstance(new String(code, StandardCharsets.US_ASCII));
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        var bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private List<Path> listFiles(String prefix, String suffix) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(prefix))
+                    .filter(path -> path.getFileName().toString().endsWith(suffix))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long segmentIndexOf(Path segment) {
+        var name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
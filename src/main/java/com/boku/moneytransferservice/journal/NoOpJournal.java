@@ -0,0 +1,58 @@
+package com.boku.moneytransferservice.journal;
+
+import com.boku.moneytransferservice.model.TransferLeg;
+
+import java.util.Currency;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Journal used when persistence is disabled, state then lives in memory only
+ */
+public enum NoOpJournal implements Journal {
+    INSTANCE;
+
+    @Override
+    public long accountCreated(UUID accountId, String name, Currency currency, long balance) {
+        return 0;
+    }
+
+    @Override
+    public long transferred(UUID senderAccountId, UUID receiverAccountId, long amount, long creditedAmount) {
+        return 0;
+    }
+
+    @Override
+    public long batchTransferred(List<TransferLeg> legs, long[] creditedAmounts) {
+        return 0;
+    }
+
+    @Override
+    public long withdrawalRequested(UUID withdrawalId, UUID accountId, long amount, String address) {
+        return 0;
+    }
+
+    @Override
+    public long withdrawalCompleted(UUID withdrawalId) {
+        return 0;
+    }
+
+    @Override
+    public long withdrawalRefunded(UUID withdrawalId) {
+        return 0;
+    }
+
+    @Override
+    public <E extends Exception> long inOrder(Operation<E> operation) throws E {
+        // Nothing is written, so there is no order to keep
+        return operation.apply();
+    }
+
+    @Override
+    public void awaitDurable(long position) {
+    }
+
+    @Override
+    public void replay(JournalReplayHandler handler) {
+    }
+}
@@ -0,0 +1,231 @@
+package com.boku.moneytransferservice.journal;
+
+import com.boku.moneytransferservice.model.AccountStore;
+import com.boku.moneytransferservice.model.BalanceSnapshot;
+import com.boku.moneytransferservice.model.CompactAccountStore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Accounts and in-flight withdrawals as of the end of a given journal segment, built by applying journal
+ * records and stored as a compact binary snapshot.
+ * <p>
+ * File layout: int magic, int version, long covered segment index, long account count followed by
+ * (uuid, balance, currency code, name) entries, long withdrawal count followed by (uuid, account uuid, amount, address) entries,
+ * long CRC32C of everything before it. Strings are an int length followed by that many bytes of UTF-8.
+ * <p>
+ * Read as a {@link BalanceSnapshot} it is one point in time: everything journaled before its covered segment was
+ * sealed and nothing after.
+ * <p>
+ * Accounts are held in a {@link CompactAccountStore}, so building one costs about as much heap per account as the
+ * service's own accounts take with account.store=compact.
+ */
+class SnapshotState implements JournalReplayHandler, BalanceSnapshot {
+    private static final int MAGIC = 0x534E4150;
+    private static final int VERSION = 1;
+
+    private final AccountStore accounts = new CompactAccountStore();
+    private final Map<UUID, PendingWithdrawal> withdrawals = new HashMap<>();
+    private long coveredSegment = -1;
+
+    long getCoveredSegment() {
+        return coveredSegment;
+    }
+
+    void setCoveredSegment(long coveredSegment) {
+        this.coveredSegment = coveredSegment;
+    }
+
+    int accountCount() {
+        return accounts.size();
+    }
+
+    int withdrawalCount() {
+        return withdrawals.size();
+    }
+
+    @Override
+    public boolean isConsistent() {
+        return true;
+    }
+
+    @Override
+    public Stream<Balance> accounts() {
+        return accounts.stream()
+                .map(account -> new Balance(account.getId(), account.getCurrency(), account.getBalanceMinorUnits()));
+    }
+
+    @Override
+    public Stream<BalanceSnapshot.PendingWithdrawal> pendingWithdrawals() {
+        return withdrawals.entrySet().stream().map(withdrawal -> new BalanceSnapshot.PendingWithdrawal(
+                withdrawal.getKey(), withdrawal.getValue().accountId(),
+                accounts.get(withdrawal.getValue().accountId()).getCurrency(), withdrawal.getValue().amount()));
+    }
+
+    @Override
+    public void accountCreated(UUID accountId, String name, Currency currency, long balance) {
+        accounts.add(accountId, name, currency, balance);
+    }
+
+    @Override
+    public void transferred(UUID senderAccountId, UUID receiverAccountId, long amount, long creditedAmount) {
+        accounts.get(senderAccountId).deposit(-amount);
+        accounts.get(receiverAccountId).deposit(creditedAmount);
+    }
+
+    @Override
+    public void withdrawalRequested(UUID withdrawalId, UUID accountId, long amount, String address) {
+        accounts.get(accountId).deposit(-amount);
+        withdrawals.put(withdrawalId, new PendingWithdrawal(accountId, amount, address));
+    }
+
+    @Override
+    public void withdrawalCompleted(UUID withdrawalId) {
+        withdrawals.remove(withdrawalId);
+    }
+
+    @Override
+    public void withdrawalRefunded(UUID withdrawalId) {
+        var withdrawal = withdrawals.remove(withdrawalId);
+        if (withdrawal != null) accounts.get(withdrawal.accountId()).deposit(withdrawal.amount());
+    }
+
+    @Override
+    public void withdrawalPending(UUID withdrawalId, UUID accountId, long amount, String address) {
+        withdrawals.put(withdrawalId, new PendingWithdrawal(accountId, amount, address));
+    }
+
+    /**
+     * Write to a temporary file, sync it and move it into place, so a crash never leaves a partial snapshot. The
+     * directory is synced after the move, so the snapshot's name is on disk before the segments it covers are deleted
+     */
+    void write(Path path) {
+        var temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        var checksum = new CRC32C();
+        try (var out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16), checksum))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(coveredSegment);
+            out.writeLong(accounts.size());
+            for (var iterator = accounts.stream().iterator(); iterator.hasNext(); ) {
+                var account = iterator.next();
+                writeUuid(out, account.getId());
+                out.writeLong(account.getBalanceMinorUnits());
+                writeString(out, account.getCurrency().getCurrencyCode());
+                writeString(out, account.getName());
+            }
+            out.writeLong(withdrawals.size());
+            for (var withdrawal : withdrawals.entrySet()) {
+                writeUuid(out, withdrawal.getKey());
+                writeUuid(out, withdrawal.getValue().accountId());
+                out.writeLong(withdrawal.getValue().amount());
+                writeString(out, withdrawal.getValue().address());
+            }
+            out.writeLong(checksum.getValue());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write snapshot " + temporary, e);
+        }
+        try (var channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store snapshot " + path, e);
+        }
+        try (var directory = FileChannel.open(path.getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store snapshot " + path, e);
+        }
+    }
+
+    /**
+     * Stream a snapshot into the handler without materialising it
+     * @return index of the last journal segment the snapshot covers
+     */
+    static long read(Path path, JournalReplayHandler handler) {
+        try {
+            return read(path, Files.newInputStream(path), handler);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read snapshot " + path, e);
+        }
+    }
+
+    /**
+     * As {@link #read(Path, JournalReplayHandler)}, from a stream already opened on the file at path, which it closes
+     */
+    static long read(Path path, InputStream file, JournalReplayHandler handler) {
+        var checksum = new CRC32C();
+        try (var in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(file, 1 << 16), checksum))) {
+            if (in.readInt() != MAGIC)
+                throw new IllegalStateException("Unsupported snapshot format in " + path);
+            var version = in.readInt();
+            if (version != VERSION)
+                throw new IllegalStateException("Unsupported snapshot version " + version + " in " + path);
+            var coveredSegment = in.readLong();
+            var accountCount = in.readLong();
+            for (long i = 0; i < accountCount; i++) {
+                var accountId = readUuid(in);
+                var balance = in.readLong();
+                var currency = Currency.getInstance(readString(in));
+                handler.accountCreated(accountId, readString(in), currency, balance);
+            }
+            var withdrawalCount = in.readLong();
+            for (long i = 0; i < withdrawalCount; i++) {
+                var withdrawalId = readUuid(in);
+                var accountId = readUuid(in);
+                var amount = in.readLong();
+                handler.withdrawalPending(withdrawalId, accountId, amount, readString(in));
+            }
+            var expected = checksum.getValue();
+            if (in.readLong() != expected)
+                throw new IllegalStateException("Snapshot " + path + " is corrupt");
+            return coveredSegment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read snapshot " + path, e);
+        }
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        var bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private record PendingWithdrawal(UUID accountId, long amount, String address) {
+    }
+}
@@ -0,0 +1,115 @@
+package com.boku.moneytransferservice.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters, gauges and latency summaries rendered in the Prometheus text exposition format.
+ * <p>
+ * Everything is registered up front and callers keep the returned {@link LongAdder} or {@link LatencyHistogram},
+ * so the recording path never looks anything up or allocates. Series of the same name share one HELP/TYPE header
+ * and are told apart by their labels, given as alternating name/value pairs.
+ */
+public final class MetricsRegistry {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public LongAdder counter(String name, String help, String... labels) {
+        var counter = new LongAdder();
+        counter(name, help, counter::sum, labels);
+        return counter;
+    }
+
+    /**
+     * A counter kept elsewhere, read on every scrape
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        add(name, help, "counter", labels, value);
+    }
+
+    public void gauge(String name, String help, LongSupplier value, String... labels) {
+        add(name, help, "gauge", labels, value);
+    }
+
+    public LatencyHistogram summary(String name, String help, String... labels) {
+        var histogram = new LatencyHistogram();
+        summary(name, help, histogram, labels);
+        return histogram;
+    }
+
+    /**
+     * A histogram kept elsewhere, exported in seconds as quantiles plus _sum and _count
+     */
+    public void summary(String name, String help, LatencyHistogram histogram, String... labels) {
+        add(name, help, "summary", labels, histogram);
+    }
+
+    private synchronized void add(String name, String help, String type, String[] labels, Object source) {
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException("Labels must be name/value pairs: " + String.join(",", labels));
+        var family = families.computeIfAbsent(name, ignored -> new Family(name, help, type, new ArrayList<>()));
+        if (!family.type().equals(type))
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type());
+        family.series().add(new Series(labels, source));
+    }
+
+    public synchronized String scrape() {
+        var out = new StringBuilder(4096);
+        for (var family : families.values()) {
+            out.append("# HELP ").append(family.name()).append(' ').append(family.help()).append('\n');
+            out.append("# TYPE ").append(family.name()).append(' ').append(family.type()).append('\n');
+            for (var series : family.series()) {
+                if (series.source() instanceof LatencyHistogram histogram) {
+                    for (var quantile : QUANTILES)
+                        sample(out, family.name(), series.labels(), "quantile", Double.toString(quantile),
+                                seconds(histogram.valueAtQuantile(quantile)));
+                    sample(out, family.name() + "_sum", series.labels(), null, null, seconds(histogram.totalNanos()));
+                    sample(out, family.name() + "_count", series.labels(), null, null, Long.toString(histogram.count()));
+                } else {
+                    var value = ((LongSupplier) series.source()).getAsLong();
+                    sample(out, family.name(), series.labels(), null, null, Long.toString(value));
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String[] labels, String extraLabel, String extraValue,
+                               String value) {
+        out.append(name);
+        if (labels.length > 0 || extraLabel != null) {
+            out.append('{');
+            for (int i = 0; i < labels.length; i += 2)
+                label(out, labels[i], labels[i + 1]).append(',');
+            if (extraLabel != null) label(out, extraLabel, extraValue).append(',');
+            out.setLength(out.length() - 1);
+            out.append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static StringBuilder label(StringBuilder out, String name, String value) {
+        out.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (c == '\\' || c == '"') out.append('\\').append(c);
+            else if (c == '\n') out.append("\\n");
+            else out.append(c);
+        }
+        return out.append('"');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private record Family(String name, String help, String type, List<Series> series) { }
+
+    private record Series(String[] labels, Object source) { }
+}
@@ -1,25 +1,94 @@
 package com.boku.moneytransferservice.model;
 
-import lombok.AllArgsConstructor;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
-import lombok.Setter;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.math.BigDecimal;
+import java.util.Currency;
 import java.util.UUID;
 
+/**
+ * An account held as its own object, as {@link MapAccountStore} keeps every account. {@link CompactAccountStore}
+ * hands out subclasses that are views of its arrays instead, overriding every accessor and balance operation, so
+ * callers never need to know where an account lives.
+ */
 @Getter
-@Setter
-@AllArgsConstructor
 public class Account {
-    private UUID id;
-    private String name;
-    private BigDecimal balance;
+    // Longest name, in UTF-8 bytes, an account can be created with whichever store holds it
+    public static final int MAX_NAME_BYTES = 0xFFFF;
+    private static final VarHandle BALANCE;
 
-    public void deposit(BigDecimal amount) {
-        this.setBalance(balance.add(amount));
+    static {
+        try {
+            BALANCE = MethodHandles.lookup().findVarHandle(Account.class, "balance", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
     }
 
-    public void withdraw(BigDecimal amount) {
-        this.setBalance(balance.subtract(amount));
+    private final UUID id;
+    private final String name;
+    private final Currency currency;
+    // Balance in minor units of currency, only ever updated through BALANCE
+    @Getter(lombok.AccessLevel.NONE)
+    private volatile long balance;
+    @JsonIgnore
+    private final AccountLedger ledger;
+
+    public Account(UUID id, String name, long balance) {
+        this(id, name, Money.DEFAULT_CURRENCY, balance);
+    }
+
+    public Account(UUID id, String name, Currency currency, long balance) {
+        this(id, name, currency, balance, AccountLedger.DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxLedgerEntries newest ledger entries to keep at least, see {@link AccountLedger}
+     */
+    public Account(UUID id, String name, Currency currency, long balance, int maxLedgerEntries) {
+        this.id = id;
+        this.name = name;
+        this.currency = currency;
+        this.balance = balance;
+        this.ledger = new AccountLedger(Money.scaleOf(currency), maxLedgerEntries);
+    }
+
+    /**
+     * For views, whose state lives in a store rather than in these fields
+     */
+    Account(UUID id) {
+        this.id = id;
+        this.name = null;
+        this.currency = null;
+        this.ledger = null;
+    }
+
+    public BigDecimal getBalance() {
+        return Money.fromMinorUnits(getBalanceMinorUnits(), getCurrency());
+    }
+
+    @JsonIgnore
+    public long getBalanceMinorUnits() {
+        return balance;
+    }
+
+    public void deposit(long amount) {
+        BALANCE.getAndAdd(this, amount);
+    }
+
+    /**
+     * Debit the account unless that would take the balance below zero
+     * @return false if the balance is insufficient, leaving it untouched
+     */
+    public boolean tryWithdraw(long amount) {
+        long current;
+        do {
+            current = balance;
+            if (current < amount) return false;
+        } while (!BALANCE.weakCompareAndSet(this, current, current - amount));
+        return true;
     }
 }
@@ -0,0 +1,190 @@
+package com.boku.moneytransferservice.model;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Recent history of one account, packed into chunks of fixed-size entries held in plain long arrays: 32 bytes per
+ * entry and no object per entry, so a million entries take about 32 MB and nothing for the GC to trace. The first
+ * chunks hold 4, 8, 16 ... entries and the rest {@value #CHUNK_ENTRIES}, so quiet accounts stay small, and no chunk
+ * is ever copied. Once more than maxEntries are held, the oldest chunk is dropped: the ledger keeps between
+ * maxEntries and maxEntries plus two chunks, and sequence numbers keep counting past the dropped entries.
+ * <p>
+ * Nothing locks. An append claims its sequence with an atomic increment and writes its entry, whose first long is
+ * stored last, volatile, and is never 0 once written. Appends then advance a published count over every written
+ * entry, so whichever finishes last publishes the others too: the stores and checks are all volatile, so of two
+ * appends finishing at once at least one sees the other's entry. Readers only go up to the published count, so
+ * a page is read straight from its sequence number with no scan however old it is.
+ */
+public final class AccountLedger {
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private static final int ENTRY_LONGS = 4;
+    private static final int CHUNK_ENTRIES = 256;
+    private static final int FIRST_CHUNK_ENTRIES = 4;
+    // The growing chunks: 4, 8 ... 128, 256 entries, covering the first 508
+    private static final int GROWING_CHUNKS = 7;
+    private static final long GROWING_ENTRIES = (long) FIRST_CHUNK_ENTRIES * ((1 << GROWING_CHUNKS) - 1);
+    private static final LedgerEntry.Type[] TYPES = LedgerEntry.Type.values();
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle CLAIMED;
+    private static final VarHandle PUBLISHED;
+    private static final VarHandle WINDOW;
+
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            CLAIMED = lookup.findVarHandle(AccountLedger.class, "claimed", long.class);
+            PUBLISHED = lookup.findVarHandle(AccountLedger.class, "published", long.class);
+            WINDOW = lookup.findVarHandle(AccountLedger.class, "window", Window.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * The chunks still held, first being the number of the oldest. Replaced whole, never changed
+     */
+    private record Window(long first, long[][] chunks) {
+    }
+
+    private final int scale;
+    private final int maxEntries;
+    // Sequences handed out to appends, and below which every entry is written or dropped
+    private volatile long claimed;
+    private volatile long published;
+    private volatile Window window = new Window(0, new long[0][]);
+
+    public AccountLedger() {
+        this(Money.SCALE, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param scale      decimal places of the account currency's minor unit
+     * @param maxEntries newest entries to keep at least
+     */
+    public AccountLedger(int scale, int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("account.transactions.maxEntries must be positive");
+        this.scale = scale;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param amount       in minor units
+     * @param counterparty see {@link LedgerEntry#counterparty()}
+     */
+    public void append(LedgerEntry.Type type, long amount, UUID counterparty) {
+        var sequence = (long) CLAIMED.getAndAdd(this, 1L);
+        var chunkNumber = chunkOf(sequence);
+        var chunk = chunk(chunkNumber);
+        // Null when older entries than this were already dropped, which only a burst of maxEntries appends racing
+        // this one can do
+        if (chunk != null) {
+            var offset = (int) (sequence - chunkStart(chunkNumber)) * ENTRY_LONGS;
+            chunk[offset + 1] = amount;
+            chunk[offset + 2] = counterparty.getMostSignificantBits();
+            chunk[offset + 3] = counterparty.getLeastSignificantBits();
+            LONGS.setVolatile(chunk, offset, System.currentTimeMillis() << 8 | type.ordinal());
+        }
+        publish();
+    }
+
+    /**
+     * The chunk to write a sequence into, adding it (and dropping the oldest) when it is not there yet
+     */
+    private long[] chunk(long chunkNumber) {
+        while (true) {
+            var current = window;
+            if (chunkNumber < current.first()) return null;
+            var position = chunkNumber - current.first();
+            if (position < current.chunks().length) return current.chunks()[(int) position];
+
+            var chunks = Arrays.copyOf(current.chunks(), (int) position + 1);
+            for (var i = current.chunks().length; i < chunks.length; i++)
+                chunks[i] = new long[chunkEntries(current.first() + i) * ENTRY_LONGS];
+            // Keep at least maxEntries before the new chunk's first entry
+            var first = current.first();
+            while (chunkStart(chunkNumber) + 1 - chunkStart(first + 1) >= maxEntries) first++;
+            var next = new Window(first, Arrays.copyOfRange(chunks, (int) (first - current.first()), chunks.length));
+            if (WINDOW.compareAndSet(this, current, next)) return chunks[chunks.length - 1];
+        }
+    }
+
+    private void publish() {
+        long next;
+        while ((next = published) < claimed && isWritten(next)) PUBLISHED.compareAndSet(this, next, next + 1);
+    }
+
+    private boolean isWritten(long sequence) {
+        var chunkNumber = chunkOf(sequence);
+        var current = window;
+        if (chunkNumber < current.first()) return true;
+        var position = chunkNumber - current.first();
+        if (position >= current.chunks().length) return false;
+        var offset = (int) (sequence - chunkStart(chunkNumber)) * ENTRY_LONGS;
+        return (long) LONGS.getVolatile(current.chunks()[(int) position], offset) != 0;
+    }
+
+    private static long chunkOf(long sequence) {
+        if (sequence < GROWING_ENTRIES)
+            return 31 - Integer.numberOfLeadingZeros((int) (sequence / FIRST_CHUNK_ENTRIES) + 1);
+        return GROWING_CHUNKS + (sequence - GROWING_ENTRIES) / CHUNK_ENTRIES;
+    }
+
+    private static long chunkStart(long chunkNumber) {
+        if (chunkNumber < GROWING_CHUNKS) return (long) FIRST_CHUNK_ENTRIES * ((1L << chunkNumber) - 1);
+        return GROWING_ENTRIES + (chunkNumber - GROWING_CHUNKS) * CHUNK_ENTRIES;
+    }
+
+    private static int chunkEntries(long chunkNumber) {
+        return chunkNumber < GROWING_CHUNKS ? FIRST_CHUNK_ENTRIES << chunkNumber : CHUNK_ENTRIES;
+    }
+
+    /**
+     * Entries appended so far, including dropped ones
+     */
+    public long size() {
+        return published;
+    }
+
+    /**
+     * Newest first page of entries older than the cursor. Once the oldest held entry is reached there is no next
+     * cursor, entries dropped before it are gone
+     *
+     * @param before sequence to start below, or {@link Long#MAX_VALUE} for the newest entries
+     */
+    public TransactionPage page(long before, int limit) {
+        // Published first, the window read after it holds every entry below it that was not dropped
+        var end = Math.min(before, published);
+        var current = window;
+        var oldest = chunkStart(current.first());
+        var start = Math.max(oldest, end - limit);
+        var entries = new ArrayList<LedgerEntry>((int) Math.max(0, end - start));
+        for (var sequence = end - 1; sequence >= start; sequence--) {
+            var chunkNumber = chunkOf(sequence);
+            var chunk = current.chunks()[(int) (chunkNumber - current.first())];
+            var offset = (int) (sequence - chunkStart(chunkNumber)) * ENTRY_LONGS;
+            entries.add(new LedgerEntry(sequence,
+                    Instant.ofEpochMilli(chunk[offset] >>> 8).toString(),
+                    TYPES[(int) (chunk[offset] & 0xFF)],
+                    BigDecimal.valueOf(chunk[offset + 1], scale),
+                    new UUID(chunk[offset + 2], chunk[offset + 3])));
+        }
+        return new TransactionPage(entries, start > oldest ? Long.toString(start) : null);
+    }
+
+    /**
+     * Heap taken by the entry arrays, for sizing
+     */
+    public long footprintBytes() {
+        var chunks = window.chunks();
+        long bytes = 16 + 8L * chunks.length;
+        for (var chunk : chunks) bytes += 16 + 8L * chunk.length;
+        return bytes;
+    }
+}
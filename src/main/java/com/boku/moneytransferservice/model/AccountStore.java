@@ -0,0 +1,32 @@
+package com.boku.moneytransferservice.model;
+
+import java.util.Currency;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Where the service keeps its accounts. Accounts are only ever added, and what {@link #get} returns is live: its
+ * balance and ledger are the account's own, not a copy.
+ */
+public interface AccountStore {
+    /**
+     * @param balance in minor units of currency
+     * @return the new account, or null when the id is already taken
+     */
+    Account add(UUID id, String name, Currency currency, long balance);
+
+    /**
+     * @return the account, or null when there is none with this id
+     */
+    Account get(UUID id);
+
+    boolean contains(UUID id);
+
+    int size();
+
+    /**
+     * Every account, in no particular order and as live as {@link #get}'s. Accounts added while the stream runs may
+     * or may not be in it. Splits evenly, for parallel streams over all accounts
+     */
+    Stream<Account> stream();
+}
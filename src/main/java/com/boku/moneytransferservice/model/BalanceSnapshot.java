@@ -0,0 +1,47 @@
+package com.boku.moneytransferservice.model;
+
+import java.io.IOException;
+import java.util.Currency;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Balances of every account and the withdrawals still waiting for a final state, as read by an end-of-day job.
+ * Both streams are sequential and split well, so callers can run them in parallel.
+ */
+public interface BalanceSnapshot {
+    /**
+     * @return true when both streams describe one point in time, false for a scan of live balances that kept
+     * moving while it ran
+     */
+    boolean isConsistent();
+
+    Stream<Balance> accounts();
+
+    Stream<PendingWithdrawal> pendingWithdrawals();
+
+    /**
+     * @param balance in minor units of currency
+     */
+    record Balance(UUID accountId, Currency currency, long balance) {
+    }
+
+    /**
+     * @param amount already deducted from the account's balance, in minor units of currency
+     */
+    record PendingWithdrawal(UUID withdrawalId, UUID accountId, Currency currency, long amount) {
+    }
+
+    /**
+     * Something that can hand out a snapshot. The snapshot is only valid while {@link #read} runs
+     */
+    @FunctionalInterface
+    interface Source {
+        void read(Reader reader) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface Reader {
+        void read(BalanceSnapshot snapshot) throws IOException;
+    }
+}
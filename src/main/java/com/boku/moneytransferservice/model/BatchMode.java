@@ -0,0 +1,8 @@
+package com.boku.moneytransferservice.model;
+
+public enum BatchMode {
+    /** Every leg is applied or none is */
+    ALL_OR_NOTHING,
+    /** Each leg is applied on its own, failed legs are skipped */
+    BEST_EFFORT
+}
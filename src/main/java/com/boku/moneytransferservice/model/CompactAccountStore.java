@@ -0,0 +1,274 @@
+package com.boku.moneytransferservice.model;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Accounts packed into primitive arrays, for services holding tens of millions of them. Each account is numbered
+ * in creation order, and its id, balance, currency and name sit at that number in chunks of {@value #CHUNK_SIZE}
+ * accounts. An open-addressing table of ints, hashed on the two halves of the id and probed linearly, maps ids to
+ * numbers. Names are kept apart as UTF-8 in shared byte blocks, and ledgers are only created once an account
+ * transacts. That is about 45 bytes per account plus its name, with no object per account for the GC to trace,
+ * where {@link MapAccountStore} takes a few hundred bytes in half a dozen objects.
+ * <p>
+ * Adding is serialised, lookups don't lock: an account is fully written before its number is published in the
+ * table with a release store, and a grown table is only swapped in once complete, so a reader that finds a number
+ * sees everything behind it. {@link #get} returns a small view of the arrays whose balance operations are atomic
+ * operations on the account's balance slot.
+ */
+public final class CompactAccountStore implements AccountStore {
+    private static final int CHUNK_SHIFT = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int NAME_BLOCK_SHIFT = 18;
+    private static final int NAME_BLOCK_BYTES = 1 << NAME_BLOCK_SHIFT;
+    private static final int MAX_CURRENCIES = 256;
+    private static final int INITIAL_TABLE_SIZE = 1 << 10;
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle LEDGERS = MethodHandles.arrayElementVarHandle(AccountLedger[].class);
+
+    // Slot to account number + 1, 0 for an empty slot. A power of two in length and at most 3/4 full
+    private volatile int[] table = new int[INITIAL_TABLE_SIZE];
+    private volatile Chunk[] chunks = new Chunk[0];
+    private volatile byte[][] nameBlocks = new byte[0][];
+    private volatile Currency[] currencies = new Currency[0];
+    // Accounts in the arrays, only written while holding the lock, as is nameBlockUsed
+    private volatile int count;
+    private int nameBlockUsed = NAME_BLOCK_BYTES;
+
+    private static final class Chunk {
+        // Most and least significant halves of each id, interleaved
+        final long[] ids = new long[CHUNK_SIZE * 2];
+        final long[] balances = new long[CHUNK_SIZE];
+        // Index into currencies
+        final byte[] currencies = new byte[CHUNK_SIZE];
+        // Position of the name in the name blocks << 16 | its length in bytes
+        final long[] names = new long[CHUNK_SIZE];
+        final AccountLedger[] ledgers = new AccountLedger[CHUNK_SIZE];
+    }
+
+    private final int maxLedgerEntries;
+
+    public CompactAccountStore() {
+        this(AccountLedger.DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxLedgerEntries newest ledger entries each account keeps at least, see {@link AccountLedger}
+     */
+    public CompactAccountStore(int maxLedgerEntries) {
+        this.maxLedgerEntries = maxLedgerEntries;
+    }
+
+    @Override
+    public Account add(UUID id, String name, Currency currency, long balance) {
+        var encodedName = name.getBytes(UTF_8);
+        // Checked by the service already, the length has to fit the 16 bits it is packed into
+        if (encodedName.length > Account.MAX_NAME_BYTES)
+            throw new IllegalArgumentException("Account name is longer than " + Account.MAX_NAME_BYTES + " bytes");
+        var msb = id.getMostSignificantBits();
+        var lsb = id.getLeastSignificantBits();
+        synchronized (this) {
+            if (find(msb, lsb) >= 0) return null;
+
+            var number = count;
+            if (number == Integer.MAX_VALUE - 1)
+                throw new IllegalStateException("Account store is full");
+            var chunk = writableChunk(number);
+            var offset = number & CHUNK_MASK;
+            chunk.ids[offset * 2] = msb;
+            chunk.ids[offset * 2 + 1] = lsb;
+            chunk.balances[offset] = balance;
+            chunk.currencies[offset] = currencyIndex(currency);
+            chunk.names[offset] = storeName(encodedName);
+            insert(msb, lsb, number);
+            count = number + 1;
+            return new View(id, chunk, offset);
+        }
+    }
+
+    @Override
+    public Account get(UUID id) {
+        var number = find(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        if (number < 0) return null;
+        return new View(id, chunks[number >>> CHUNK_SHIFT], number & CHUNK_MASK);
+    }
+
+    @Override
+    public boolean contains(UUID id) {
+        return find(id.getMostSignificantBits(), id.getLeastSignificantBits()) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Account numbers are dense, so the stream is a range of them that splits into equal halves
+     */
+    @Override
+    public Stream<Account> stream() {
+        // Count first, the chunks read after it then hold every account it covers
+        var count = this.count;
+        var chunks = this.chunks;
+        return IntStream.range(0, count).mapToObj(number -> {
+            var chunk = chunks[number >>> CHUNK_SHIFT];
+            var offset = number & CHUNK_MASK;
+            return (Account) new View(new UUID(chunk.ids[offset * 2], chunk.ids[offset * 2 + 1]), chunk, offset);
+        });
+    }
+
+    /**
+     * @return the account number, or -1 when the id is not in the table
+     */
+    private int find(long msb, long lsb) {
+        var table = this.table;
+        var mask = table.length - 1;
+        for (int slot = slot(msb, lsb, mask); ; slot = (slot + 1) & mask) {
+            var entry = (int) INTS.getAcquire(table, slot);
+            if (entry == 0) return -1;
+            var number = entry - 1;
+            var ids = chunks[number >>> CHUNK_SHIFT].ids;
+            var offset = (number & CHUNK_MASK) * 2;
+            if (ids[offset] == msb && ids[offset + 1] == lsb) return number;
+        }
+    }
+
+    private static int slot(long msb, long lsb, int mask) {
+        // Ids are often sequential in their low bits, the multiply spreads those over the whole hash
+        var hash = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ hash >>> 32) & mask;
+    }
+
+    private void insert(long msb, long lsb, int number) {
+        var table = this.table;
+        if ((count + 1) * 4L > table.length * 3L) table = grow(table);
+        var mask = table.length - 1;
+        var slot = slot(msb, lsb, mask);
+        while (table[slot] != 0) slot = (slot + 1) & mask;
+        INTS.setRelease(table, slot, number + 1);
+    }
+
+    /**
+     * Rehash into a table twice the size, readers keep probing the old one until the new one is complete
+     */
+    private int[] grow(int[] table) {
+        var grown = new int[table.length * 2];
+        var mask = grown.length - 1;
+        var chunks = this.chunks;
+        for (var entry : table) {
+            if (entry == 0) continue;
+            var number = entry - 1;
+            var ids = chunks[number >>> CHUNK_SHIFT].ids;
+            var offset = (number & CHUNK_MASK) * 2;
+            var slot = slot(ids[offset], ids[offset + 1], mask);
+            while (grown[slot] != 0) slot = (slot + 1) & mask;
+            grown[slot] = entry;
+        }
+        this.table = grown;
+        return grown;
+    }
+
+    private Chunk writableChunk(int number) {
+        var current = chunks;
+        var index = number >>> CHUNK_SHIFT;
+        if (index == current.length) {
+            current = Arrays.copyOf(current, index + 1);
+            current[index] = new Chunk();
+            chunks = current;
+        }
+        return current[index];
+    }
+
+    private byte currencyIndex(Currency currency) {
+        var known = currencies;
+        for (int i = 0; i < known.length; i++)
+            if (known[i] == currency) return (byte) i;
+        if (known.length == MAX_CURRENCIES)
+            throw new IllegalStateException("Account store holds at most " + MAX_CURRENCIES + " currencies");
+        known = Arrays.copyOf(known, known.length + 1);
+        known[known.length - 1] = currency;
+        currencies = known;
+        return (byte) (known.length - 1);
+    }
+
+    private long storeName(byte[] name) {
+        var blocks = nameBlocks;
+        if (nameBlockUsed + name.length > NAME_BLOCK_BYTES) {
+            blocks = Arrays.copyOf(blocks, blocks.length + 1);
+            blocks[blocks.length - 1] = new byte[NAME_BLOCK_BYTES];
+            nameBlocks = blocks;
+            nameBlockUsed = 0;
+        }
+        System.arraycopy(name, 0, blocks[blocks.length - 1], nameBlockUsed, name.length);
+        var position = ((long) (blocks.length - 1) << NAME_BLOCK_SHIFT) + nameBlockUsed;
+        nameBlockUsed += name.length;
+        return position << 16 | name.length;
+    }
+
+    /**
+     * One account's slots in a chunk. Cheap enough to create on every lookup, the JIT often doesn't allocate it at
+     * all
+     */
+    private final class View extends Account {
+        private final Chunk chunk;
+        private final int offset;
+
+        View(UUID id, Chunk chunk, int offset) {
+            super(id);
+            this.chunk = chunk;
+            this.offset = offset;
+        }
+
+        @Override
+        public String getName() {
+            var name = chunk.names[offset];
+            var position = name >>> 16;
+            return new String(nameBlocks[(int) (position >>> NAME_BLOCK_SHIFT)],
+                    (int) (position & (NAME_BLOCK_BYTES - 1)), (int) (name & 0xFFFF), UTF_8);
+        }
+
+        @Override
+        public Currency getCurrency() {
+            return currencies[chunk.currencies[offset] & 0xFF];
+        }
+
+        @Override
+        public AccountLedger getLedger() {
+            var ledger = (AccountLedger) LEDGERS.getAcquire(chunk.ledgers, offset);
+            if (ledger != null) return ledger;
+            var created = new AccountLedger(Money.scaleOf(getCurrency()), maxLedgerEntries);
+            ledger = (AccountLedger) LEDGERS.compareAndExchangeRelease(chunk.ledgers, offset, null, created);
+            return ledger == null ? created : ledger;
+        }
+
+        @Override
+        public long getBalanceMinorUnits() {
+            return (long) LONGS.getVolatile(chunk.balances, offset);
+        }
+
+        @Override
+        public void deposit(long amount) {
+            LONGS.getAndAdd(chunk.balances, offset, amount);
+        }
+
+        @Override
+        public boolean tryWithdraw(long amount) {
+            long current;
+            do {
+                current = (long) LONGS.getVolatile(chunk.balances, offset);
+                if (current < amount) return false;
+            } while (!LONGS.weakCompareAndSet(chunk.balances, offset, current, current - amount));
+            return true;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.boku.moneytransferservice.model;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * One line of an account's history as returned by the API
+ *
+ * @param sequence     position in the account's ledger, starting at 0
+ * @param time         ISO-8601 instant the entry was recorded
+ * @param counterparty the other account for transfers, the withdrawal id for withdrawals and refunds
+ */
+public record LedgerEntry(long sequence, String time, Type type, BigDecimal amount, UUID counterparty) {
+
+    public enum Type {
+        TRANSFER_IN,
+        TRANSFER_OUT,
+        WITHDRAWAL,
+        WITHDRAWAL_REFUND
+    }
+}
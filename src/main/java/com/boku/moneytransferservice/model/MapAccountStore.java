@@ -0,0 +1,54 @@
+package com.boku.moneytransferservice.model;
+
+import java.util.Currency;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+/**
+ * Every account an {@link Account} object in a {@link ConcurrentHashMap}. Lookups return the stored object itself,
+ * but each account costs a map node, a UUID, the account, its name and its ledger on the heap, a few hundred bytes
+ * in all, see {@link CompactAccountStore} for large account counts.
+ */
+public final class MapAccountStore implements AccountStore {
+    private final ConcurrentMap<UUID, Account> accounts = new ConcurrentHashMap<>();
+    private final int maxLedgerEntries;
+
+    public MapAccountStore() {
+        this(AccountLedger.DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxLedgerEntries newest ledger entries each account keeps at least, see {@link AccountLedger}
+     */
+    public MapAccountStore(int maxLedgerEntries) {
+        this.maxLedgerEntries = maxLedgerEntries;
+    }
+
+    @Override
+    public Account add(UUID id, String name, Currency currency, long balance) {
+        var account = new Account(id, name, currency, balance, maxLedgerEntries);
+        return accounts.putIfAbsent(id, account) == null ? account : null;
+    }
+
+    @Override
+    public Account get(UUID id) {
+        return accounts.get(id);
+    }
+
+    @Override
+    public boolean contains(UUID id) {
+        return accounts.containsKey(id);
+    }
+
+    @Override
+    public int size() {
+        return accounts.size();
+    }
+
+    @Override
+    public Stream<Account> stream() {
+        return accounts.values().stream();
+    }
+}
@@ -0,0 +1,58 @@
+package com.boku.moneytransferservice.model;
+
+import com.boku.moneytransferservice.exception.ValidationException;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+
+/**
+ * Conversion between REST facing {@link BigDecimal} amounts and the fixed-point minor units used internally.
+ * Amounts are kept as a {@code long} count of the currency's minor unit (cents, or whole yen) so balance updates
+ * don't allocate.
+ */
+public final class Money {
+    /**
+     * Currency of accounts created before accounts carried one
+     */
+    public static final Currency DEFAULT_CURRENCY = Currency.getInstance("EUR");
+    public static final int SCALE = 2;
+
+    private Money() {
+    }
+
+    public static long toMinorUnits(BigDecimal amount) throws ValidationException {
+        return toMinorUnits(amount, SCALE);
+    }
+
+    public static long toMinorUnits(BigDecimal amount, Currency currency) throws ValidationException {
+        return toMinorUnits(amount, scaleOf(currency));
+    }
+
+    private static long toMinorUnits(BigDecimal amount, int scale) throws ValidationException {
+        if (amount.stripTrailingZeros().scale() > scale)
+            throw new ValidationException("Amount must have at most " + scale + " decimal places");
+        try {
+            return amount.movePointRight(scale).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new ValidationException("Amount is out of range");
+        }
+    }
+
+    public static BigDecimal fromMinorUnits(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    public static BigDecimal fromMinorUnits(long minorUnits, Currency currency) {
+        return BigDecimal.valueOf(minorUnits, scaleOf(currency));
+    }
+
+    /**
+     * Decimal places of the currency's minor unit
+     */
+    public static int scaleOf(Currency currency) {
+        var digits = currency.getDefaultFractionDigits();
+        if (digits < 0)
+            throw new IllegalArgumentException("Currency " + currency + " has no minor unit");
+        return digits;
+    }
+}
@@ -0,0 +1,8 @@
+package com.boku.moneytransferservice.model;
+
+import java.util.List;
+
+/**
+ * @param nextCursor pass back as ?cursor= for the next (older) page, null on the last page
+ */
+public record TransactionPage(List<LedgerEntry> transactions, String nextCursor) { }
@@ -0,0 +1,8 @@
+package com.boku.moneytransferservice.model;
+
+import java.util.UUID;
+
+/**
+ * One transfer of a batch, amount in minor units
+ */
+public record TransferLeg(UUID senderAccountId, UUID receiverAccountId, long amount) { }
@@ -0,0 +1,17 @@
+package com.boku.moneytransferservice.model;
+
+public record TransferLegResult(String status, String message) {
+    private static final TransferLegResult SUCCESS = new TransferLegResult("success", null);
+
+    public static TransferLegResult success() {
+        return SUCCESS;
+    }
+
+    public static TransferLegResult failed(String message) {
+        return new TransferLegResult("error", message);
+    }
+
+    public boolean succeeded() {
+        return this == SUCCESS || "success".equals(status);
+    }
+}
@@ -5,13 +5,12 @@ import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.math.BigDecimal;
-
 @Getter
 @Setter
 @AllArgsConstructor
 public class Withdrawal {
     private WithdrawalId withdrawalId;
     private Account senderAccount;
-    private BigDecimal amount;
+    private long amount;
+    private String address;
 }
@@ -0,0 +1,34 @@
+package com.boku.moneytransferservice.server;
+
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Jetty's pool of platform threads with a bounded job queue, so overload is refused instead of queued without limit
+ */
+class BoundedServerThreadPool extends QueuedThreadPool implements ServerThreadPool {
+    private final LongAdder rejected = new LongAdder();
+
+    BoundedServerThreadPool(int maxThreads, int minThreads, int idleTimeoutMillis, int queueCapacity) {
+        super(maxThreads, minThreads, idleTimeoutMillis, new BlockingArrayQueue<>(queueCapacity, 0, queueCapacity));
+        setName("http");
+    }
+
+    @Override
+    public void execute(Runnable job) {
+        try {
+            super.execute(job);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    @Override
+    public Metrics metrics() {
+        return new Metrics("pool", getThreads(), getBusyThreads(), getQueueSize(), rejected.sum());
+    }
+}
@@ -0,0 +1,19 @@
+package com.boku.moneytransferservice.server;
+
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * The Jetty thread pool requests run on, see {@link ServerThreadPools#create}
+ */
+public interface ServerThreadPool extends ThreadPool {
+
+    Metrics metrics();
+
+    /**
+     * @param mode          "pool" or "virtual"
+     * @param busyThreads   threads currently running a task
+     * @param queueDepth    tasks accepted but not started yet
+     * @param rejectedTasks tasks refused since startup, each one a dropped connection or request
+     */
+    record Metrics(String mode, int threads, int busyThreads, int queueDepth, long rejectedTasks) { }
+}
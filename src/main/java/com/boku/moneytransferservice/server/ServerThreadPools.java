@@ -0,0 +1,28 @@
+package com.boku.moneytransferservice.server;
+
+import com.boku.moneytransferservice.config.AppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public final class ServerThreadPools {
+    private static final Logger log = LoggerFactory.getLogger(ServerThreadPools.class);
+
+    private ServerThreadPools() { }
+
+    /**
+     * server.threadMode=virtual gives a virtual thread per task on Java 21+, anything else (or an older runtime)
+     * the bounded platform thread pool
+     */
+    public static ServerThreadPool create(AppConfig config) {
+        if ("virtual".equals(config.getString("server.threadMode", "pool"))) {
+            var executor = VirtualServerThreadPool.newVirtualThreadPerTaskExecutor();
+            if (executor != null) return new VirtualServerThreadPool(executor);
+            log.warn("Virtual threads need Java 21+, running on {}; using the bounded pool", Runtime.version());
+        }
+        return new BoundedServerThreadPool(
+                config.getInt("server.maxThreads", 200),
+                config.getInt("server.minThreads", 8),
+                config.getInt("server.idleTimeoutMillis", 60_000),
+                config.getInt("server.queueCapacity", 1000));
+    }
+}
@@ -0,0 +1,223 @@
+package com.boku.moneytransferservice.service;
+
+import com.boku.moneytransferservice.exception.TooManySubscribersException;
+import com.boku.moneytransferservice.model.Account;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Currency;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Pushes account balance changes to subscribers without the operations making the changes ever waiting for one.
+ * <p>
+ * A change only flags the account: nothing for accounts nobody watches, otherwise a compare-and-set and, the first
+ * time since the account's subscribers were last served, a queue hand-off. The dispatcher thread then reads the
+ * balance as it is by then and leaves it in each subscriber's single slot, replacing whatever the subscriber had
+ * not taken yet. So changes coalesce twice, per account between dispatches and per subscriber between reads: a
+ * subscriber that can't keep up holds one update however fast the balance moves, and the one it gets is the latest.
+ * <p>
+ * Subscribers take from their slot whenever they can write, see {@link Subscription}. Subscriptions are also given
+ * a heartbeat when idle for events.heartbeatSeconds, so dead connections are noticed and live ones aren't closed
+ * for idling.
+ */
+public class BalanceEvents {
+    private static final Logger log = LoggerFactory.getLogger(BalanceEvents.class);
+
+    /**
+     * Offered to idle subscriptions, carries no balance
+     */
+    public static final BalanceUpdate HEARTBEAT = new BalanceUpdate(null, null, 0);
+
+    /**
+     * @param balance in minor units of currency
+     */
+    public record BalanceUpdate(UUID accountId, Currency currency, long balance) {
+    }
+
+    private final Function<UUID, Account> accounts;
+    private final int maxSubscribers;
+    private final long heartbeatNanos;
+    private final ConcurrentMap<UUID, Topic> topics = new ConcurrentHashMap<>();
+    // Each topic is in here at most once, see Topic.changed
+    private final BlockingQueue<Topic> changedTopics = new LinkedBlockingQueue<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private Thread dispatcher;
+
+    private static final class Topic {
+        final UUID accountId;
+        final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+        // Set by the first change after a dispatch, cleared by the dispatcher before it reads the balance
+        final AtomicBoolean changed = new AtomicBoolean();
+
+        Topic(UUID accountId) {
+            this.accountId = accountId;
+        }
+    }
+
+    /**
+     * @param accounts looks up the account whose balance to send
+     */
+    BalanceEvents(Function<UUID, Account> accounts, int maxSubscribers, long heartbeatMillis) {
+        this.accounts = accounts;
+        this.maxSubscribers = maxSubscribers;
+        this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMillis);
+    }
+
+    /**
+     * Called after the account's balance changed, from any thread. Never blocks
+     */
+    void changed(UUID accountId) {
+        if (topics.isEmpty()) return;
+        var topic = topics.get(accountId);
+        if (topic != null && !topic.changed.get() && topic.changed.compareAndSet(false, true))
+            changedTopics.add(topic);
+    }
+
+    /**
+     * Start following the account. The account's current balance is already waiting in the returned subscription,
+     * wakeUp is only called for what comes after it
+     *
+     * @param wakeUp called from the dispatcher thread when an update lands in an empty slot. Must not block
+     * @throws TooManySubscribersException when events.maxSubscribers subscriptions are open
+     */
+    Subscription subscribe(Account account, Runnable wakeUp) {
+        if (subscribers.incrementAndGet() > maxSubscribers) {
+            subscribers.decrementAndGet();
+            throw new TooManySubscribersException(maxSubscribers);
+        }
+        startDispatcher();
+        var subscription = new Subscription(account.getId(), wakeUp,
+                new BalanceUpdate(account.getId(), account.getCurrency(), account.getBalanceMinorUnits()));
+        topics.compute(account.getId(), (accountId, topic) -> {
+            if (topic == null) topic = new Topic(accountId);
+            topic.subscriptions.add(subscription);
+            return topic;
+        });
+        return subscription;
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        topics.computeIfPresent(subscription.accountId, (accountId, topic) -> {
+            topic.subscriptions.remove(subscription);
+            return topic.subscriptions.isEmpty() ? null : topic;
+        });
+        subscribers.decrementAndGet();
+    }
+
+    public int subscribers() {
+        return subscribers.get();
+    }
+
+    /**
+     * Updates left in subscription slots
+     */
+    public long published() {
+        return published.sum();
+    }
+
+    /**
+     * Updates replaced in a slot by a newer one before the subscriber took them
+     */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    private synchronized void startDispatcher() {
+        if (dispatcher != null) return;
+        dispatcher = new Thread(this::dispatch, "balance-events");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    private void dispatch() {
+        var nextHeartbeat = System.nanoTime() + heartbeatNanos;
+        while (true) {
+            try {
+                var topic = changedTopics.poll(Math.max(0, nextHeartbeat - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (topic != null) publish(topic);
+                if (System.nanoTime() - nextHeartbeat >= 0) {
+                    for (var heartbeatTopic : topics.values())
+                        heartbeatTopic.subscriptions.forEach(Subscription::offerHeartbeat);
+                    nextHeartbeat = System.nanoTime() + heartbeatNanos;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // A broken subscriber must not stop updates to everyone else
+                log.error("Balance event dispatch failed", e);
+            }
+        }
+    }
+
+    private void publish(Topic topic) {
+        // Cleared before reading, so a change racing with the read flags the topic again
+        topic.changed.set(false);
+        var account = accounts.apply(topic.accountId);
+        var update = new BalanceUpdate(topic.accountId, account.getCurrency(), account.getBalanceMinorUnits());
+        for (var subscription : topic.subscriptions) subscription.offer(update);
+    }
+
+    /**
+     * One subscriber's slot: holds the newest update it has not taken, or nothing
+     */
+    public final class Subscription implements AutoCloseable {
+        private final UUID accountId;
+        private final Runnable wakeUp;
+        private final AtomicReference<BalanceUpdate> latest;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Subscription(UUID accountId, Runnable wakeUp, BalanceUpdate initial) {
+            this.accountId = accountId;
+            this.wakeUp = wakeUp;
+            this.latest = new AtomicReference<>(initial);
+        }
+
+        /**
+         * Take the update waiting in the slot
+         *
+         * @return the newest update, {@link #HEARTBEAT}, or null when there is nothing new
+         */
+        public BalanceUpdate poll() {
+            return latest.getAndSet(null);
+        }
+
+        private void offer(BalanceUpdate update) {
+            var replaced = latest.getAndSet(update);
+            if (replaced != null && replaced != HEARTBEAT) coalesced.increment();
+            published.increment();
+            if (replaced == null) wake();
+        }
+
+        private void offerHeartbeat() {
+            if (latest.compareAndSet(null, HEARTBEAT)) wake();
+        }
+
+        private void wake() {
+            try {
+                wakeUp.run();
+            } catch (RuntimeException e) {
+                log.warn("Balance event subscriber for {} failed, closing it", accountId, e);
+                close();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) unsubscribe(this);
+        }
+    }
+}
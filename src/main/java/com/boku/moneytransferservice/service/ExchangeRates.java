@@ -0,0 +1,234 @@
+package com.boku.moneytransferservice.service;
+
+import com.boku.moneytransferservice.exception.ValidationException;
+import com.boku.moneytransferservice.model.Money;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Exchange rates used to credit transfers between accounts of different currencies, loaded from a properties file
+ * of {@code FROM/TO=rate} lines, where one unit of FROM buys rate units of TO. A pair missing from the file is
+ * derived from its reverse when that is quoted.
+ * <p>
+ * The table is immutable and replaced as a whole, copy-on-write: a reload or an update builds a new table and swaps
+ * the reference, so transfers read rates with one volatile load and never lock or see a half-applied update.
+ */
+public class ExchangeRates {
+    private static final Logger log = LoggerFactory.getLogger(ExchangeRates.class);
+    // Decimal places derived reverse rates are quoted to
+    private static final int DERIVED_RATE_SCALE = 9;
+
+    private final AtomicReference<Map<Currency, Map<Currency, Conversion>>> table = new AtomicReference<>(Map.of());
+    private final Path source;
+    private volatile FileTime sourceModified;
+
+    public ExchangeRates() {
+        this(null);
+    }
+
+    /**
+     * @param source rates file, read now and by {@link #reloadIfChanged()}; a missing file leaves the table empty
+     */
+    public ExchangeRates(Path source) {
+        this.source = source;
+        if (source != null) reloadIfChanged();
+    }
+
+    /**
+     * Convert an amount in minor units of from into minor units of to, rounding down so that a transfer never
+     * credits more than the rate allows
+     *
+     * @throws IllegalArgumentException when no rate is known for the pair
+     * @throws ValidationException      when the amount converts to nothing or out of range
+     */
+    public long convert(Currency from, Currency to, long amount) throws ValidationException {
+        return conversion(from, to).apply(amount);
+    }
+
+    public Conversion conversion(Currency from, Currency to) {
+        var rates = table.get().get(from);
+        var conversion = rates == null ? null : rates.get(to);
+        if (conversion == null)
+            throw new IllegalArgumentException("No exchange rate from " + from + " to " + to);
+        return conversion;
+    }
+
+    public int size() {
+        return table.get().values().stream().mapToInt(Map::size).sum();
+    }
+
+    /**
+     * Replace the whole table with the given quotes, keyed FROM/TO
+     */
+    public void replace(Map<String, BigDecimal> quotes) {
+        table.set(build(quotes));
+    }
+
+    /**
+     * Quote one pair on top of the current table, its reverse is derived again unless quoted itself
+     */
+    public void update(Currency from, Currency to, BigDecimal rate) {
+        table.updateAndGet(current -> {
+            var quotes = new HashMap<String, BigDecimal>();
+            current.forEach((source, rates) -> rates.values().forEach(conversion -> {
+                if (conversion.quoted()) quotes.put(pair(conversion.from(), conversion.to()), conversion.rate());
+            }));
+            quotes.put(pair(from, to), rate);
+            return build(quotes);
+        });
+    }
+
+    /**
+     * Re-read the rates file if it changed since it was last read. A file that fails to parse keeps the current
+     * table in place
+     *
+     * @return whether the table was replaced
+     */
+    public boolean reloadIfChanged() {
+        if (source == null) return false;
+        try {
+            if (!Files.exists(source)) {
+                if (sourceModified == null) log.warn("No exchange rates file at {}, only same-currency transfers are possible", source);
+                sourceModified = FileTime.fromMillis(0);
+                return false;
+            }
+            var modified = Files.getLastModifiedTime(source);
+            if (modified.equals(sourceModified)) return false;
+
+            var properties = new Properties();
+            try (var in = Files.newBufferedReader(source)) {
+                properties.load(in);
+            }
+            var quotes = new HashMap<String, BigDecimal>();
+            properties.forEach((pair, rate) -> quotes.put(pair.toString().trim(), new BigDecimal(rate.toString().trim())));
+            var rates = build(quotes);
+            table.set(rates);
+            sourceModified = modified;
+            log.info("Loaded {} exchange rates from {}", quotes.size(), source);
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read exchange rates from " + source, e);
+        }
+    }
+
+    private static Map<Currency, Map<Currency, Conversion>> build(Map<String, BigDecimal> quotes) {
+        var rates = new HashMap<Currency, Map<Currency, Conversion>>();
+        quotes.forEach((pair, rate) -> {
+            var currencies = pair.split("/");
+            if (currencies.length != 2)
+                throw new IllegalArgumentException("Exchange rate pair must be FROM/TO: " + pair);
+            if (rate.signum() <= 0)
+                throw new IllegalArgumentException("Exchange rate for " + pair + " must be positive");
+            var from = Currency.getInstance(currencies[0].trim());
+            var to = Currency.getInstance(currencies[1].trim());
+            rates.computeIfAbsent(from, ignored -> new HashMap<>()).put(to, new Conversion(from, to, rate, true));
+        });
+        // Reverse pairs nobody quoted
+        new HashMap<>(rates).forEach((from, quoted) -> quoted.values().forEach(conversion -> {
+            var reverse = rates.computeIfAbsent(conversion.to(), ignored -> new HashMap<>());
+            if (!reverse.containsKey(from)) {
+                var rate = BigDecimal.ONE.divide(conversion.rate(), DERIVED_RATE_SCALE, RoundingMode.HALF_EVEN);
+                if (rate.signum() > 0) reverse.put(from, new Conversion(conversion.to(), from, rate, false));
+            }
+        }));
+        var table = new HashMap<Currency, Map<Currency, Conversion>>();
+        rates.forEach((from, to) -> table.put(from, Map.copyOf(to)));
+        return Map.copyOf(table);
+    }
+
+    private static String pair(Currency from, Currency to) {
+        return from.getCurrencyCode() + "/" + to.getCurrencyCode();
+    }
+
+    /**
+     * The rounding rule of one currency pair, worked out once when the table is built: the rate shifted by the
+     * difference in minor unit scales, so conversion is a multiplication of minor units, and when that factor has at
+     * most {@link #FIXED_POINT_DIGITS} decimal places, the same factor as a fixed-point long, so amounts that don't
+     * overflow it convert without allocating. Everything else takes the exact {@link BigDecimal} route. Both round
+     * down to the receiver's minor unit.
+     */
+    public static final class Conversion {
+        static final int FIXED_POINT_DIGITS = 9;
+        private static final long FIXED_POINT_ONE = 1_000_000_000L;
+
+        private final Currency from;
+        private final Currency to;
+        private final BigDecimal rate;
+        private final boolean quoted;
+        private final BigDecimal factor;
+        // factor * 10^FIXED_POINT_DIGITS, or 0 when that isn't a whole number that fits a long
+        private final long fixedPointFactor;
+
+        Conversion(Currency from, Currency to, BigDecimal rate, boolean quoted) {
+            this.from = from;
+            this.to = to;
+            this.rate = rate;
+            this.quoted = quoted;
+            this.factor = rate.movePointRight(Money.scaleOf(to) - Money.scaleOf(from));
+            this.fixedPointFactor = fixedPoint(factor);
+        }
+
+        private static long fixedPoint(BigDecimal factor) {
+            var scaled = factor.movePointRight(FIXED_POINT_DIGITS).stripTrailingZeros();
+            if (scaled.scale() > 0) return 0;
+            try {
+                return scaled.longValueExact();
+            } catch (ArithmeticException e) {
+                return 0;
+            }
+        }
+
+        /**
+         * @param amount minor units of from, positive
+         * @return minor units of to
+         */
+        public long apply(long amount) throws ValidationException {
+            long converted;
+            if (fixedPointFactor != 0 && Math.multiplyHigh(amount, fixedPointFactor) == 0
+                    && amount * fixedPointFactor >= 0) {
+                converted = amount * fixedPointFactor / FIXED_POINT_ONE;
+            } else {
+                try {
+                    converted = BigDecimal.valueOf(amount).multiply(factor).setScale(0, RoundingMode.DOWN).longValueExact();
+                } catch (ArithmeticException e) {
+                    throw new ValidationException("Amount is out of range");
+                }
+            }
+            if (converted <= 0)
+                throw new ValidationException("Amount is too small to convert from " + from + " to " + to);
+            return converted;
+        }
+
+        public Currency from() {
+            return from;
+        }
+
+        public Currency to() {
+            return to;
+        }
+
+        public BigDecimal rate() {
+            return rate;
+        }
+
+        /**
+         * False for a rate derived from the reverse pair
+         */
+        public boolean quoted() {
+            return quoted;
+        }
+    }
+}
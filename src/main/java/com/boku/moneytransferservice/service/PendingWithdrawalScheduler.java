@@ -0,0 +1,66 @@
+package com.boku.moneytransferservice.service;
+
+import com.boku.moneytransferservice.service.WithdrawalService.WithdrawalId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps in-flight withdrawals ordered by the time their state is next worth checking, so a poll pass only
+ * touches the withdrawals that are due instead of every pending one.
+ * Withdrawals still PROCESSING are pushed back with exponential backoff.
+ */
+class PendingWithdrawalScheduler {
+    private final DelayQueue<Check> queue = new DelayQueue<>();
+    private final long initialDelayMillis;
+    private final long maxBackoffMillis;
+
+    PendingWithdrawalScheduler(long initialDelayMillis, long maxBackoffMillis) {
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    void schedule(WithdrawalId withdrawalId) {
+        schedule(withdrawalId, initialDelayMillis);
+    }
+
+    void schedule(WithdrawalId withdrawalId, long delayMillis) {
+        queue.add(new Check(withdrawalId, delayMillis, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis)));
+    }
+
+    /**
+     * Check again later, doubling the previous delay up to the configured maximum
+     */
+    void backOff(Check check) {
+        var delayMillis = Math.min(Math.max(check.delayMillis * 2, 1), maxBackoffMillis);
+        queue.add(new Check(check.withdrawalId, delayMillis, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis)));
+    }
+
+    /**
+     * Remove and return up to maxItems checks whose time has come, earliest first
+     */
+    List<Check> pollDue(int maxItems) {
+        var due = new ArrayList<Check>(Math.min(maxItems, 64));
+        queue.drainTo(due, maxItems);
+        return due;
+    }
+
+    int size() {
+        return queue.size();
+    }
+
+    record Check(WithdrawalId withdrawalId, long delayMillis, long dueAtNanos) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAtNanos, ((Check) other).dueAtNanos);
+        }
+    }
+}
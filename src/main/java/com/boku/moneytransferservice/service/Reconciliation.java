@@ -0,0 +1,232 @@
+package com.boku.moneytransferservice.service;
+
+import com.boku.moneytransferservice.config.AppConfig;
+import com.boku.moneytransferservice.model.BalanceSnapshot;
+import com.boku.moneytransferservice.model.BalanceSnapshot.Balance;
+import com.boku.moneytransferservice.model.BalanceSnapshot.PendingWithdrawal;
+import com.boku.moneytransferservice.model.Money;
+import com.boku.moneytransferservice.service.WithdrawalService.WithdrawalId;
+import com.boku.moneytransferservice.service.WithdrawalService.WithdrawalState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-of-day reconciliation: the total owed to account holders per currency, accounts with a negative or
+ * unusually large balance, and pending withdrawals the provider has already settled or has never heard of.
+ * <p>
+ * Runs over a {@link BalanceSnapshot} from its source, the journal checkpointer's consistent one when the journal
+ * is on. Accounts are aggregated with a parallel stream run in a ForkJoinPool of its own, reconciliation.parallelism
+ * threads, so a run doesn't starve other users of the common pool. Whatever the number of accounts, a run holds
+ * only per-currency totals, at most reconciliation.maxListedAccounts flagged accounts and one provider batch of
+ * withdrawals, and hands the report out line by line.
+ */
+public class Reconciliation {
+    private static final Logger log = LoggerFactory.getLogger(Reconciliation.class);
+
+    /**
+     * Receives the report in order: the snapshot, flagged accounts, withdrawal mismatches, one total per currency
+     * and the summary
+     */
+    public interface Report {
+        void snapshot(boolean consistent) throws IOException;
+
+        void flaggedAccount(Balance account, Flag flag) throws IOException;
+
+        /**
+         * @param providerState COMPLETED or FAILED, or null when the provider doesn't know the withdrawal
+         */
+        void withdrawalMismatch(PendingWithdrawal withdrawal, WithdrawalState providerState) throws IOException;
+
+        void currencyTotal(CurrencyTotal total) throws IOException;
+
+        void summary(Summary summary) throws IOException;
+    }
+
+    public enum Flag {NEGATIVE, LARGE}
+
+    /**
+     * Amounts in minor units of currency. Pending withdrawals have left the balances but are still owed until the
+     * provider completes them
+     */
+    public record CurrencyTotal(Currency currency, long accounts, long balances, long pendingWithdrawals,
+                                long negativeAccounts) {
+        public long liability() {
+            return balances + pendingWithdrawals;
+        }
+    }
+
+    /**
+     * @param listedAccounts    flagged accounts in the report, at most reconciliation.maxListedAccounts of them
+     * @param uncheckedWithdrawals pending withdrawals whose provider lookup failed
+     * @param parallelism       threads the account aggregation may use
+     * @param threadsUsed       threads that actually took part in it
+     */
+    public record Summary(boolean consistent, long accounts, long flaggedAccounts, long listedAccounts,
+                          long pendingWithdrawals, long withdrawalMismatches, long uncheckedWithdrawals,
+                          long durationMillis, int parallelism, int threadsUsed, int availableProcessors) {
+    }
+
+    private final WithdrawalService withdrawalService;
+    private final BalanceSnapshot.Source source;
+    private final ForkJoinPool pool;
+    private final BigDecimal largeBalance;
+    private final int maxListedAccounts;
+    private final int providerBatchSize;
+
+    /**
+     * @param source the journal checkpointer's snapshot, or TransferService's live balances without a journal
+     */
+    public Reconciliation(WithdrawalService withdrawalService, BalanceSnapshot.Source source, AppConfig config) {
+        this.withdrawalService = withdrawalService;
+        this.source = source;
+        var parallelism = config.getInt("reconciliation.parallelism", 0);
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.largeBalance = BigDecimal.valueOf(config.getLong("reconciliation.largeBalance", 1_000_000));
+        this.maxListedAccounts = config.getInt("reconciliation.maxListedAccounts", 10_000);
+        this.providerBatchSize = config.getInt("reconciliation.providerBatchSize", 500);
+    }
+
+    public void run(Report report) throws IOException {
+        var start = System.nanoTime();
+        source.read(snapshot -> {
+            report.snapshot(snapshot.isConsistent());
+
+            var threads = ConcurrentHashMap.<Thread>newKeySet();
+            var tally = pool.submit(() -> snapshot.accounts().parallel()
+                    .collect(() -> new Tally(threads), Tally::add, Tally::merge)).join();
+            for (var flagged : tally.listed) report.flaggedAccount(flagged.account(), flagged.flag());
+
+            var withdrawals = new Withdrawals();
+            var batch = new ArrayList<PendingWithdrawal>(providerBatchSize);
+            for (var iterator = snapshot.pendingWithdrawals().iterator(); iterator.hasNext(); ) {
+                batch.add(iterator.next());
+                if (batch.size() == providerBatchSize || !iterator.hasNext()) {
+                    withdrawals.check(batch, report);
+                    batch.clear();
+                }
+            }
+
+            var currencies = new HashMap<Currency, CurrencyTotal>();
+            tally.currencies.forEach((currency, totals) -> currencies.put(currency, new CurrencyTotal(currency,
+                    totals.accounts, totals.balances, withdrawals.amounts.getOrDefault(currency, 0L), totals.negative)));
+            withdrawals.amounts.forEach((currency, amount) ->
+                    currencies.putIfAbsent(currency, new CurrencyTotal(currency, 0, 0, amount, 0)));
+            for (var total : currencies.values()) report.currencyTotal(total);
+
+            var summary = new Summary(snapshot.isConsistent(), tally.accounts, tally.flagged, tally.listed.size(),
+                    withdrawals.pending, withdrawals.mismatches, withdrawals.unchecked,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), pool.getParallelism(), threads.size(),
+                    Runtime.getRuntime().availableProcessors());
+            report.summary(summary);
+            log.info("Reconciled {} accounts and {} pending withdrawals in {} ms on {} threads, {} accounts flagged, {} withdrawal mismatches",
+                    summary.accounts(), summary.pendingWithdrawals(), summary.durationMillis(), summary.threadsUsed(),
+                    summary.flaggedAccounts(), summary.withdrawalMismatches());
+        });
+    }
+
+    private record Flagged(Balance account, Flag flag) {
+    }
+
+    private static final class CurrencyTally {
+        final long largeThreshold;
+        long accounts;
+        long balances;
+        long negative;
+
+        CurrencyTally(long largeThreshold) {
+            this.largeThreshold = largeThreshold;
+        }
+    }
+
+    /**
+     * Totals over one part of the accounts. Each part of the parallel stream gets its own, merged when parts join
+     */
+    private final class Tally {
+        final Map<Currency, CurrencyTally> currencies = new HashMap<>();
+        final List<Flagged> listed = new ArrayList<>();
+        long accounts;
+        long flagged;
+
+        Tally(Set<Thread> threads) {
+            threads.add(Thread.currentThread());
+        }
+
+        void add(Balance account) {
+            var totals = currencies.computeIfAbsent(account.currency(),
+                    currency -> new CurrencyTally(largeBalance.movePointRight(Money.scaleOf(currency)).longValueExact()));
+            accounts++;
+            totals.accounts++;
+            totals.balances += account.balance();
+            if (account.balance() < 0) {
+                totals.negative++;
+                flag(account, Flag.NEGATIVE);
+            } else if (account.balance() > totals.largeThreshold) {
+                flag(account, Flag.LARGE);
+            }
+        }
+
+        private void flag(Balance account, Flag flag) {
+            flagged++;
+            if (listed.size() < maxListedAccounts) listed.add(new Flagged(account, flag));
+        }
+
+        void merge(Tally other) {
+            accounts += other.accounts;
+            flagged += other.flagged;
+            for (var flagged : other.listed) {
+                if (listed.size() == maxListedAccounts) break;
+                listed.add(flagged);
+            }
+            other.currencies.forEach((currency, totals) -> currencies.merge(currency, totals, (mine, theirs) -> {
+                mine.accounts += theirs.accounts;
+                mine.balances += theirs.balances;
+                mine.negative += theirs.negative;
+                return mine;
+            }));
+        }
+    }
+
+    private final class Withdrawals {
+        final Map<Currency, Long> amounts = new HashMap<>();
+        long pending;
+        long mismatches;
+        long unchecked;
+
+        void check(List<PendingWithdrawal> batch, Report report) throws IOException {
+            var ids = new ArrayList<WithdrawalId>(batch.size());
+            for (var withdrawal : batch) {
+                ids.add(new WithdrawalId(withdrawal.withdrawalId()));
+                amounts.merge(withdrawal.currency(), withdrawal.amount(), Long::sum);
+            }
+            pending += batch.size();
+
+            Map<WithdrawalId, WithdrawalState> states;
+            try {
+                states = withdrawalService.getRequestStates(ids);
+            } catch (RuntimeException e) {
+                // Still counted in the totals, only their state is left unchecked
+                log.warn("Provider lookup of {} pending withdrawals failed during reconciliation", ids.size(), e);
+                unchecked += batch.size();
+                return;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                var state = states.get(ids.get(i));
+                if (state == WithdrawalState.PROCESSING) continue;
+                mismatches++;
+                report.withdrawalMismatch(batch.get(i), state);
+            }
+        }
+    }
+}
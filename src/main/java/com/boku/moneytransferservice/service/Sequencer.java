@@ -0,0 +1,237 @@
+package com.boku.moneytransferservice.service;
+
+import com.boku.moneytransferservice.exception.ValidationException;
+import com.boku.moneytransferservice.model.BatchMode;
+import com.boku.moneytransferservice.model.TransferLeg;
+import com.boku.moneytransferservice.model.TransferLegResult;
+import com.boku.moneytransferservice.service.WithdrawalService.WithdrawalId;
+
+import java.util.Currency;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-writer engine: request threads publish commands into a preallocated ring and one engine thread applies
+ * them to the accounts in sequence order, in the style of the LMAX Disruptor. Every balance change and journal
+ * append then happens on one thread, so they are never contended and the journal sees records in the order they
+ * were applied. Request threads still wait for their own command, and then for the journal outside the engine, so
+ * the engine never blocks on a disk sync.
+ * <p>
+ * A ring slot moves through four states told apart by its sequence field, for the command at sequence s in a ring
+ * of size n: s (free for s), s + 1 (published), s + 2 (applied) and s + n (released by its caller, free for the
+ * next lap). The caller copies the outcome out before releasing the slot, so slots are reused without allocating.
+ * Waiting threads spin briefly and then park, the engine unparks callers as it applies their commands and producers
+ * unpark the engine when they find it parked.
+ */
+final class Sequencer {
+    // Spinning only helps when the thread being waited for is running on another core
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 200 : 0;
+
+    enum Type {TRANSFER, BATCH, WITHDRAWAL, CREATE_ACCOUNT}
+
+    /**
+     * What the engine applies commands with. Each method returns the journal position of what it wrote
+     */
+    interface Handler {
+        long transfer(UUID senderAccountId, UUID receiverAccountId, long amount) throws ValidationException;
+
+        long transferBatch(List<TransferLeg> legs, BatchMode mode, List<TransferLegResult> results);
+
+        long withdraw(WithdrawalId withdrawalId, UUID senderAccountId, String address, long amount)
+                throws ValidationException;
+
+        long createAccount(UUID accountId, String name, Currency currency, long balance);
+    }
+
+    private static final class Slot {
+        volatile long sequence;
+        Type type;
+        UUID accountId;
+        UUID otherId;
+        long amount;
+        String text;
+        Currency currency;
+        List<TransferLeg> legs;
+        BatchMode mode;
+        List<TransferLegResult> results;
+        Thread caller;
+        long position;
+        Throwable error;
+    }
+
+    private final Handler handler;
+    private final Slot[] ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final Thread engine;
+    private volatile boolean engineParked;
+
+    /**
+     * @param size ring size, a power of two of at least 4, as a smaller ring would make a released slot's sequence
+     *             the same as a published (size 1) or applied (size 2) one. Callers wait for a free slot once this
+     *             many commands are in flight
+     */
+    Sequencer(Handler handler, int size) {
+        if (size < 4 || Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("Sequencer ring size must be a power of two of at least 4: " + size);
+        this.handler = handler;
+        this.ring = new Slot[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Slot();
+            ring[i].sequence = i;
+        }
+        engine = new Thread(this::run, "sequencer");
+        engine.setDaemon(true);
+        engine.start();
+    }
+
+    long transfer(UUID senderAccountId, UUID receiverAccountId, long amount) throws ValidationException {
+        var sequence = claim();
+        var slot = ring[(int) sequence & mask];
+        slot.type = Type.TRANSFER;
+        slot.accountId = senderAccountId;
+        slot.otherId = receiverAccountId;
+        slot.amount = amount;
+        return complete(publish(sequence, slot), slot);
+    }
+
+    long transferBatch(List<TransferLeg> legs, BatchMode mode, List<TransferLegResult> results) {
+        var sequence = claim();
+        var slot = ring[(int) sequence & mask];
+        slot.type = Type.BATCH;
+        slot.legs = legs;
+        slot.mode = mode;
+        slot.results = results;
+        return completeUnchecked(publish(sequence, slot), slot);
+    }
+
+    long withdraw(WithdrawalId withdrawalId, UUID senderAccountId, String address, long amount)
+            throws ValidationException {
+        var sequence = claim();
+        var slot = ring[(int) sequence & mask];
+        slot.type = Type.WITHDRAWAL;
+        slot.otherId = withdrawalId.value();
+        slot.accountId = senderAccountId;
+        slot.text = address;
+        slot.amount = amount;
+        return complete(publish(sequence, slot), slot);
+    }
+
+    long createAccount(UUID accountId, String name, Currency currency, long balance) {
+        var sequence = claim();
+        var slot = ring[(int) sequence & mask];
+        slot.type = Type.CREATE_ACCOUNT;
+        slot.accountId = accountId;
+        slot.text = name;
+        slot.currency = currency;
+        slot.amount = balance;
+        return completeUnchecked(publish(sequence, slot), slot);
+    }
+
+    /**
+     * Take the next sequence and wait for its slot to be released by the command a lap before
+     */
+    private long claim() {
+        var sequence = claimed.getAndIncrement();
+        var slot = ring[(int) sequence & mask];
+        for (int spins = 0; slot.sequence != sequence; spins++) {
+            if (spins < SPINS) Thread.onSpinWait();
+            else Thread.yield();
+        }
+        return sequence;
+    }
+
+    private long publish(long sequence, Slot slot) {
+        slot.caller = Thread.currentThread();
+        slot.sequence = sequence + 1;
+        if (engineParked) LockSupport.unpark(engine);
+        return sequence;
+    }
+
+    private long complete(long sequence, Slot slot) throws ValidationException {
+        awaitApplied(sequence, slot);
+        var error = slot.error;
+        var position = slot.position;
+        release(sequence, slot);
+        if (error instanceof ValidationException validation) throw validation;
+        rethrowUnchecked(error);
+        return position;
+    }
+
+    private long completeUnchecked(long sequence, Slot slot) {
+        awaitApplied(sequence, slot);
+        var error = slot.error;
+        var position = slot.position;
+        release(sequence, slot);
+        rethrowUnchecked(error);
+        return position;
+    }
+
+    private void awaitApplied(long sequence, Slot slot) {
+        for (int spins = 0; slot.sequence != sequence + 2; spins++) {
+            if (spins < SPINS) Thread.onSpinWait();
+            else LockSupport.park(this);
+        }
+    }
+
+    private void release(long sequence, Slot slot) {
+        slot.accountId = null;
+        slot.otherId = null;
+        slot.text = null;
+        slot.currency = null;
+        slot.legs = null;
+        slot.mode = null;
+        slot.results = null;
+        slot.caller = null;
+        slot.error = null;
+        slot.sequence = sequence + ring.length;
+    }
+
+    private static void rethrowUnchecked(Throwable error) {
+        if (error == null) return;
+        if (error instanceof RuntimeException runtime) throw runtime;
+        if (error instanceof Error fatal) throw fatal;
+        throw new IllegalStateException(error);
+    }
+
+    private void run() {
+        for (long next = 0; ; next++) {
+            var slot = ring[(int) next & mask];
+            awaitPublished(next, slot);
+            try {
+                slot.position = apply(slot);
+            } catch (Throwable e) {
+                // Reported to the caller, the engine goes on with the next command
+                slot.error = e;
+            }
+            var caller = slot.caller;
+            slot.sequence = next + 2;
+            LockSupport.unpark(caller);
+        }
+    }
+
+    private void awaitPublished(long sequence, Slot slot) {
+        for (int spins = 0; slot.sequence != sequence + 1; spins++) {
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                engineParked = true;
+                // Checked again after raising the flag, a producer publishing in between sees it and unparks us
+                if (slot.sequence != sequence + 1) LockSupport.park(this);
+                engineParked = false;
+            }
+        }
+    }
+
+    private long apply(Slot slot) throws ValidationException {
+        return switch (slot.type) {
+            case TRANSFER -> handler.transfer(slot.accountId, slot.otherId, slot.amount);
+            case BATCH -> handler.transferBatch(slot.legs, slot.mode, slot.results);
+            case WITHDRAWAL -> handler.withdraw(new WithdrawalId(slot.otherId), slot.accountId, slot.text, slot.amount);
+            case CREATE_ACCOUNT -> handler.createAccount(slot.accountId, slot.text, slot.currency, slot.amount);
+        };
+    }
+}
@@ -1,106 +1,687 @@
 package com.boku.moneytransferservice.service;
 
+import com.boku.moneytransferservice.cache.ExpiringCache;
+import com.boku.moneytransferservice.config.AppConfig;
 import com.boku.moneytransferservice.exception.ValidationException;
+import com.boku.moneytransferservice.journal.Journal;
+import com.boku.moneytransferservice.journal.JournalReplayHandler;
+import com.boku.moneytransferservice.journal.NoOpJournal;
+import com.boku.moneytransferservice.metrics.LatencyHistogram;
+import com.boku.moneytransferservice.metrics.MetricsRegistry;
 import com.boku.moneytransferservice.model.Withdrawal;
 import com.boku.moneytransferservice.service.WithdrawalService.WithdrawalId;
 import com.boku.moneytransferservice.service.WithdrawalService.WithdrawalState;
 import com.boku.moneytransferservice.model.Account;
+import com.boku.moneytransferservice.model.AccountLedger;
+import com.boku.moneytransferservice.model.AccountStore;
+import com.boku.moneytransferservice.model.BalanceSnapshot;
+import com.boku.moneytransferservice.model.BatchMode;
+import com.boku.moneytransferservice.model.CompactAccountStore;
+import com.boku.moneytransferservice.model.LedgerEntry;
+import com.boku.moneytransferservice.model.MapAccountStore;
+import com.boku.moneytransferservice.model.Money;
+import com.boku.moneytransferservice.model.TransactionPage;
+import com.boku.moneytransferservice.model.TransferLeg;
+import com.boku.moneytransferservice.model.TransferLegResult;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 
 public class TransferService {
-    private final ConcurrentMap<UUID, Account> accounts = new ConcurrentHashMap<>();
+    private static final Logger log = LoggerFactory.getLogger(TransferService.class);
+
+    private final AccountStore accounts;
     private final ConcurrentMap<WithdrawalId, Withdrawal> withdrawals = new ConcurrentHashMap<>();
     ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
     private final WithdrawalService withdrawalService;
+    private final Journal journal;
+    private final PendingWithdrawalScheduler pendingChecks;
+    private final WithdrawalSender withdrawalSender;
+    private final int pollBatchSize;
+    private final long pollIntervalMillis;
+    private final boolean pushCompletions;
+    private final long pushFallbackDelayMillis;
+    private final ExpiringCache<WithdrawalId, WithdrawalState> statusCache;
+    private final long terminalStatusTtlNanos;
+    private final long processingStatusTtlNanos;
+    private final ExchangeRates exchangeRates;
+    final BalanceEvents balanceEvents;
+    // Null unless engine.mode=sequencer
+    private final Sequencer sequencer;
+    private final long exchangeRatesReloadSeconds;
+    private final LongAdder transfers = new LongAdder();
+    private final LongAdder convertedTransfers = new LongAdder();
+    private final LongAdder insufficientBalanceTransfers = new LongAdder();
+    private final LongAdder insufficientBalanceWithdrawals = new LongAdder();
+    private final LongAdder withdrawalsRequested = new LongAdder();
+    private final LongAdder withdrawalsCompleted = new LongAdder();
+    private final LongAdder withdrawalsFailed = new LongAdder();
+    private final LongAdder statusQueries = new LongAdder();
+    private final LongAdder providerStatusCalls = new LongAdder();
+    private final LatencyHistogram pollPassDuration = new LatencyHistogram();
 
     public TransferService(WithdrawalService withdrawalService) {
+        this(withdrawalService, AppConfig.defaults());
+    }
+
+    public TransferService(WithdrawalService withdrawalService, AppConfig config) {
+        this(withdrawalService, config, NoOpJournal.INSTANCE);
+    }
+
+    public TransferService(WithdrawalService withdrawalService, AppConfig config, Journal journal) {
         this.withdrawalService = withdrawalService;
+        this.journal = journal;
+        this.pollBatchSize = config.getInt("withdrawal.poll.batchSize", 500);
+        this.pollIntervalMillis = config.getLong("withdrawal.poll.intervalMillis", 250);
+        this.pendingChecks = new PendingWithdrawalScheduler(
+                config.getLong("withdrawal.poll.initialDelayMillis", 1000),
+                config.getLong("withdrawal.poll.maxBackoffMillis", 4000));
+        this.pushFallbackDelayMillis = config.getLong("withdrawal.poll.pushFallbackDelayMillis", 30000);
+        this.statusCache = new ExpiringCache<>(config.getInt("withdrawal.status.cache.maxEntries", 100_000));
+        this.terminalStatusTtlNanos = TimeUnit.SECONDS.toNanos(
+                config.getLong("withdrawal.status.cache.terminalTtlSeconds", 3600));
+        this.processingStatusTtlNanos = TimeUnit.MILLISECONDS.toNanos(
+                config.getLong("withdrawal.status.cache.processingTtlMillis", 1000));
+        this.withdrawalSender = new WithdrawalSender(withdrawalService,
+                config.getInt("withdrawal.sender.threads", 4),
+                config.getInt("withdrawal.sender.capacity", 10_000),
+                config.getLong("withdrawal.sender.initialBackoffMillis", 100),
+                config.getLong("withdrawal.sender.maxBackoffMillis", 10_000),
+                config.getInt("withdrawal.sender.maxAttempts", 10));
+        var maxLedgerEntries = config.getInt("account.transactions.maxEntries", AccountLedger.DEFAULT_MAX_ENTRIES);
+        this.accounts = "map".equals(config.getString("account.store", "compact"))
+                ? new MapAccountStore(maxLedgerEntries) : new CompactAccountStore(maxLedgerEntries);
+        var ratesFile = config.getString("fx.ratesFile", null);
+        this.exchangeRates = ratesFile == null ? new ExchangeRates() : new ExchangeRates(Path.of(ratesFile));
+        this.exchangeRatesReloadSeconds = ratesFile == null ? 0 : config.getLong("fx.reloadIntervalSeconds", 60);
+        this.balanceEvents = new BalanceEvents(accounts::get, config.getInt("events.maxSubscribers", 20_000),
+                TimeUnit.SECONDS.toMillis(config.getLong("events.heartbeatSeconds", 15)));
+        this.sequencer = "sequencer".equals(config.getString("engine.mode", "concurrent"))
+                ? new Sequencer(new Commands(), config.getInt("engine.ringSize", 1024)) : null;
+        this.pushCompletions = withdrawalService.addCompletionListener(this::onWithdrawalCompletion);
+        recover();
         init();
     }
 
+    /**
+     * @return the new account, or null when the id is already taken
+     */
+    private Account addAccount(UUID id, String name, Currency currency, long balance) {
+        return accounts.add(id, name, currency, balance);
+    }
+
+    /**
+     * Rebuild accounts and pending withdrawals from the journal, then hand the pending ones back to the
+     * provider (requests are idempotent by id) and the poller
+     */
+    private void recover() {
+        journal.replay(new Recovery());
+        withdrawals.values().forEach(withdrawal -> {
+            withdrawalSender.resend(withdrawal.getWithdrawalId(),
+                    new WithdrawalService.Address(withdrawal.getAddress()),
+                    Money.fromMinorUnits(withdrawal.getAmount(), withdrawal.getSenderAccount().getCurrency()));
+            schedulePendingCheck(withdrawal.getWithdrawalId());
+        });
+        if (accounts.size() > 0) log.info("Recovered {} accounts and {} pending withdrawals", accounts.size(), withdrawals.size());
+    }
+
     private void init() {
-        // Schedule the task to run every second - Check withdrawal statuses and update accounts
-        executor.scheduleAtFixedRate(this::checkWithdrawalStatus, 0, 1, TimeUnit.SECONDS);
+        // Tick frequently - a pass only touches withdrawals whose next check is due, so idle ticks are cheap
+        executor.scheduleAtFixedRate(this::checkWithdrawalStatus, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+        if (exchangeRatesReloadSeconds > 0)
+            executor.scheduleWithFixedDelay(this::reloadExchangeRates, exchangeRatesReloadSeconds, exchangeRatesReloadSeconds, TimeUnit.SECONDS);
+    }
+
+    private void reloadExchangeRates() {
+        try {
+            exchangeRates.reloadIfChanged();
+        } catch (RuntimeException e) {
+            // Keep converting with the rates already loaded, a throwing task would never be scheduled again
+            log.error("Failed to reload exchange rates, keeping the current ones", e);
+        }
+    }
+
+    void checkWithdrawalStatus() {
+        var start = System.nanoTime();
+        List<PendingWithdrawalScheduler.Check> due;
+        do {
+            due = pendingChecks.pollDue(pollBatchSize);
+            if (!due.isEmpty()) checkWithdrawalStatus(due);
+        } while (due.size() == pollBatchSize);
+        pollPassDuration.recordSince(start);
     }
 
-    private void checkWithdrawalStatus() {
-        withdrawals.forEach(this::checkWithdrawalStatus);
+    private void checkWithdrawalStatus(List<PendingWithdrawalScheduler.Check> due) {
+        Map<WithdrawalId, WithdrawalState> states;
+        try {
+            var ids = new ArrayList<WithdrawalId>(due.size());
+            for (var check : due)
+                if (!withdrawalSender.isUnsent(check.withdrawalId())) ids.add(check.withdrawalId());
+            states = ids.isEmpty() ? Map.of() : withdrawalService.getRequestStates(ids);
+        } catch (RuntimeException e) {
+            // A failing batch must not cancel the scheduled poller, back off and retry the ids later
+            log.warn("Withdrawal status poll failed for {} withdrawals", due.size(), e);
+            states = Map.of();
+        }
+
+        for (var check : due) {
+            var withdrawal = withdrawals.get(check.withdrawalId());
+            // Already finalised through a status query
+            if (withdrawal == null) continue;
+
+            var status = states.get(check.withdrawalId());
+            if (status == WithdrawalState.COMPLETED || status == WithdrawalState.FAILED) {
+                applyWithdrawalState(check.withdrawalId(), withdrawal, status);
+            } else {
+                pendingChecks.backOff(check);
+            }
+        }
     }
 
-    private synchronized WithdrawalState checkWithdrawalStatus(WithdrawalId withdrawalId, Withdrawal withdrawal) {
-        var status = withdrawalService.getRequestState(withdrawalId);
-        if (withdrawal == null) return status;
+    private void onWithdrawalCompletion(WithdrawalId withdrawalId, WithdrawalState status) {
+        var withdrawal = withdrawals.get(withdrawalId);
+        if (withdrawal != null && status != WithdrawalState.PROCESSING)
+            applyWithdrawalState(withdrawalId, withdrawal, status);
+    }
 
+    private void applyWithdrawalState(WithdrawalId withdrawalId, Withdrawal withdrawal, WithdrawalState status) {
         /*
           Once withdrawal request sent in, deduct amount from the balance
           Then if operation is FAILED, it will be added back
           Or else COMPLETED, Nothing to do as we initially deducted the amount
+          Poller and status queries can race here, so only the caller that removes the entry applies the refund
          */
+        if (status != WithdrawalState.PROCESSING) statusCache.put(withdrawalId, status, terminalStatusTtlNanos);
         if (status == WithdrawalService.WithdrawalState.FAILED) {
-            var finalBalance = withdrawal.getSenderAccount().getBalance().add(withdrawal.getAmount());
-            withdrawal.getSenderAccount().setBalance(finalBalance);
-            withdrawals.remove(withdrawalId);
+            if (withdrawals.remove(withdrawalId, withdrawal)) {
+                journal.inOrder(() -> {
+                    withdrawal.getSenderAccount().deposit(withdrawal.getAmount());
+                    return journal.withdrawalRefunded(withdrawalId.value());
+                });
+                withdrawal.getSenderAccount().getLedger()
+                        .append(LedgerEntry.Type.WITHDRAWAL_REFUND, withdrawal.getAmount(), withdrawalId.value());
+                balanceEvents.changed(withdrawal.getSenderAccount().getId());
+                withdrawalsFailed.increment();
+            }
         } else if (status == WithdrawalService.WithdrawalState.COMPLETED) {
-            withdrawals.remove(withdrawalId);
+            if (withdrawals.remove(withdrawalId, withdrawal)) {
+                journal.withdrawalCompleted(withdrawalId.value());
+                withdrawalsCompleted.increment();
+            }
         }
-        return status;
     }
 
-    public synchronized void transferMoney(UUID senderAccountId, UUID receiverAccountId, BigDecimal amount) throws ValidationException {
+    public void transferMoney(UUID senderAccountId, UUID receiverAccountId, long amount) throws ValidationException {
+        journal.awaitDurable(sequencer == null ? applyTransfer(senderAccountId, receiverAccountId, amount)
+                : sequencer.transfer(senderAccountId, receiverAccountId, amount));
+    }
+
+    /**
+     * Apply the legs of a batch and wait once for the journal to cover all of them. Per-leg outcomes are
+     * returned in request order
+     */
+    public List<TransferLegResult> transferBatch(List<TransferLeg> legs, BatchMode mode) {
+        var results = new ArrayList<TransferLegResult>(legs.size());
+        journal.awaitDurable(sequencer == null ? applyBatch(legs, mode, results)
+                : sequencer.transferBatch(legs, mode, results));
+        return results;
+    }
+
+    /**
+     * @param results filled with one outcome per leg
+     * @return journal position of the last leg written
+     */
+    private long applyBatch(List<TransferLeg> legs, BatchMode mode, List<TransferLegResult> results) {
+        return mode == BatchMode.ALL_OR_NOTHING ? transferAllOrNothing(legs, results) : transferBestEffort(legs, results);
+    }
+
+    /**
+     * Validate and apply one transfer, returning its journal position. Here and in the other apply methods balances
+     * change inside {@link Journal#inOrder}, so a transfer out of money just credited is never journaled, and so
+     * never made durable, ahead of the credit
+     *
+     * @param amount in minor units of the sender's currency, the receiver is credited its value in their own
+     */
+    private long applyTransfer(UUID senderAccountId, UUID receiverAccountId, long amount) throws ValidationException {
 
-        if (amount.compareTo(BigDecimal.ZERO) <= 0)
+        if (amount <= 0)
             throw new ValidationException("Value must be greater than zero");
 
         var senderAccount = getAccountById(senderAccountId);
         var receiverAccount = getAccountById(receiverAccountId);
+        var credited = creditedAmount(senderAccount, receiverAccount, amount);
 
         // Accounts validations can be added here
-        if (senderAccount.getBalance().compareTo(amount) < 0)
-            throw new IllegalArgumentException("Insufficient balance for transfer");
+        var position = journal.inOrder(() -> {
+            if (!senderAccount.tryWithdraw(amount)) {
+                insufficientBalanceTransfers.increment();
+                throw new IllegalArgumentException("Insufficient balance for transfer");
+            }
+            receiverAccount.deposit(credited);
+            return journal.transferred(senderAccountId, receiverAccountId, amount, credited);
+        });
 
-        senderAccount.withdraw(amount);
-        receiverAccount.deposit(amount);
+        recordTransfer(senderAccount, receiverAccount, amount, credited);
+        balanceEvents.changed(senderAccountId);
+        balanceEvents.changed(receiverAccountId);
+        transfers.increment();
+        return position;
     }
 
-    public synchronized UUID withdrawMoney(UUID senderAccountId, String address, BigDecimal amount) throws ValidationException {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0)
-            throw new ValidationException("Value must be greater than zero");
+    private long creditedAmount(Account sender, Account receiver, long amount) throws ValidationException {
+        if (sender.getCurrency() == receiver.getCurrency()) return amount;
+        return exchangeRates.convert(sender.getCurrency(), receiver.getCurrency(), amount);
+    }
 
-        var senderAccount = getAccountById(senderAccountId);
+    private long transferBestEffort(List<TransferLeg> legs, List<TransferLegResult> results) {
+        long position = 0;
+        for (var leg : legs) {
+            try {
+                position = applyTransfer(leg.senderAccountId(), leg.receiverAccountId(), leg.amount());
+                results.add(TransferLegResult.success());
+            } catch (ValidationException | IllegalArgumentException e) {
+                results.add(TransferLegResult.failed(e.getMessage()));
+            }
+        }
+        return position;
+    }
 
-        // Account validations can be added here
-        if (senderAccount.getBalance().compareTo(amount) < 0)
-            throw new IllegalArgumentException("Insufficient balance for withdrawal");
+    /**
+     * Legs are netted per account first, so each account sees at most one debit or one credit. Net payers are
+     * debited in account id order and put back if any of them is short; credits only happen once every debit
+     * has gone through, so no balance is ever observed below its pre-batch value minus its net outflow
+     */
+    private long transferAllOrNothing(List<TransferLeg> legs, List<TransferLegResult> results) {
+        var accountsById = new HashMap<UUID, Account>();
+        var netByAccount = new TreeMap<UUID, Long>();
+        var credited = new long[legs.size()];
+        for (int i = 0; i < legs.size(); i++) {
+            var leg = legs.get(i);
+            if (leg.amount() <= 0)
+                return reject(legs, results, i, "Value must be greater than zero");
+            try {
+                var sender = accountsById.computeIfAbsent(leg.senderAccountId(), this::getAccountById);
+                var receiver = accountsById.computeIfAbsent(leg.receiverAccountId(), this::getAccountById);
+                // Nets are per account, so each one is in that account's own currency
+                credited[i] = creditedAmount(sender, receiver, leg.amount());
+                netByAccount.merge(leg.senderAccountId(), -leg.amount(), Math::addExact);
+                netByAccount.merge(leg.receiverAccountId(), credited[i], Math::addExact);
+            } catch (ValidationException | IllegalArgumentException | ArithmeticException e) {
+                return reject(legs, results, i,
+                        e instanceof ArithmeticException ? "Batch total out of range" : e.getMessage());
+            }
+        }
 
-        senderAccount.withdraw(amount);
+        var position = journal.inOrder(() -> {
+            var debited = new ArrayList<Map.Entry<UUID, Long>>();
+            for (var net : netByAccount.entrySet()) {
+                if (net.getValue() >= 0) continue;
+                if (!accountsById.get(net.getKey()).tryWithdraw(-net.getValue())) {
+                    debited.forEach(done -> accountsById.get(done.getKey()).deposit(-done.getValue()));
+                    insufficientBalanceTransfers.increment();
+                    return reject(legs, results, firstLegDebiting(legs, net.getKey()),
+                            "Insufficient balance for transfer");
+                }
+                debited.add(net);
+            }
+            netByAccount.forEach((accountId, net) -> {
+                if (net > 0) accountsById.get(accountId).deposit(net);
+            });
+            try {
+                return journal.batchTransferred(legs, credited);
+            } catch (RuntimeException e) {
+                // A batch too large for a journal segment, say. Nothing was journaled, so nothing may stay applied
+                netByAccount.forEach((accountId, net) -> accountsById.get(accountId).deposit(-net));
+                throw e;
+            }
+        });
+        // Short of balance, reject() has filled in the results
+        if (!results.isEmpty()) return position;
+
+        netByAccount.forEach((accountId, net) -> {
+            if (net != 0) balanceEvents.changed(accountId);
+        });
+        for (int i = 0; i < legs.size(); i++) {
+            var leg = legs.get(i);
+            recordTransfer(accountsById.get(leg.senderAccountId()), accountsById.get(leg.receiverAccountId()),
+                    leg.amount(), credited[i]);
+        }
+        transfers.add(legs.size());
+        results.addAll(Collections.nCopies(legs.size(), TransferLegResult.success()));
+        return position;
+    }
+
+    private void recordTransfer(Account sender, Account receiver, long amount, long credited) {
+        if (sender.getCurrency() != receiver.getCurrency()) convertedTransfers.increment();
+        sender.getLedger().append(LedgerEntry.Type.TRANSFER_OUT, amount, receiver.getId());
+        receiver.getLedger().append(LedgerEntry.Type.TRANSFER_IN, credited, sender.getId());
+    }
+
+    private static int firstLegDebiting(List<TransferLeg> legs, UUID accountId) {
+        for (int i = 0; i < legs.size(); i++)
+            if (legs.get(i).senderAccountId().equals(accountId)) return i;
+        return 0;
+    }
+
+    /**
+     * @return journal position 0, a rejected batch writes nothing
+     */
+    private static long reject(List<TransferLeg> legs, List<TransferLegResult> results, int failedLeg, String message) {
+        results.addAll(Collections.nCopies(legs.size(), TransferLegResult.failed("Batch rejected")));
+        results.set(failedLeg, TransferLegResult.failed(message));
+        return 0;
+    }
+
+    /**
+     * Debit the account and journal the withdrawal, then return its id while the request is sent to the provider
+     * in the background, see {@link WithdrawalSender}
+     */
+    public UUID withdrawMoney(UUID senderAccountId, String address, long amount) throws ValidationException {
+        if (amount <= 0)
+            throw new ValidationException("Value must be greater than zero");
 
         var withdrawalId = new WithdrawalId(UUID.randomUUID());
-        withdrawals.put(withdrawalId, new Withdrawal(withdrawalId, senderAccount, amount));
-        withdrawalService.requestWithdrawal(withdrawalId, new WithdrawalService.Address(address), amount);
+        withdrawalSender.reserve();
+        long position;
+        try {
+            position = sequencer == null ? applyWithdrawal(withdrawalId, senderAccountId, address, amount)
+                    : sequencer.withdraw(withdrawalId, senderAccountId, address, amount);
+        } catch (RuntimeException | ValidationException e) {
+            withdrawalSender.release();
+            throw e;
+        }
+        // Must be on disk before the provider hears about it, or a crash could lose a withdrawal it will execute.
+        // The account is already debited and the record written, so the withdrawal is sent even when waiting fails
+        // (an interrupt, or the journal closing): it is then synced by the flusher or on close, and holding it back
+        // would keep both the money and its sender slot forever
+        try {
+            journal.awaitDurable(position);
+        } finally {
+            schedulePendingCheck(withdrawalId);
+            withdrawalSender.send(withdrawalId, new WithdrawalService.Address(address),
+                    Money.fromMinorUnits(amount, getAccountById(senderAccountId).getCurrency()));
+        }
 
         return withdrawalId.value();
     }
 
-    public synchronized WithdrawalState getWithdrawalStatus(UUID id) {
+    /**
+     * Debit the account and record the withdrawal, returning its journal position
+     */
+    private long applyWithdrawal(WithdrawalId withdrawalId, UUID senderAccountId, String address, long amount) {
+        var senderAccount = getAccountById(senderAccountId);
+        // Account validations can be added here
+        var position = journal.inOrder(() -> {
+            if (!senderAccount.tryWithdraw(amount)) {
+                insufficientBalanceWithdrawals.increment();
+                throw new IllegalArgumentException("Insufficient balance for withdrawal");
+            }
+            withdrawals.put(withdrawalId, new Withdrawal(withdrawalId, senderAccount, amount, address));
+            return journal.withdrawalRequested(withdrawalId.value(), senderAccountId, amount, address);
+        });
+
+        withdrawalsRequested.increment();
+        senderAccount.getLedger().append(LedgerEntry.Type.WITHDRAWAL, amount, withdrawalId.value());
+        balanceEvents.changed(senderAccountId);
+        return position;
+    }
+
+    private void schedulePendingCheck(WithdrawalId withdrawalId) {
+        // When the provider pushes completions polling is only a safety net for lost notifications
+        if (pushCompletions) pendingChecks.schedule(withdrawalId, pushFallbackDelayMillis);
+        else pendingChecks.schedule(withdrawalId);
+    }
+
+    /**
+     * Provider answers are cached, final states for withdrawal.status.cache.terminalTtlSeconds and PROCESSING for
+     * withdrawal.status.cache.processingTtlMillis, so clients polling a withdrawal share one provider call per
+     * interval and settled withdrawals are answered without one. Final states the poller or a push notification
+     * applied are cached too
+     */
+    public WithdrawalState getWithdrawalStatus(UUID id) {
+        statusQueries.increment();
         var withdrawalId = new WithdrawalId(id);
         var withdrawal = withdrawals.get(withdrawalId);
-        return checkWithdrawalStatus(withdrawalId, withdrawal);
+        // Not sent yet, the provider would not know the id
+        if (withdrawal != null && withdrawalSender.isUnsent(withdrawalId)) return WithdrawalState.PROCESSING;
+        var status = cachedProviderStatus(withdrawalId);
+        if (withdrawal != null) applyWithdrawalState(withdrawalId, withdrawal, status);
+        return status;
     }
 
-    public synchronized Account createAccount(UUID id, String name, BigDecimal initialBalance) {
-        var account = new Account(id, name, initialBalance);
-        accounts.put(id, account);
-        return account;
+    private WithdrawalState cachedProviderStatus(WithdrawalId withdrawalId) {
+        try {
+            return statusCache.get(withdrawalId, () -> {
+                providerStatusCalls.increment();
+                return withdrawalService.getRequestState(withdrawalId);
+            }, status -> status == WithdrawalState.PROCESSING ? processingStatusTtlNanos : terminalStatusTtlNanos);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // The provider call declares no checked exceptions
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Account createAccount(UUID id, String name, long initialBalance) {
+        return createAccount(id, name, Money.DEFAULT_CURRENCY, initialBalance);
+    }
+
+    /**
+     * @param initialBalance in minor units of currency
+     * @throws IllegalArgumentException when the account exists or its name is over {@link Account#MAX_NAME_BYTES}
+     *                                  bytes of UTF-8, whichever account.store holds accounts
+     */
+    public Account createAccount(UUID id, String name, Currency currency, long initialBalance) {
+        if (name.getBytes(StandardCharsets.UTF_8).length > Account.MAX_NAME_BYTES)
+            throw new IllegalArgumentException("Account name is longer than " + Account.MAX_NAME_BYTES + " bytes");
+        journal.awaitDurable(sequencer == null ? applyCreateAccount(id, name, currency, initialBalance)
+                : sequencer.createAccount(id, name, currency, initialBalance));
+        return getAccountById(id);
+    }
+
+    private long applyCreateAccount(UUID id, String name, Currency currency, long initialBalance) {
+        // A transfer into the account can only follow its record
+        return journal.inOrder(() -> {
+            if (addAccount(id, name, currency, initialBalance) == null)
+                throw new IllegalArgumentException("Account already exists with given Id: " + id);
+            return journal.accountCreated(id, name, currency, initialBalance);
+        });
+    }
+
+    /**
+     * An amount in minor units of the account's currency, which is what transfers and withdrawals from it are
+     * given in. Unknown accounts are taken to be in the default currency, the operation itself then reports them
+     */
+    public long toMinorUnits(UUID accountId, BigDecimal amount) throws ValidationException {
+        var account = accounts.get(accountId);
+        return Money.toMinorUnits(amount, account == null ? Money.DEFAULT_CURRENCY : account.getCurrency());
+    }
+
+    /**
+     * Follow an account's balance, see {@link BalanceEvents}
+     *
+     * @param wakeUp called when a new balance is waiting in the subscription, must not block
+     */
+    public BalanceEvents.Subscription subscribeToBalance(UUID accountId, Runnable wakeUp) {
+        return balanceEvents.subscribe(getAccountById(accountId), wakeUp);
     }
 
-    public synchronized Account getAccountById(UUID accountId) {
+    public ExchangeRates getExchangeRates() {
+        return exchangeRates;
+    }
+
+    public WithdrawalSender.Metrics getWithdrawalSenderMetrics() {
+        return withdrawalSender.metrics();
+    }
+
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.counter("transfers_total", "Transfers applied, batch legs included", transfers::sum);
+        registry.counter("transfers_converted_total", "Transfers between accounts of different currencies",
+                convertedTransfers::sum);
+        registry.gauge("exchange_rates", "Currency pairs with a known exchange rate", exchangeRates::size);
+        registry.counter("insufficient_balance_total", "Requests rejected for insufficient balance",
+                insufficientBalanceTransfers::sum, "operation", "transfer");
+        registry.counter("insufficient_balance_total", "Requests rejected for insufficient balance",
+                insufficientBalanceWithdrawals::sum, "operation", "withdrawal");
+        registry.counter("withdrawals_requested_total", "Withdrawals debited and accepted", withdrawalsRequested::sum);
+        registry.counter("withdrawals_finalized_total", "Withdrawals settled by final provider state",
+                withdrawalsCompleted::sum, "state", WithdrawalState.COMPLETED.name());
+        registry.counter("withdrawals_finalized_total", "Withdrawals settled by final provider state",
+                withdrawalsFailed::sum, "state", WithdrawalState.FAILED.name());
+        registry.gauge("withdrawals_pending", "Withdrawals waiting for a final state", withdrawals::size);
+        registry.counter("withdrawal_status_queries_total", "Withdrawal status queries", statusQueries::sum);
+        registry.counter("withdrawal_status_provider_calls_total", "Provider calls made for withdrawal status queries",
+                providerStatusCalls::sum);
+        registry.gauge("withdrawal_status_cache_entries", "Cached withdrawal states", statusCache::size);
+        registry.gauge("balance_event_subscribers", "Open balance event streams", balanceEvents::subscribers);
+        registry.counter("balance_events_published_total", "Balance updates handed to subscribers",
+                balanceEvents::published);
+        registry.counter("balance_events_coalesced_total", "Balance updates replaced by a newer one before being sent",
+                balanceEvents::coalesced);
+        registry.gauge("withdrawal_checks_scheduled", "Pending withdrawal status checks", pendingChecks::size);
+        registry.summary("withdrawal_poll_pass_duration_seconds", "Duration of one status poller pass", pollPassDuration);
+        registry.gauge("withdrawal_sender_backlog", "Withdrawals waiting to be sent to the provider",
+                () -> withdrawalSender.metrics().backlog());
+        registry.gauge("withdrawal_sender_in_flight", "Withdrawal requests being sent to the provider",
+                () -> withdrawalSender.metrics().inFlight());
+        registry.counter("withdrawal_sender_sent_total", "Withdrawal requests accepted by the provider",
+                () -> withdrawalSender.metrics().sent());
+        registry.counter("withdrawal_sender_retries_total", "Withdrawal requests retried after a failure",
+                () -> withdrawalSender.metrics().retries());
+        registry.gauge("withdrawal_sender_parked", "Withdrawals past their send attempts, retried at the longest backoff",
+                () -> withdrawalSender.metrics().parked());
+    }
+
+    /**
+     * Newest first page of an account's history
+     *
+     * @param cursor sequence to continue below, as returned in {@link TransactionPage#nextCursor()}, or null for
+     *               the newest entries
+     */
+    public TransactionPage getTransactions(UUID accountId, Long cursor, int limit) {
+        return getAccountById(accountId).getLedger().page(cursor == null ? Long.MAX_VALUE : cursor, limit);
+    }
+
+    /**
+     * Let the reader scan the live accounts and pending withdrawals, for when there is no journal to take a
+     * consistent snapshot from. Transfers carry on during the scan, so the view is not one point in time
+     */
+    public void readLiveBalances(BalanceSnapshot.Reader reader) throws IOException {
+        reader.read(new LiveBalances());
+    }
+
+    public boolean accountExists(UUID accountId) {
+        return accounts.contains(accountId);
+    }
+
+    public Account getAccountById(UUID accountId) {
         var account = accounts.get(accountId);
         if (account == null) {
             throw new IllegalArgumentException("Account not found with given Id: " + accountId);
         }
         return account;
     }
+
+    /**
+     * What the sequencer's engine thread runs, the same steps request threads take in the concurrent mode
+     */
+    private class Commands implements Sequencer.Handler {
+        @Override
+        public long transfer(UUID senderAccountId, UUID receiverAccountId, long amount) throws ValidationException {
+            return applyTransfer(senderAccountId, receiverAccountId, amount);
+        }
+
+        @Override
+        public long transferBatch(List<TransferLeg> legs, BatchMode mode, List<TransferLegResult> results) {
+            return applyBatch(legs, mode, results);
+        }
+
+        @Override
+        public long withdraw(WithdrawalId withdrawalId, UUID senderAccountId, String address, long amount) {
+            return applyWithdrawal(withdrawalId, senderAccountId, address, amount);
+        }
+
+        @Override
+        public long createAccount(UUID accountId, String name, Currency currency, long balance) {
+            return applyCreateAccount(accountId, name, currency, balance);
+        }
+    }
+
+    private class LiveBalances implements BalanceSnapshot {
+        @Override
+        public boolean isConsistent() {
+            return false;
+        }
+
+        @Override
+        public Stream<Balance> accounts() {
+            return accounts.stream()
+                    .map(account -> new Balance(account.getId(), account.getCurrency(), account.getBalanceMinorUnits()));
+        }
+
+        @Override
+        public Stream<PendingWithdrawal> pendingWithdrawals() {
+            return withdrawals.values().stream().map(withdrawal -> new PendingWithdrawal(
+                    withdrawal.getWithdrawalId().value(), withdrawal.getSenderAccount().getId(),
+                    withdrawal.getSenderAccount().getCurrency(), withdrawal.getAmount()));
+        }
+    }
+
+    /**
+     * Applies journal records straight to the accounts and withdrawals, they were validated when first written
+     */
+    private class Recovery implements JournalReplayHandler {
+        @Override
+        public void accountCreated(UUID accountId, String name, Currency currency, long balance) {
+            addAccount(accountId, name, currency, balance);
+        }
+
+        @Override
+        public void transferred(UUID senderAccountId, UUID receiverAccountId, long amount, long creditedAmount) {
+            getAccountById(senderAccountId).deposit(-amount);
+            getAccountById(receiverAccountId).deposit(creditedAmount);
+        }
+
+        @Override
+        public void withdrawalRequested(UUID withdrawalId, UUID accountId, long amount, String address) {
+            var account = getAccountById(accountId);
+            account.deposit(-amount);
+            var id = new WithdrawalId(withdrawalId);
+            withdrawals.put(id, new Withdrawal(id, account, amount, address));
+        }
+
+        @Override
+        public void withdrawalCompleted(UUID withdrawalId) {
+            withdrawals.remove(new WithdrawalId(withdrawalId));
+        }
+
+        @Override
+        public void withdrawalRefunded(UUID withdrawalId) {
+            var withdrawal = withdrawals.remove(new WithdrawalId(withdrawalId));
+            if (withdrawal != null) withdrawal.getSenderAccount().deposit(withdrawal.getAmount());
+        }
+
+        @Override
+        public void withdrawalPending(UUID withdrawalId, UUID accountId, long amount, String address) {
+            var id = new WithdrawalId(withdrawalId);
+            withdrawals.put(id, new Withdrawal(id, getAccountById(accountId), amount, address));
+        }
+    }
 }
@@ -0,0 +1,176 @@
+package com.boku.moneytransferservice.service;
+
+import com.boku.moneytransferservice.exception.WithdrawalBacklogFullException;
+import com.boku.moneytransferservice.service.WithdrawalService.Address;
+import com.boku.moneytransferservice.service.WithdrawalService.WithdrawalId;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands journaled withdrawals to the provider off the request thread. Several sender threads keep requests in
+ * flight at once, and a failed request is retried with jittered exponential backoff, which is safe because the
+ * provider treats the {@link WithdrawalId} as an idempotency key. A withdrawal that has failed maxAttempts times is
+ * parked: it is debited and journaled, so it keeps being retried, every maxBackoffMillis, until the provider
+ * takes it.
+ * <p>
+ * New withdrawals reserve one of a fixed number of slots before the account is debited and give it back once the
+ * provider has the request, so a provider outage fills the backlog and then refuses withdrawals instead of
+ * growing without limit. Withdrawals re-sent after a restart are already debited and skip the reservation.
+ */
+public class WithdrawalSender {
+    private static final Logger log = LoggerFactory.getLogger(WithdrawalSender.class);
+
+    private final WithdrawalService withdrawalService;
+    private final DelayQueue<Submission> queue = new DelayQueue<>();
+    private final Set<WithdrawalId> unsent = ConcurrentHashMap.newKeySet();
+    private final Semaphore slots;
+    private final int capacity;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int maxAttempts;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final AtomicInteger parked = new AtomicInteger();
+
+    WithdrawalSender(WithdrawalService withdrawalService, int threads, int capacity,
+                     long initialBackoffMillis, long maxBackoffMillis, int maxAttempts) {
+        this.withdrawalService = withdrawalService;
+        this.slots = new Semaphore(capacity);
+        this.capacity = capacity;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.maxAttempts = maxAttempts;
+        for (int i = 0; i < threads; i++) {
+            var thread = new Thread(this::run, "withdrawal-sender-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Take a backlog slot for a withdrawal about to be debited, see {@link #send} and {@link #release}
+     */
+    void reserve() {
+        if (!slots.tryAcquire()) throw new WithdrawalBacklogFullException(capacity);
+    }
+
+    /**
+     * Give back a reserved slot for a withdrawal that was not debited after all
+     */
+    void release() {
+        slots.release();
+    }
+
+    /**
+     * Queue a debited and journaled withdrawal that holds a slot from {@link #reserve}
+     */
+    void send(WithdrawalId withdrawalId, Address address, BigDecimal amount) {
+        enqueue(new Submission(withdrawalId, address, amount, true, 0, System.nanoTime()));
+    }
+
+    /**
+     * Queue a withdrawal recovered from the journal, it may or may not have reached the provider before
+     */
+    void resend(WithdrawalId withdrawalId, Address address, BigDecimal amount) {
+        enqueue(new Submission(withdrawalId, address, amount, false, 0, System.nanoTime()));
+    }
+
+    private void enqueue(Submission submission) {
+        unsent.add(submission.withdrawalId());
+        queue.add(submission);
+    }
+
+    /**
+     * @return whether the provider may not know about this withdrawal yet
+     */
+    boolean isUnsent(WithdrawalId withdrawalId) {
+        return unsent.contains(withdrawalId);
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted())
+                submit(queue.take());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(Submission submission) {
+        inFlight.incrementAndGet();
+        try {
+            withdrawalService.requestWithdrawal(submission.withdrawalId(), submission.address(), submission.amount());
+            unsent.remove(submission.withdrawalId());
+            sent.increment();
+            if (submission.reserved()) slots.release();
+            if (submission.attempt() >= maxAttempts) {
+                parked.decrementAndGet();
+                log.info("Parked withdrawal {} sent after {} attempts", submission.withdrawalId().value(),
+                        submission.attempt() + 1);
+            }
+        } catch (RuntimeException e) {
+            var attempt = submission.attempt() + 1;
+            var delayMillis = backoffMillis(attempt);
+            if (attempt < maxAttempts) {
+                log.warn("Withdrawal {} request failed (attempt {}), retrying in {} ms: {}",
+                        submission.withdrawalId().value(), attempt, delayMillis, e.toString());
+            } else if (attempt == maxAttempts) {
+                // Keeps its backlog slot, so a long outage fills the backlog and refuses new withdrawals
+                parked.incrementAndGet();
+                log.error("Withdrawal {} failed {} attempts, parked and retried every {} ms until the provider takes it",
+                        submission.withdrawalId().value(), attempt, maxBackoffMillis, e);
+            }
+            retries.increment();
+            queue.add(new Submission(submission.withdrawalId(), submission.address(), submission.amount(),
+                    submission.reserved(), attempt, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis)));
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Exponential backoff with jitter over the upper half of the window, so senders retrying after the same outage
+     * spread out instead of hitting the provider together
+     */
+    private long backoffMillis(int attempt) {
+        var window = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 30));
+        return window / 2 + ThreadLocalRandom.current().nextLong(window / 2 + 1);
+    }
+
+    Metrics metrics() {
+        return new Metrics(queue.size(), inFlight.get(), sent.sum(), retries.sum(), parked.get());
+    }
+
+    /**
+     * @param backlog   withdrawals waiting for their first attempt or a retry
+     * @param sent      requests accepted by the provider since startup, their rate is the sender's throughput
+     * @param parked    withdrawals that failed maxAttempts times and are now retried every maxBackoffMillis
+     */
+    public record Metrics(int backlog, int inFlight, long sent, long retries, int parked) { }
+
+    private record Submission(WithdrawalId withdrawalId, Address address, BigDecimal amount,
+                              boolean reserved, int attempt, long dueAtNanos) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAtNanos, ((Submission) other).dueAtNanos);
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.boku.moneytransferservice.service;
 
 import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
 
 public interface WithdrawalService {
@@ -21,6 +24,39 @@ public interface WithdrawalService {
      */
     WithdrawalState getRequestState(WithdrawalId id);
 
+    /**
+     * Return current states of a batch of withdrawals. Providers with a bulk lookup should override this,
+     * the default falls back to one {@link #getRequestState} call per id
+     * @param ids - withdrawal ids
+     * @return current state by withdrawal id, ids unknown to the provider are left out
+     */
+    default Map<WithdrawalId, WithdrawalState> getRequestStates(Collection<WithdrawalId> ids) {
+        var states = new HashMap<WithdrawalId, WithdrawalState>();
+        for (var id : ids) {
+            try {
+                states.put(id, getRequestState(id));
+            } catch (IllegalArgumentException e) {
+                // Not known to the provider (yet), leave it out
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Register a listener to be notified as soon as a withdrawal reaches COMPLETED or FAILED.
+     * Providers that can only be polled keep the default, callers then have to poll {@link #getRequestState}
+     * @param listener - called once per withdrawal, possibly from a provider thread
+     * @return true if the provider will push completions to the listener
+     */
+    default boolean addCompletionListener(CompletionListener listener) {
+        return false;
+    }
+
+    @FunctionalInterface
+    interface CompletionListener {
+        void onCompletion(WithdrawalId id, WithdrawalState state);
+    }
+
     enum WithdrawalState {
         PROCESSING, COMPLETED, FAILED
     }
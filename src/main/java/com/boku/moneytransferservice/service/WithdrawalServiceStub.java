@@ -1,21 +1,58 @@
 package com.boku.moneytransferservice.service;
 
 import java.math.BigDecimal;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import static com.boku.moneytransferservice.service.WithdrawalService.WithdrawalState.*;
 
 public class WithdrawalServiceStub implements WithdrawalService {
     private final ConcurrentMap<WithdrawalId, Withdrawal> requests = new ConcurrentHashMap<>();
+    private final List<CompletionListener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "withdrawal-stub-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long requestLatencyMillis;
+
+    public WithdrawalServiceStub() {
+        this(0);
+    }
+
+    /**
+     * @param requestLatencyMillis how long each requestWithdrawal call blocks, like a remote provider call would
+     */
+    public WithdrawalServiceStub(long requestLatencyMillis) {
+        this.requestLatencyMillis = requestLatencyMillis;
+    }
 
     @Override
     public void requestWithdrawal(WithdrawalId id, Address address, BigDecimal amount) {
-        final var existing = requests.putIfAbsent(id, new Withdrawal(finalState(), finaliseAt(), address, amount));
+        simulateLatency();
+        final var withdrawal = new Withdrawal(finalState(), finaliseAt(), address, amount);
+        final var existing = requests.putIfAbsent(id, withdrawal);
         if (existing != null && !Objects.equals(existing.address, address) && !Objects.equals(existing.amount, amount))
             throw new IllegalStateException("Withdrawal request with id[%s] is already present".formatted(id));
+        if (existing == null && !listeners.isEmpty())
+            timer.schedule(() -> notifyListeners(id, withdrawal.state()),
+                    withdrawal.finaliseAt() - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void simulateLatency() {
+        if (requestLatencyMillis <= 0) return;
+        try {
+            Thread.sleep(requestLatencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     private WithdrawalState finalState() {
@@ -26,6 +63,10 @@ public class WithdrawalServiceStub implements WithdrawalService {
         return System.currentTimeMillis() + ThreadLocalRandom.current().nextLong(1000, 10000);
     }
 
+    private void notifyListeners(WithdrawalId id, WithdrawalState state) {
+        listeners.forEach(listener -> listener.onCompletion(id, state));
+    }
+
     @Override
     public WithdrawalState getRequestState(WithdrawalId id) {
         final var request = requests.get(id);
@@ -34,6 +75,12 @@ public class WithdrawalServiceStub implements WithdrawalService {
         return request.finalState();
     }
 
+    @Override
+    public boolean addCompletionListener(CompletionListener listener) {
+        listeners.add(listener);
+        return true;
+    }
+
     record Withdrawal(WithdrawalState state, long finaliseAt, Address address, BigDecimal amount) {
         public WithdrawalState finalState() {
             return finaliseAt <= System.currentTimeMillis() ? state : PROCESSING;
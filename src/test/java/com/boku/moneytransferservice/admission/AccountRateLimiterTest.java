@@ -0,0 +1,122 @@
+package com.boku.moneytransferservice.admission;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class AccountRateLimiterTest {
+    // 10 requests per second, one every 100ms
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AtomicLong clock = new AtomicLong(-5_000);
+
+    @Test
+    public void testBurstThenRate() {
+        var limiter = new AccountRateLimiter(10, 3, 16, clock::get);
+        var account = UUID.randomUUID();
+
+        for (int i = 0; i < 3; i++) assertEquals(0, limiter.acquire(account));
+        assertEquals(INTERVAL, limiter.acquire(account));
+        assertEquals(1, limiter.rejected());
+
+        clock.addAndGet(INTERVAL / 2);
+        assertEquals(INTERVAL / 2, limiter.acquire(account));
+        clock.addAndGet(INTERVAL / 2);
+        assertEquals(0, limiter.acquire(account));
+        assertEquals(INTERVAL, limiter.acquire(account));
+
+        // Idle for a whole burst refills the bucket, and no more than that
+        clock.addAndGet(10 * INTERVAL);
+        for (int i = 0; i < 3; i++) assertEquals(0, limiter.acquire(account));
+        assertEquals(INTERVAL, limiter.acquire(account));
+    }
+
+    @Test
+    public void testAccountsHaveTheirOwnBuckets() {
+        var limiter = new AccountRateLimiter(10, 1, 16, clock::get);
+        var first = UUID.randomUUID();
+        var second = UUID.randomUUID();
+
+        assertEquals(0, limiter.acquire(first));
+        assertEquals(INTERVAL, limiter.acquire(first));
+        assertEquals(0, limiter.acquire(second));
+    }
+
+    @Test
+    public void testFullTableTakesOverIdleBucketsAndOtherwiseLetsThrough() {
+        // Four slots, all of them in every account's probe range
+        var limiter = new AccountRateLimiter(10, 1, 4, clock::get);
+        var active = new UUID[4];
+        for (int i = 0; i < 4; i++) {
+            active[i] = UUID.randomUUID();
+            assertEquals(0, limiter.acquire(active[i]));
+        }
+
+        var newcomer = UUID.randomUUID();
+        assertEquals(0, limiter.acquire(newcomer));
+        assertEquals(0, limiter.acquire(newcomer));
+        assertEquals(2, limiter.untracked());
+
+        clock.addAndGet(INTERVAL);
+        assertEquals(0, limiter.acquire(newcomer));
+        assertEquals(INTERVAL, limiter.acquire(newcomer));
+        assertEquals(2, limiter.untracked());
+    }
+
+    @Test
+    public void testConcurrentRequestsTakeExactlyTheBurst() throws InterruptedException {
+        var limiter = new AccountRateLimiter(10, 100, 1024, clock::get);
+        var account = UUID.randomUUID();
+        var admitted = new AtomicInteger();
+        var executor = Executors.newFixedThreadPool(8);
+        var done = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 1000; i++) if (limiter.acquire(account) == 0) admitted.incrementAndGet();
+                done.countDown();
+            });
+        }
+        done.await();
+        executor.shutdown();
+
+        assertEquals(100, admitted.get());
+        assertEquals(8 * 1000 - 100, limiter.rejected());
+    }
+
+    @Test
+    public void testConcurrentFirstRequestsShareOneBucket() throws Exception {
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 200; round++) {
+                var limiter = new AccountRateLimiter(10, 8, 1024, clock::get);
+                var account = UUID.randomUUID();
+                var start = new CyclicBarrier(4);
+                var firsts = new ArrayList<Future<Long>>();
+                for (int t = 0; t < 4; t++) {
+                    firsts.add(executor.submit(() -> {
+                        start.await();
+                        return limiter.acquire(account);
+                    }));
+                }
+                for (var first : firsts) assertEquals(Long.valueOf(0), first.get(5, TimeUnit.SECONDS));
+
+                // Whichever bucket the first requests landed in, the rest of the burst is all that is left
+                var admitted = 0;
+                while (limiter.acquire(account) == 0) admitted++;
+                assertEquals(4, admitted);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
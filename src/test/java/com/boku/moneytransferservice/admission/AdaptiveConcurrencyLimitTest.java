@@ -0,0 +1,85 @@
+package com.boku.moneytransferservice.admission;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimitTest {
+    private static final long TARGET = 100;
+
+    private final AtomicLong clock = new AtomicLong(1_000);
+
+    @Test
+    public void testRefusesOverTheLimit() {
+        var limit = new AdaptiveConcurrencyLimit(2, 1, 10, TARGET, 0.5, clock::get);
+
+        assertTrue(limit.tryAcquire());
+        assertTrue(limit.tryAcquire());
+        assertFalse(limit.tryAcquire());
+        assertEquals(1, limit.rejected());
+
+        limit.release(1);
+        assertEquals(1, limit.inFlight());
+        assertTrue(limit.tryAcquire());
+    }
+
+    @Test
+    public void testFastRequestsGrowAUsedLimit() {
+        var limit = new AdaptiveConcurrencyLimit(4, 1, 5, TARGET, 0.5, clock::get);
+
+        // One request of four running says nothing about capacity
+        limit.tryAcquire();
+        limit.release(1);
+        assertEquals(4, limit.limit());
+
+        // A full limit grows by 1/limit per request, so by one after about a limit's worth
+        for (int i = 0; i < 4; i++) limit.tryAcquire();
+        for (int i = 0; i < 4; i++) limit.release(1);
+        assertEquals(4, limit.limit());
+        for (int i = 0; i < 3; i++) limit.tryAcquire();
+        for (int i = 0; i < 3; i++) limit.release(1);
+        assertEquals(5, limit.limit());
+
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < 5; j++) limit.tryAcquire();
+            for (int j = 0; j < 5; j++) limit.release(1);
+        }
+        assertEquals(5, limit.limit());
+    }
+
+    @Test
+    public void testSlowRequestsCutTheLimitOncePerTargetPeriod() {
+        var limit = new AdaptiveConcurrencyLimit(40, 4, 100, TARGET, 0.5, clock::get);
+        for (int i = 0; i < 40; i++) limit.tryAcquire();
+
+        for (int i = 0; i < 10; i++) limit.release(TARGET + 1);
+        assertEquals(20, limit.limit());
+
+        clock.addAndGet(TARGET);
+        limit.release(TARGET + 1);
+        assertEquals(10, limit.limit());
+
+        for (int i = 0; i < 5; i++) {
+            clock.addAndGet(TARGET);
+            limit.release(TARGET + 1);
+        }
+        assertEquals(4, limit.limit());
+    }
+
+    @Test
+    public void testSlowRequestsWithFewRunningLeaveTheLimit() {
+        var limit = new AdaptiveConcurrencyLimit(40, 4, 100, TARGET, 0.5, clock::get);
+        for (int i = 0; i < 5; i++) limit.tryAcquire();
+
+        // A service slow with 5 of 40 requests running would not get faster with fewer
+        for (int i = 0; i < 5; i++) {
+            clock.addAndGet(TARGET);
+            limit.release(TARGET + 1);
+        }
+        assertEquals(40, limit.limit());
+    }
+}
@@ -0,0 +1,139 @@
+package com.boku.moneytransferservice.cache;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ExpiringCacheTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    public void testValueIsCachedUntilTtl() throws Exception {
+        var cache = new ExpiringCache<String, Integer>(10, clock::get);
+        var loads = new AtomicInteger();
+
+        assertEquals(Integer.valueOf(1), cache.get("key", loads::incrementAndGet, value -> 100));
+        clock.addAndGet(99);
+        assertEquals(Integer.valueOf(1), cache.get("key", loads::incrementAndGet, value -> 100));
+        clock.addAndGet(1);
+        assertEquals(Integer.valueOf(2), cache.get("key", loads::incrementAndGet, value -> 100));
+    }
+
+    @Test
+    public void testOldestEntryIsEvictedWhenFull() throws Exception {
+        var cache = new ExpiringCache<Integer, Integer>(2, clock::get);
+        var loads = new AtomicInteger();
+
+        cache.get(1, loads::incrementAndGet, value -> 100);
+        cache.get(2, loads::incrementAndGet, value -> 100);
+        cache.get(3, loads::incrementAndGet, value -> 100);
+
+        assertEquals(2, cache.size());
+        assertEquals(Integer.valueOf(4), cache.get(1, loads::incrementAndGet, value -> 100));
+    }
+
+    @Test
+    public void testOldestEntriesAreEvictedOverMaxWeight() throws Exception {
+        var cache = new ExpiringCache<Integer, String>(10, 10, String::length, clock::get);
+
+        cache.get(1, () -> "aaaa", value -> 100);
+        cache.get(2, () -> "bbbb", value -> 100);
+        assertEquals(8, cache.weight());
+        cache.get(3, () -> "cccc", value -> 100);
+        assertEquals(2, cache.size());
+        assertEquals(8, cache.weight());
+        assertEquals("new", cache.get(1, () -> "new", value -> 100));
+
+        // Replaced and expired entries no longer count
+        cache.put(3, "c", 100);
+        clock.addAndGet(100);
+        assertEquals("bb", cache.get(1, () -> "bb", value -> 100));
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.weight());
+    }
+
+    @Test
+    public void testPutReplacesCachedValue() throws Exception {
+        var cache = new ExpiringCache<String, Integer>(10, clock::get);
+        var loads = new AtomicInteger();
+
+        cache.get("key", loads::incrementAndGet, value -> 100);
+        cache.put("key", 5, 1_000);
+        clock.addAndGet(500);
+        assertEquals(Integer.valueOf(5), cache.get("key", loads::incrementAndGet, value -> 100));
+        clock.addAndGet(500);
+        assertEquals(Integer.valueOf(2), cache.get("key", loads::incrementAndGet, value -> 100));
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception {
+        var cache = new ExpiringCache<String, Integer>(10, clock::get);
+        try {
+            cache.get("key", () -> {
+                throw new IllegalStateException("Boom");
+            }, value -> 100);
+            fail("Expected the load to fail");
+        } catch (IllegalStateException e) {
+            assertEquals("Boom", e.getMessage());
+        }
+        assertEquals(Integer.valueOf(7), cache.get("key", () -> 7, value -> 100));
+    }
+
+    @Test
+    public void testConcurrentLookupsShareOneLoad() throws Exception {
+        var cache = new ExpiringCache<String, Integer>(10, clock::get);
+        var loads = new AtomicInteger();
+        var loading = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(4);
+
+        var first = executor.submit(() -> cache.get("key", () -> {
+            loading.countDown();
+            release.await();
+            return loads.incrementAndGet();
+        }, value -> 100));
+        loading.await();
+        var followers = executor.submit(() -> cache.get("key", loads::incrementAndGet, value -> 100));
+        release.countDown();
+
+        assertEquals(Integer.valueOf(1), first.get(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(1), followers.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testLoadingEntryIsNotEvictedWhenFull() throws Exception {
+        var cache = new ExpiringCache<String, Integer>(1, clock::get);
+        var loads = new AtomicInteger();
+        var loading = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(2);
+        Callable<Integer> slowLoad = () -> {
+            loading.countDown();
+            release.await();
+            return loads.incrementAndGet();
+        };
+
+        var first = executor.submit(() -> cache.get("slow", slowLoad, value -> 100));
+        loading.await();
+        cache.get("a", () -> 0, value -> 100);
+        cache.get("b", () -> 0, value -> 100);
+        var follower = executor.submit(() -> cache.get("slow", slowLoad, value -> 100));
+        release.countDown();
+
+        assertEquals(Integer.valueOf(1), first.get(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(1), follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+        executor.shutdown();
+    }
+}
@@ -1,21 +1,50 @@
 package com.boku.moneytransferservice.controler;
 
+import com.boku.moneytransferservice.config.AppConfig;
+import com.boku.moneytransferservice.exception.IdempotencyKeyReusedException;
 import com.boku.moneytransferservice.exception.MissingParameterException;
+import com.boku.moneytransferservice.exception.TooManyRequestsException;
 import com.boku.moneytransferservice.exception.ValidationException;
 import com.boku.moneytransferservice.model.Account;
+import com.boku.moneytransferservice.model.BalanceSnapshot;
+import com.boku.moneytransferservice.model.BatchMode;
+import com.boku.moneytransferservice.model.Money;
 import com.boku.moneytransferservice.model.StatusResponse;
+import com.boku.moneytransferservice.model.TransactionPage;
+import com.boku.moneytransferservice.model.TransferLeg;
+import com.boku.moneytransferservice.model.TransferLegResult;
+import com.boku.moneytransferservice.service.Reconciliation;
 import com.boku.moneytransferservice.service.TransferService;
+import com.boku.moneytransferservice.service.WithdrawalService;
 import com.boku.moneytransferservice.service.WithdrawalService.WithdrawalState;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.javalin.http.Context;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
 import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.UUID;
 
 import static com.boku.moneytransferservice.service.WithdrawalService.WithdrawalState.PROCESSING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 public class MoneyTransferControllerTest {
@@ -27,13 +56,22 @@ public class MoneyTransferControllerTest {
     private MoneyTransferController moneyTransferController;
 
     @Before
-    public void setUp() {
+    public void setUp() throws ValidationException {
         MockitoAnnotations.openMocks(this);
         moneyTransferController = new MoneyTransferController(moneyTransferService);
+        when(context.<Boolean>attribute(JsonResponses.BUFFER_ATTRIBUTE)).thenReturn(true);
+        when(moneyTransferService.toMinorUnits(any(), any()))
+                .thenAnswer(invocation -> Money.toMinorUnits(invocation.getArgument(1)));
+    }
+
+    private String writtenJson() {
+        var body = ArgumentCaptor.forClass(byte[].class);
+        verify(context).result(body.capture());
+        return new String(body.getValue(), StandardCharsets.UTF_8);
     }
 
     @Test
-    public void testHandleTransferRequestValidParams() throws ValidationException, MissingParameterException {
+    public void testHandleTransferRequestValidParams() throws Exception {
         var senderAccountId = UUID.randomUUID();
         var receiverAccountId = UUID.randomUUID();
         var amount = BigDecimal.valueOf(100.0);
@@ -43,19 +81,43 @@ public class MoneyTransferControllerTest {
         when(context.queryParam("amount")).thenReturn(amount.toString());
 
         moneyTransferController.handleTransferRequest(context);
-        verify(moneyTransferService).transferMoney(senderAccountId, receiverAccountId, amount);
-        verify(context).json( new StatusResponse("success", "Money transferred successfully.", null));
+        verify(moneyTransferService).transferMoney(senderAccountId, receiverAccountId, 10_000);
+        assertEquals(json(new StatusResponse("success", "Money transferred successfully.", null)), writtenJson());
+    }
+
+    @Test(expected = ValidationException.class)
+    public void testHandleTransferRequestTooManyDecimals() throws Exception {
+        when(context.queryParam("senderAccountId")).thenReturn(UUID.randomUUID().toString());
+        when(context.queryParam("receiverAccountId")).thenReturn(UUID.randomUUID().toString());
+        when(context.queryParam("amount")).thenReturn("10.001");
+
+        moneyTransferController.handleTransferRequest(context);
     }
 
     @Test(expected = MissingParameterException.class)
-    public void testHandleTransferRequestInvalidParams() throws ValidationException, MissingParameterException {
+    public void testHandleTransferRequestInvalidParams() throws Exception {
         when(context.queryParam(anyString())).thenReturn(null);
         moneyTransferController.handleTransferRequest(context);
-        verify(moneyTransferService, never()).transferMoney(any(), any(), any());
+        verify(moneyTransferService, never()).transferMoney(any(), any(), anyLong());
+    }
+
+    @Test
+    public void testRefusedByTheServiceIsBadRequest() throws Exception {
+        var senderAccountId = UUID.randomUUID();
+        when(context.queryParam("senderAccountId")).thenReturn(senderAccountId.toString());
+        when(context.queryParam("receiverAccountId")).thenReturn(UUID.randomUUID().toString());
+        when(context.queryParam("amount")).thenReturn("10");
+        doThrow(new IllegalArgumentException("Insufficient balance for transfer"))
+                .when(moneyTransferService).transferMoney(eq(senderAccountId), any(), anyLong());
+
+        var e = assertThrows(IllegalArgumentException.class, () -> moneyTransferController.handleTransferRequest(context));
+        moneyTransferController.handleIllegalArgument(e, context);
+        verify(context).status(400);
+        verify(context).json(new StatusResponse("error", "Insufficient balance for transfer", null));
     }
 
     @Test
-    public void testHandleWithdrawalRequestValidParams() throws ValidationException, MissingParameterException {
+    public void testHandleWithdrawalRequestValidParams() throws Exception {
         var senderAccountId = UUID.randomUUID();
         var address = "1234-5678";
         var amount = BigDecimal.valueOf(50.0);
@@ -64,22 +126,141 @@ public class MoneyTransferControllerTest {
         when(context.queryParam("address")).thenReturn(address);
         when(context.queryParam("amount")).thenReturn(amount.toString());
         UUID withdrawalId = UUID.randomUUID();
-        when(moneyTransferService.withdrawMoney(senderAccountId, address, amount)).thenReturn(withdrawalId);
+        when(moneyTransferService.withdrawMoney(senderAccountId, address, 5_000)).thenReturn(withdrawalId);
 
         moneyTransferController.handleWithdrawalRequest(context);
-        verify(moneyTransferService).withdrawMoney(senderAccountId, address, amount);
-        verify(context).json(new StatusResponse("success", "Withdrawal request submitted.", withdrawalId));
+        verify(moneyTransferService).withdrawMoney(senderAccountId, address, 5_000);
+        assertEquals(json(new StatusResponse("success", "Withdrawal request submitted.", withdrawalId)), writtenJson());
+    }
+
+    @Test
+    public void testIdempotentTransferRunsOnce() throws Exception {
+        var senderAccountId = UUID.randomUUID();
+        var receiverAccountId = UUID.randomUUID();
+        when(context.header(MoneyTransferController.IDEMPOTENCY_KEY_HEADER)).thenReturn("key-1");
+        when(context.path()).thenReturn("/transfer");
+        when(context.bodyAsBytes()).thenReturn(new byte[0]);
+        when(context.queryString()).thenReturn("senderAccountId=" + senderAccountId);
+        when(context.queryParam("senderAccountId")).thenReturn(senderAccountId.toString());
+        when(context.queryParam("receiverAccountId")).thenReturn(receiverAccountId.toString());
+        when(context.queryParam("amount")).thenReturn("10");
+        when(context.status()).thenReturn(200);
+        when(context.resultString()).thenReturn("{\"status\":\"success\"}");
+
+        var handler = moneyTransferController.idempotent(moneyTransferController::handleTransferRequest);
+        handler.handle(context);
+        handler.handle(context);
+
+        verify(moneyTransferService, times(1)).transferMoney(senderAccountId, receiverAccountId, 1_000);
+        verify(context).header(MoneyTransferController.IDEMPOTENT_REPLAY_HEADER, "true");
+        verify(context).result("{\"status\":\"success\"}");
+    }
+
+    @Test(expected = IdempotencyKeyReusedException.class)
+    public void testIdempotencyKeyReusedWithDifferentParams() throws Exception {
+        when(context.header(MoneyTransferController.IDEMPOTENCY_KEY_HEADER)).thenReturn("key-2");
+        when(context.path()).thenReturn("/transfer");
+        when(context.bodyAsBytes()).thenReturn(new byte[0]);
+        when(context.queryParam(anyString())).thenReturn(UUID.randomUUID().toString());
+        when(context.queryParam("amount")).thenReturn("10");
+
+        var handler = moneyTransferController.idempotent(moneyTransferController::handleTransferRequest);
+        when(context.queryString()).thenReturn("amount=10");
+        handler.handle(context);
+        when(context.queryString()).thenReturn("amount=20");
+        handler.handle(context);
+    }
+
+    @Test
+    public void testTransfersOverTheAccountRateAreRefused() throws Exception {
+        var properties = new Properties();
+        properties.setProperty("admission.account.ratePerSecond", "1");
+        properties.setProperty("admission.account.burst", "1");
+        var controller = new MoneyTransferController(moneyTransferService, new AppConfig(properties));
+        var senderAccountId = UUID.randomUUID();
+        var receiverAccountId = UUID.randomUUID();
+        when(context.queryParam("senderAccountId")).thenReturn(senderAccountId.toString());
+        when(context.queryParam("receiverAccountId")).thenReturn(receiverAccountId.toString());
+        when(context.queryParam("amount")).thenReturn("10");
+
+        controller.handleTransferRequest(context);
+        var refused = assertThrows(TooManyRequestsException.class, () -> controller.handleTransferRequest(context));
+
+        assertEquals(1, refused.getRetryAfterSeconds());
+        verify(moneyTransferService, times(1)).transferMoney(senderAccountId, receiverAccountId, 1_000);
+    }
+
+    @Test
+    public void testRequestsOverTheConcurrencyLimitAreRefused() throws Exception {
+        var properties = new Properties();
+        properties.setProperty("admission.enabled", "true");
+        properties.setProperty("admission.initialLimit", "1");
+        properties.setProperty("admission.minLimit", "1");
+        var controller = new MoneyTransferController(moneyTransferService, new AppConfig(properties));
+        var inner = controller.admitted(ctx -> ctx.status(200));
+        var outer = controller.admitted(ctx -> assertThrows(TooManyRequestsException.class, () -> inner.handle(ctx)));
+
+        outer.handle(context);
+        inner.handle(context);
+
+        verify(context, times(1)).status(200);
+    }
+
+    @Test
+    public void testHandleBatchTransferRequestParsesLegs() throws ValidationException {
+        var senderAccountId = UUID.randomUUID();
+        var receiverAccountId = UUID.randomUUID();
+        var body = "{\"mode\":\"BEST_EFFORT\",\"legs\":["
+                + "{\"senderAccountId\":\"" + senderAccountId + "\",\"receiverAccountId\":\"" + receiverAccountId + "\",\"amount\":10.5},"
+                + "{\"senderAccountId\":\"" + receiverAccountId + "\",\"receiverAccountId\":\"" + senderAccountId + "\",\"amount\":\"2\"}]}";
+        var legs = List.of(new TransferLeg(senderAccountId, receiverAccountId, 1_050),
+                new TransferLeg(receiverAccountId, senderAccountId, 200));
+        var results = List.of(TransferLegResult.success(), TransferLegResult.failed("Insufficient balance for transfer"));
+
+        when(context.bodyAsBytes()).thenReturn(body.getBytes(StandardCharsets.UTF_8));
+        when(moneyTransferService.transferBatch(legs, BatchMode.BEST_EFFORT)).thenReturn(results);
+
+        moneyTransferController.handleBatchTransferRequest(context);
+        verify(context).json(new StatusResponse("partial", "1 of 2 legs transferred.", results));
+    }
+
+    @Test(expected = ValidationException.class)
+    public void testHandleBatchTransferRequestMalformedBody() throws ValidationException {
+        when(context.bodyAsBytes()).thenReturn("[{\"senderAccountId\":".getBytes(StandardCharsets.UTF_8));
+
+        moneyTransferController.handleBatchTransferRequest(context);
+    }
+
+    @Test
+    public void testHandleGetTransactionsRequest() throws ValidationException {
+        var accountId = UUID.randomUUID();
+        var page = new TransactionPage(List.of(), null);
+        when(context.pathParam("accountId")).thenReturn(accountId.toString());
+        when(context.queryParam("cursor")).thenReturn("120");
+        when(context.queryParam("limit")).thenReturn("20");
+        when(moneyTransferService.getTransactions(accountId, 120L, 20)).thenReturn(page);
+
+        moneyTransferController.handleGetTransactionsRequest(context);
+        verify(context).json(page);
+    }
+
+    @Test(expected = ValidationException.class)
+    public void testHandleGetTransactionsRequestLimitTooLarge() throws ValidationException {
+        when(context.pathParam("accountId")).thenReturn(UUID.randomUUID().toString());
+        when(context.queryParam("limit")).thenReturn("100000");
+
+        moneyTransferController.handleGetTransactionsRequest(context);
     }
 
     @Test(expected = MissingParameterException.class)
-    public void testHandleWithdrawalRequestInvalidParams() throws ValidationException, MissingParameterException {
+    public void testHandleWithdrawalRequestInvalidParams() throws Exception {
         when(context.queryParam(anyString())).thenReturn(null);
         moneyTransferController.handleWithdrawalRequest(context);
-        verify(moneyTransferService, never()).withdrawMoney(any(), any(), any());
+        verify(moneyTransferService, never()).withdrawMoney(any(), any(), anyLong());
     }
 
     @Test
-    public void testHandleWithdrawalStatusRequestValidId() {
+    public void testHandleWithdrawalStatusRequestValidId() throws Exception {
         var withdrawalId = UUID.randomUUID();
         when(context.pathParam("withdrawalId")).thenReturn(withdrawalId.toString());
         WithdrawalState withdrawalState = PROCESSING;
@@ -87,18 +268,202 @@ public class MoneyTransferControllerTest {
 
         moneyTransferController.handleWithdrawalStatusRequest(context);
         verify(moneyTransferService).getWithdrawalStatus(withdrawalId);
-        verify(context).json(withdrawalState);
+        assertEquals("\"PROCESSING\"", writtenJson());
     }
 
     @Test
-    public void testHandleGetAccountRequestValidId() {
+    public void testHandleGetAccountRequestValidId() throws Exception {
         var accountId = UUID.randomUUID();
         when(context.pathParam("accountId")).thenReturn(accountId.toString());
-        var account = new Account(accountId, "John Doe", BigDecimal.valueOf(500.0));
+        var account = new Account(accountId, "John Doe", 99_550);
         when(moneyTransferService.getAccountById(accountId)).thenReturn(account);
 
         moneyTransferController.handleGetAccountRequest(context);
         verify(moneyTransferService).getAccountById(accountId);
-        verify(context).json(account);
+        assertEquals(json(account), writtenJson());
+    }
+
+    @Test
+    public void testHandleTransferRequestJsonBody() throws Exception {
+        var senderAccountId = UUID.randomUUID();
+        var receiverAccountId = UUID.randomUUID();
+        var body = "{\"senderAccountId\":\"" + senderAccountId + "\",\"receiverAccountId\":\"" + receiverAccountId
+                + "\",\"amount\":12.5,\"note\":{\"ignored\":[1,2]}}";
+        when(context.contentType()).thenReturn("application/json; charset=utf-8");
+        when(context.bodyAsBytes()).thenReturn(body.getBytes(StandardCharsets.UTF_8));
+
+        moneyTransferController.handleTransferRequest(context);
+        verify(moneyTransferService).transferMoney(senderAccountId, receiverAccountId, 1_250);
+        verify(context, never()).queryParam(anyString());
+    }
+
+    @Test
+    public void testHandleWithdrawalRequestJsonBody() throws Exception {
+        var senderAccountId = UUID.randomUUID();
+        var withdrawalId = UUID.randomUUID();
+        var body = "{\"senderAccountId\":\"" + senderAccountId + "\",\"address\":\"1234-5678\",\"amount\":\"50\"}";
+        when(context.contentType()).thenReturn("application/json");
+        when(context.bodyAsBytes()).thenReturn(body.getBytes(StandardCharsets.UTF_8));
+        when(moneyTransferService.withdrawMoney(senderAccountId, "1234-5678", 5_000)).thenReturn(withdrawalId);
+
+        moneyTransferController.handleWithdrawalRequest(context);
+        assertEquals(json(new StatusResponse("success", "Withdrawal request submitted.", withdrawalId)), writtenJson());
+    }
+
+    @Test
+    public void testMalformedInputIsValidationException() throws Exception {
+        var malformed = List.of("{\"senderAccountId\":", "[]", "{\"senderAccountId\":\"nope\",\"receiverAccountId\":\""
+                + UUID.randomUUID() + "\",\"amount\":1}", "{\"senderAccountId\":\"" + UUID.randomUUID()
+                + "\",\"receiverAccountId\":\"" + UUID.randomUUID() + "\",\"amount\":\"ten\"}");
+        when(context.contentType()).thenReturn("application/json");
+        for (var body : malformed) {
+            when(context.bodyAsBytes()).thenReturn(body.getBytes(StandardCharsets.UTF_8));
+            assertThrows(body, ValidationException.class, () -> moneyTransferController.handleTransferRequest(context));
+        }
+
+        when(context.contentType()).thenReturn(null);
+        when(context.queryParam(anyString())).thenReturn("not-a-uuid");
+        assertThrows(ValidationException.class, () -> moneyTransferController.handleTransferRequest(context));
+        when(context.pathParam("accountId")).thenReturn("not-a-uuid");
+        assertThrows(ValidationException.class, () -> moneyTransferController.handleGetAccountRequest(context));
+        verify(moneyTransferService, never()).transferMoney(any(), any(), anyLong());
+        verify(moneyTransferService, never()).getAccountById(any());
+    }
+
+    @Test
+    public void testNestedValuesForKnownFieldsAreValidationException() throws Exception {
+        var senderAccountId = UUID.randomUUID();
+        var receiverAccountId = UUID.randomUUID();
+        // Read on from the nested object's start, its members would stand in for the missing top-level fields
+        var transfer = "{\"senderAccountId\":{\"senderAccountId\":\"" + senderAccountId + "\",\"receiverAccountId\":\""
+                + receiverAccountId + "\",\"amount\":1}}";
+        var leg = "{\"senderAccountId\":\"" + senderAccountId + "\",\"receiverAccountId\":\"" + receiverAccountId
+                + "\",\"amount\":[1]}";
+        when(context.contentType()).thenReturn("application/json");
+
+        when(context.bodyAsBytes()).thenReturn(transfer.getBytes(StandardCharsets.UTF_8));
+        assertThrows(ValidationException.class, () -> moneyTransferController.handleTransferRequest(context));
+        when(context.bodyAsBytes()).thenReturn(("{\"senderAccountId\":\"" + senderAccountId
+                + "\",\"address\":{\"line\":\"x\"},\"amount\":1}").getBytes(StandardCharsets.UTF_8));
+        assertThrows(ValidationException.class, () -> moneyTransferController.handleWithdrawalRequest(context));
+        for (var batch : List.of("[" + leg + "]", "{\"mode\":[\"BEST_EFFORT\"],\"legs\":[" + leg.replace("[1]", "1") + "]}")) {
+            when(context.bodyAsBytes()).thenReturn(batch.getBytes(StandardCharsets.UTF_8));
+            assertThrows(batch, ValidationException.class, () -> moneyTransferController.handleBatchTransferRequest(context));
+        }
+        verify(moneyTransferService, never()).transferMoney(any(), any(), anyLong());
+        verify(moneyTransferService, never()).withdrawMoney(any(), any(), anyLong());
+        verify(moneyTransferService, never()).transferBatch(any(), any());
+    }
+
+    @Test
+    public void testTruncatedOrTrailingBodiesAreValidationException() throws Exception {
+        var transfer = "{\"senderAccountId\":\"" + UUID.randomUUID() + "\",\"receiverAccountId\":\"" + UUID.randomUUID()
+                + "\",\"amount\":1";
+        var withdrawal = "{\"senderAccountId\":\"" + UUID.randomUUID() + "\",\"address\":\"Address\",\"amount\":1";
+        var leg = transfer + "}";
+        when(context.contentType()).thenReturn("application/json");
+
+        // Cut off inside an unknown field, then a complete body with another one after it
+        for (var body : List.of(transfer + ",\"note\":[1,", leg + leg, leg + "[]")) {
+            when(context.bodyAsBytes()).thenReturn(body.getBytes(StandardCharsets.UTF_8));
+            assertThrows(body, ValidationException.class, () -> moneyTransferController.handleTransferRequest(context));
+        }
+        for (var body : List.of(withdrawal + ",\"note\":{\"x\":", withdrawal + "}" + withdrawal + "}")) {
+            when(context.bodyAsBytes()).thenReturn(body.getBytes(StandardCharsets.UTF_8));
+            assertThrows(body, ValidationException.class, () -> moneyTransferController.handleWithdrawalRequest(context));
+        }
+        for (var body : List.of("{\"legs\":[" + leg + "],\"note\":[", "{\"legs\":[" + leg + "]}{}", "[" + leg + "]" + leg)) {
+            when(context.bodyAsBytes()).thenReturn(body.getBytes(StandardCharsets.UTF_8));
+            assertThrows(body, ValidationException.class, () -> moneyTransferController.handleBatchTransferRequest(context));
+        }
+        verify(moneyTransferService, never()).transferMoney(any(), any(), anyLong());
+        verify(moneyTransferService, never()).withdrawMoney(any(), any(), anyLong());
+        verify(moneyTransferService, never()).transferBatch(any(), any());
+    }
+
+    private static String json(Object value) throws Exception {
+        return new ObjectMapper().writeValueAsString(value);
+    }
+
+    @Test
+    public void testReconciliationReportIsOneJsonObjectPerLine() throws Exception {
+        var accountId = UUID.randomUUID();
+        var out = new ByteArrayOutputStream();
+        try (var report = new ReconciliationNdjson(out)) {
+            report.snapshot(true);
+            report.flaggedAccount(new BalanceSnapshot.Balance(accountId, Money.DEFAULT_CURRENCY, -150),
+                    Reconciliation.Flag.NEGATIVE);
+            report.currencyTotal(new Reconciliation.CurrencyTotal(Money.DEFAULT_CURRENCY, 2, 9_850, 150, 1));
+        }
+
+        var lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, lines.length);
+        var mapper = new ObjectMapper();
+        assertEquals("snapshot", mapper.readTree(lines[0]).get("type").asText());
+        var account = mapper.readTree(lines[1]);
+        assertEquals(accountId.toString(), account.get("id").asText());
+        assertTrue(lines[1].contains("\"balance\":-1.50"));
+        assertEquals("NEGATIVE", account.get("flag").asText());
+        var currency = mapper.readTree(lines[2]);
+        assertEquals(100.0, currency.get("liability").asDouble(), 0);
+    }
+
+    @Test(timeout = 10_000)
+    public void testAccountEventsStreamTheBalanceOverHttp() throws Exception {
+        var properties = new Properties();
+        properties.setProperty("server.port", "0");
+        properties.setProperty("events.maxSubscribers", "1");
+        var config = new AppConfig(properties);
+        var transferService = new TransferService(mock(WithdrawalService.class), config);
+        var senderAccountId = UUID.randomUUID();
+        var receiverAccountId = UUID.randomUUID();
+        transferService.createAccount(senderAccountId, "Sender", 10_000);
+        transferService.createAccount(receiverAccountId, "Receiver", 10_000);
+        var app = new MoneyTransferController(transferService, config).startServer();
+        try {
+            var client = HttpClient.newHttpClient();
+            var events = HttpRequest.newBuilder(
+                    URI.create("http://localhost:" + app.port() + "/account/" + senderAccountId + "/events")).build();
+            var response = client.send(events, HttpResponse.BodyHandlers.ofInputStream());
+            try (var stream = new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+                assertEquals(200, response.statusCode());
+                assertTrue(response.headers().firstValue("Content-Type").orElseThrow()
+                        .startsWith(BalanceEventStream.CONTENT_TYPE));
+                assertEquals("event: balance", stream.readLine());
+                assertEquals(balanceEvent(senderAccountId, "100.00"), stream.readLine());
+                assertEquals("", stream.readLine());
+
+                // The only subscriber slot is taken
+                assertEquals(503, client.send(events, HttpResponse.BodyHandlers.discarding()).statusCode());
+
+                transferService.transferMoney(senderAccountId, receiverAccountId, 2_500);
+                assertEquals("event: balance", stream.readLine());
+                assertEquals(balanceEvent(senderAccountId, "75.00"), stream.readLine());
+            }
+        } finally {
+            app.stop();
+        }
+    }
+
+    private static String balanceEvent(UUID accountId, String balance) {
+        return "data: {\"id\":\"%s\",\"currency\":\"%s\",\"balance\":%s}"
+                .formatted(accountId, Money.DEFAULT_CURRENCY.getCurrencyCode(), balance);
+    }
+
+    @Test
+    public void testAccountEventsSubscriptionIsClosedWhenTheStreamFailsToOpen() throws Exception {
+        var properties = new Properties();
+        properties.setProperty("events.maxSubscribers", "1");
+        var transferService = new TransferService(mock(WithdrawalService.class), new AppConfig(properties));
+        var accountId = UUID.randomUUID();
+        transferService.createAccount(accountId, "Holder", 10_000);
+        var request = mock(HttpServletRequest.class);
+        when(request.startAsync()).thenThrow(new IllegalStateException("Async not supported"));
+        var failing = new Context(request, mock(HttpServletResponse.class), Map.of());
+
+        assertThrows(IllegalStateException.class, () -> BalanceEventStream.open(failing, transferService, accountId));
+
+        transferService.subscribeToBalance(accountId, () -> {
+        }).close();
     }
 }
@@ -0,0 +1,327 @@
+package com.boku.moneytransferservice.journal;
+
+import com.boku.moneytransferservice.model.TransferLeg;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Currency;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedJournalTest {
+    private static final Currency EUR = Currency.getInstance("EUR");
+    private static final Currency USD = Currency.getInstance("USD");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplayReturnsRecordsInAppendOrder() throws IOException {
+        var directory = folder.getRoot().toPath();
+        var account1 = UUID.randomUUID();
+        var account2 = UUID.randomUUID();
+        var withdrawalId = UUID.randomUUID();
+
+        try (var journal = new MappedJournal(directory, 4096, true, 0)) {
+            journal.accountCreated(account1, "Sender", EUR, 10_000);
+            journal.accountCreated(account2, "Receiver", USD, 0);
+            journal.transferred(account1, account2, 2_500, 2_712);
+            journal.withdrawalRequested(withdrawalId, account1, 1_000, "Address");
+            journal.awaitDurable(journal.withdrawalRefunded(withdrawalId));
+        }
+
+        var recorder = new RecordingHandler();
+        try (var journal = new MappedJournal(directory, 4096, true, 0)) {
+            journal.replay(recorder);
+        }
+        assertEquals(List.of(
+                "created " + account1 + " Sender EUR 10000",
+                "created " + account2 + " Receiver USD 0",
+                "transferred " + account1 + " " + account2 + " 2500 2712",
+                "requested " + withdrawalId + " " + account1 + " 1000 Address",
+                "refunded " + withdrawalId), recorder.records);
+    }
+
+    @Test
+    public void testRecordsSpanMultipleSegments() throws IOException {
+        var directory = folder.getRoot().toPath();
+        var account = UUID.randomUUID();
+
+        try (var journal = new MappedJournal(directory, 256, false, 0)) {
+            for (int i = 0; i < 100; i++) {
+                journal.transferred(account, account, i, i);
+            }
+        }
+
+        var recorder = new RecordingHandler();
+        try (var journal = new MappedJournal(directory, 256, false, 0)) {
+            journal.replay(recorder);
+        }
+        assertEquals(100, recorder.records.size());
+        assertEquals("transferred " + account + " " + account + " 99 99", recorder.records.get(99));
+    }
+
+    @Test
+    public void testReplayStopsAtTornRecord() throws IOException {
+        var directory = folder.getRoot().toPath();
+        var account = UUID.randomUUID();
+
+        try (var journal = new MappedJournal(directory, 4096, false, 0)) {
+            journal.transferred(account, account, 1, 1);
+            journal.transferred(account, account, 2, 2);
+        }
+        // Corrupt the last byte of the second record's payload
+        Path segment;
+        try (var files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        var bytes = Files.readAllBytes(segment);
+        var secondRecordEnd = 2 * (9 + 40);
+        bytes[secondRecordEnd - 1] ^= 1;
+        Files.write(segment, bytes);
+
+        var recorder = new RecordingHandler();
+        try (var journal = new MappedJournal(directory, 4096, false, 0)) {
+            journal.replay(recorder);
+        }
+        assertEquals(List.of("transferred " + account + " " + account + " 1 1"), recorder.records);
+    }
+
+    @Test
+    public void testBatchIsReplayedWholeOrNotAtAll() throws IOException {
+        var directory = folder.getRoot().toPath();
+        var account1 = UUID.randomUUID();
+        var account2 = UUID.randomUUID();
+        var legs = List.of(new TransferLeg(account1, account2, 100), new TransferLeg(account2, account1, 40),
+                new TransferLeg(account1, account2, 7));
+
+        try (var journal = new MappedJournal(directory, 4096, false, 0)) {
+            journal.transferred(account1, account2, 1, 1);
+            journal.batchTransferred(legs, new long[]{100, 40, 7});
+        }
+        var recorder = new RecordingHandler();
+        try (var journal = new MappedJournal(directory, 4096, false, 0)) {
+            journal.replay(recorder);
+        }
+        assertEquals(List.of(
+                "transferred " + account1 + " " + account2 + " 1 1",
+                "transferred " + account1 + " " + account2 + " 100 100",
+                "transferred " + account2 + " " + account1 + " 40 40",
+                "transferred " + account1 + " " + account2 + " 7 7"), recorder.records);
+
+        // A crash partway through writing the batch leaves its first legs on disk and the rest zeroed
+        Path segment;
+        try (var files = Files.list(directory)) {
+            segment = files.filter(path -> path.getFileName().toString().endsWith(".log")).sorted().findFirst().orElseThrow();
+        }
+        var bytes = Files.readAllBytes(segment);
+        var batchStart = 9 + 40;
+        var secondLegEnd = batchStart + 9 + 4 + 2 * 48;
+        Arrays.fill(bytes, secondLegEnd, batchStart + 9 + 4 + 3 * 48, (byte) 0);
+        Files.write(segment, bytes);
+
+        recorder = new RecordingHandler();
+        try (var journal = new MappedJournal(directory, 4096, false, 0)) {
+            journal.replay(recorder);
+        }
+        assertEquals(List.of("transferred " + account1 + " " + account2 + " 1 1"), recorder.records);
+    }
+
+    @Test
+    public void testReplayLoadsSnapshotAndJournalTail() throws IOException {
+        var directory = folder.getRoot().toPath();
+        var account1 = UUID.randomUUID();
+        var account2 = UUID.randomUUID();
+        var withdrawalId = UUID.randomUUID();
+
+        try (var journal = new MappedJournal(directory, 4096, false, 0)) {
+            journal.accountCreated(account1, "Sender", EUR, 10_000);
+            journal.accountCreated(account2, "Receiver", USD, 0);
+            journal.transferred(account1, account2, 2_500, 2_712);
+            journal.withdrawalRequested(withdrawalId, account1, 1_000, "Address");
+            new JournalCheckpointer(journal).checkpoint();
+            journal.transferred(account2, account1, 500, 460);
+        }
+        try (var files = Files.list(directory)) {
+            // Snapshot plus the segment still being written at checkpoint time
+            assertEquals(2, files.count());
+        }
+
+        var recorder = new RecordingHandler();
+        try (var journal = new MappedJournal(directory, 4096, false, 0)) {
+            journal.replay(recorder);
+        }
+        assertEquals(4, recorder.records.size());
+        assertTrue(recorder.records.containsAll(List.of(
+                "created " + account1 + " Sender EUR 6500",
+                "created " + account2 + " Receiver USD 2712")));
+        assertEquals("pending " + withdrawalId + " " + account1 + " 1000 Address", recorder.records.get(2));
+        assertEquals("transferred " + account2 + " " + account1 + " 500 460", recorder.records.get(3));
+    }
+
+    @Test
+    public void testCheckpointerSnapshotStopsAtTheSeal() throws IOException {
+        var directory = folder.getRoot().toPath();
+        var account1 = UUID.randomUUID();
+        var account2 = UUID.randomUUID();
+        var withdrawalId = UUID.randomUUID();
+
+        try (var journal = new MappedJournal(directory, 4096, false, 0)) {
+            var checkpointer = new JournalCheckpointer(journal);
+            journal.accountCreated(account1, "Sender", EUR, 10_000);
+            journal.accountCreated(account2, "Receiver", USD, 0);
+            journal.transferred(account1, account2, 2_500, 2_712);
+            journal.withdrawalRequested(withdrawalId, account1, 1_000, "Address");
+            checkpointer.checkpoint();
+            journal.transferred(account1, account2, 500, 542);
+
+            var balances = new ArrayList<String>();
+            var withdrawals = new ArrayList<String>();
+            checkpointer.readSnapshot(snapshot -> {
+                assertTrue(snapshot.isConsistent());
+                // Written after the earlier checkpoint, sealed by this one
+                journal.transferred(account2, account1, 100, 92);
+                snapshot.accounts().forEach(balance -> balances.add(balance.currency() + " " + balance.balance()));
+                snapshot.pendingWithdrawals().forEach(withdrawal ->
+                        withdrawals.add(withdrawal.withdrawalId() + " " + withdrawal.currency() + " " + withdrawal.amount()));
+            });
+
+            assertEquals(2, balances.size());
+            assertTrue(balances.containsAll(List.of("EUR 6000", "USD 3254")));
+            assertEquals(List.of(withdrawalId + " EUR 1000"), withdrawals);
+        }
+    }
+
+    @Test
+    public void testReadSnapshotReusesARecentCheckpoint() throws IOException {
+        var directory = folder.getRoot().toPath();
+        var account1 = UUID.randomUUID();
+        var account2 = UUID.randomUUID();
+        var clock = new AtomicLong();
+
+        try (var journal = new MappedJournal(directory, 4096, false, 0)) {
+            var checkpointer = new JournalCheckpointer(journal, 100, clock::get);
+            journal.accountCreated(account1, "Sender", EUR, 10_000);
+            journal.accountCreated(account2, "Receiver", EUR, 0);
+            checkpointer.checkpoint();
+            journal.transferred(account1, account2, 2_500, 2_500);
+
+            var balances = new ArrayList<Long>();
+            clock.addAndGet(99);
+            checkpointer.readSnapshot(snapshot -> snapshot.accounts().forEach(balance -> balances.add(balance.balance())));
+            assertTrue(balances.containsAll(List.of(10_000L, 0L)));
+
+            balances.clear();
+            clock.addAndGet(1);
+            checkpointer.readSnapshot(snapshot -> snapshot.accounts().forEach(balance -> balances.add(balance.balance())));
+            assertTrue(balances.containsAll(List.of(7_500L, 2_500L)));
+        }
+    }
+
+    @Test
+    public void testCheckpointsGoOnWhileASnapshotIsRead() throws Exception {
+        var directory = folder.getRoot().toPath();
+        var account1 = UUID.randomUUID();
+        var account2 = UUID.randomUUID();
+        var executor = Executors.newSingleThreadExecutor();
+
+        try (var journal = new MappedJournal(directory, 4096, false, 0)) {
+            var checkpointer = new JournalCheckpointer(journal);
+            journal.accountCreated(account1, "Sender", EUR, 10_000);
+            journal.accountCreated(account2, "Receiver", EUR, 0);
+
+            var balances = new ArrayList<Long>();
+            checkpointer.readSnapshot(snapshot -> {
+                journal.transferred(account1, account2, 2_500, 2_500);
+                try {
+                    // Replaces and deletes the snapshot being read
+                    executor.submit(checkpointer::checkpoint).get(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new AssertionError("Checkpoint waited for the reader", e);
+                }
+                snapshot.accounts().forEach(balance -> balances.add(balance.balance()));
+            });
+            assertTrue(balances.containsAll(List.of(10_000L, 0L)));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        var recorder = new RecordingHandler();
+        try (var journal = new MappedJournal(directory, 4096, false, 0)) {
+            journal.replay(recorder);
+        }
+        assertEquals(List.of("created " + account1 + " Sender EUR 7500", "created " + account2 + " Receiver EUR 2500"),
+                recorder.records.stream().sorted(Comparator.comparing(record -> record.contains("Receiver"))).toList());
+    }
+
+    @Test
+    public void testSnapshotKeepsStringsOver64Kb() throws IOException {
+        var directory = folder.getRoot().toPath();
+        var account = UUID.randomUUID();
+        var withdrawalId = UUID.randomUUID();
+        // Names stop at 65535 bytes of UTF-8, this one is past what writeUTF took in its modified UTF-8
+        var name = "\u00e9".repeat(30_000) + "\u0000".repeat(3_000);
+        var address = "a".repeat(70_000);
+
+        try (var journal = new MappedJournal(directory, 1 << 20, false, 0)) {
+            journal.accountCreated(account, name, EUR, 10_000);
+            journal.withdrawalRequested(withdrawalId, account, 1_000, address);
+            new JournalCheckpointer(journal).checkpoint();
+        }
+
+        var recorder = new RecordingHandler();
+        try (var journal = new MappedJournal(directory, 1 << 20, false, 0)) {
+            journal.replay(recorder);
+        }
+        assertEquals(List.of(
+                "created " + account + " " + name + " EUR 9000",
+                "pending " + withdrawalId + " " + account + " 1000 " + address), recorder.records);
+    }
+
+    private static class RecordingHandler implements JournalReplayHandler {
+        private final List<String> records = new ArrayList<>();
+
+        @Override
+        public void accountCreated(UUID accountId, String name, Currency currency, long balance) {
+            records.add("created " + accountId + " " + name + " " + currency + " " + balance);
+        }
+
+        @Override
+        public void transferred(UUID senderAccountId, UUID receiverAccountId, long amount, long creditedAmount) {
+            records.add("transferred " + senderAccountId + " " + receiverAccountId + " " + amount + " " + creditedAmount);
+        }
+
+        @Override
+        public void withdrawalRequested(UUID withdrawalId, UUID accountId, long amount, String address) {
+            records.add("requested " + withdrawalId + " " + accountId + " " + amount + " " + address);
+        }
+
+        @Override
+        public void withdrawalCompleted(UUID withdrawalId) {
+            records.add("completed " + withdrawalId);
+        }
+
+        @Override
+        public void withdrawalRefunded(UUID withdrawalId) {
+            records.add("refunded " + withdrawalId);
+        }
+
+        @Override
+        public void withdrawalPending(UUID withdrawalId, UUID accountId, long amount, String address) {
+            records.add("pending " + withdrawalId + " " + accountId + " " + amount + " " + address);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.boku.moneytransferservice.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void testHistogramBucketsStayWithinPrecision() {
+        long previous = -1;
+        for (long value = 0; value < TimeUnit.SECONDS.toNanos(100); value = value * 17 / 16 + 1) {
+            var bucket = LatencyHistogram.bucketOf(value);
+            var highest = LatencyHistogram.highestValueIn(bucket);
+            assertTrue(value + " landed above its bucket", value <= highest);
+            assertTrue(value + " bucket is too wide", highest - value <= Math.max(value / 16, 1));
+            assertTrue(bucket >= previous);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void testHistogramQuantiles() {
+        var histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+
+        assertEquals(1000, histogram.count());
+        assertEquals(500, TimeUnit.NANOSECONDS.toMicros(histogram.valueAtQuantile(0.5)), 500 / 16);
+        assertEquals(990, TimeUnit.NANOSECONDS.toMicros(histogram.valueAtQuantile(0.99)), 990 / 16);
+        assertEquals(0, new LatencyHistogram().valueAtQuantile(0.99));
+    }
+
+    @Test
+    public void testScrapeGroupsSeriesUnderOneHeader() {
+        var registry = new MetricsRegistry();
+        registry.counter("requests_total", "Requests", "route", "/a").add(3);
+        registry.counter("requests_total", "Requests", "route", "/b\"").increment();
+        registry.gauge("pending", "Pending things", () -> 7);
+        registry.summary("latency_seconds", "Latency").record(TimeUnit.MILLISECONDS.toNanos(2));
+
+        var text = registry.scrape();
+
+        assertTrue(text, text.startsWith("""
+                # HELP requests_total Requests
+                # TYPE requests_total counter
+                requests_total{route="/a"} 3
+                requests_total{route="/b\\""} 1
+                # HELP pending Pending things
+                # TYPE pending gauge
+                pending 7
+                # HELP latency_seconds Latency
+                # TYPE latency_seconds summary
+                latency_seconds{quantile="0.5"} 0.002"""));
+        assertTrue(text, text.contains("latency_seconds_sum 0.002\nlatency_seconds_count 1\n"));
+    }
+}
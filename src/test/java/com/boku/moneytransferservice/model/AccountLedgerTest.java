@@ -0,0 +1,124 @@
+package com.boku.moneytransferservice.model;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AccountLedgerTest {
+
+    @Test
+    public void testPagesWalkBackThroughChunks() {
+        var ledger = new AccountLedger();
+        var counterparties = new ArrayList<UUID>();
+        for (int i = 0; i < 600; i++) {
+            var counterparty = UUID.randomUUID();
+            counterparties.add(counterparty);
+            ledger.append(i % 2 == 0 ? LedgerEntry.Type.TRANSFER_IN : LedgerEntry.Type.WITHDRAWAL, i + 1, counterparty);
+        }
+
+        var expected = 599;
+        var cursor = Long.MAX_VALUE;
+        String nextCursor;
+        do {
+            var page = ledger.page(cursor, 70);
+            for (var entry : page.transactions()) {
+                assertEquals(expected, entry.sequence());
+                assertEquals(expected % 2 == 0 ? LedgerEntry.Type.TRANSFER_IN : LedgerEntry.Type.WITHDRAWAL, entry.type());
+                assertEquals(Money.fromMinorUnits(expected + 1), entry.amount());
+                assertEquals(counterparties.get(expected), entry.counterparty());
+                expected--;
+            }
+            nextCursor = page.nextCursor();
+            if (nextCursor != null) cursor = Long.parseLong(nextCursor);
+        } while (nextCursor != null);
+        assertEquals(-1, expected);
+    }
+
+    @Test
+    public void testEmptyLedger() {
+        var ledger = new AccountLedger();
+        var page = ledger.page(Long.MAX_VALUE, 50);
+        assertTrue(page.transactions().isEmpty());
+        assertNull(page.nextCursor());
+    }
+
+    @Test
+    public void testFootprintIsAboutThirtyTwoBytesPerEntry() {
+        var ledger = new AccountLedger(Money.SCALE, 100_000);
+        var counterparty = UUID.randomUUID();
+        for (int i = 0; i < 100_000; i++) ledger.append(LedgerEntry.Type.TRANSFER_OUT, 1, counterparty);
+
+        var bytesPerEntry = ledger.footprintBytes() / 100_000.0;
+        assertTrue(Double.toString(bytesPerEntry), bytesPerEntry < 33);
+        assertEquals(new BigDecimal("0.01"), ledger.page(1, 1).transactions().get(0).amount());
+    }
+
+    @Test
+    public void testOldestEntriesAreDroppedPastMaxEntries() {
+        var ledger = new AccountLedger(Money.SCALE, 300);
+        var counterparty = UUID.randomUUID();
+        for (int i = 0; i < 2_000; i++) ledger.append(LedgerEntry.Type.TRANSFER_IN, i, counterparty);
+
+        var sequences = walk(ledger, 70);
+        assertTrue(Integer.toString(sequences.size()), sequences.size() >= 300 && sequences.size() <= 300 + 2 * 256);
+        for (int i = 0; i < sequences.size(); i++) assertEquals(1_999L - i, (long) sequences.get(i));
+        assertEquals(2_000, ledger.size());
+        assertTrue(ledger.page(1_000, 10).transactions().isEmpty());
+        assertTrue(ledger.footprintBytes() < 40L * (300 + 2 * 256));
+    }
+
+    @Test
+    public void testConcurrentAppendsAreAllPublished() throws InterruptedException {
+        var ledger = new AccountLedger(Money.SCALE, 100_000);
+        var threads = 8;
+        var appends = 10_000;
+        var executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            var counterparty = new UUID(0, t);
+            executor.execute(() -> {
+                for (int i = 0; i < appends; i++) ledger.append(LedgerEntry.Type.TRANSFER_IN, i, counterparty);
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+
+        assertEquals(threads * appends, ledger.size());
+        var perThread = new int[threads];
+        var cursor = Long.MAX_VALUE;
+        String nextCursor;
+        do {
+            var page = ledger.page(cursor, 500);
+            for (var entry : page.transactions()) {
+                var thread = (int) entry.counterparty().getLeastSignificantBits();
+                // Each thread's entries are in its own append order
+                assertEquals(appends - 1 - perThread[thread], entry.amount().movePointRight(2).intValueExact());
+                perThread[thread]++;
+            }
+            nextCursor = page.nextCursor();
+            if (nextCursor != null) cursor = Long.parseLong(nextCursor);
+        } while (nextCursor != null);
+        for (var count : perThread) assertEquals(appends, count);
+    }
+
+    private static List<Long> walk(AccountLedger ledger, int limit) {
+        var sequences = new ArrayList<Long>();
+        var cursor = Long.MAX_VALUE;
+        String nextCursor;
+        do {
+            var page = ledger.page(cursor, limit);
+            for (var entry : page.transactions()) sequences.add(entry.sequence());
+            nextCursor = page.nextCursor();
+            if (nextCursor != null) cursor = Long.parseLong(nextCursor);
+        } while (nextCursor != null);
+        return sequences;
+    }
+}
@@ -0,0 +1,42 @@
+package com.boku.moneytransferservice.model;
+
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AccountTest {
+
+    @Test
+    public void testAccountConservesMoneyUnderConcurrency() throws InterruptedException {
+        var account = new Account(UUID.randomUUID(), "Merchant", 0);
+        var withdrawn = new AtomicLong();
+        var wentNegative = new AtomicBoolean();
+        var executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            var debitor = t % 2 == 0;
+            executor.execute(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    if (!debitor) {
+                        account.deposit(3);
+                    } else if (account.tryWithdraw(5)) {
+                        withdrawn.addAndGet(5);
+                    }
+                    if (account.getBalanceMinorUnits() < 0) wentNegative.set(true);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+
+        assertFalse(wentNegative.get());
+        assertEquals(4 * 20_000 * 3, account.getBalanceMinorUnits() + withdrawn.get());
+    }
+}
@@ -0,0 +1,104 @@
+package com.boku.moneytransferservice.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompactAccountStoreTest {
+    private static final Currency JPY = Currency.getInstance("JPY");
+
+    @Test
+    public void testFindsEveryAccountAcrossChunksAndTableGrowth() {
+        var store = new CompactAccountStore();
+        var ids = new ArrayList<UUID>();
+        for (int i = 0; i < 50_000; i++) {
+            // Sequential ids, the worst case for a weak hash
+            var id = new UUID(0x12345678_abcd_abcdL, i);
+            ids.add(id);
+            store.add(id, "Account " + i, i % 2 == 0 ? Money.DEFAULT_CURRENCY : JPY, i);
+        }
+
+        assertEquals(50_000, store.size());
+        for (int i = 0; i < ids.size(); i += 997) {
+            var account = store.get(ids.get(i));
+            assertEquals(ids.get(i), account.getId());
+            assertEquals("Account " + i, account.getName());
+            assertEquals(i % 2 == 0 ? Money.DEFAULT_CURRENCY : JPY, account.getCurrency());
+            assertEquals(i, account.getBalanceMinorUnits());
+        }
+        assertNull(store.get(new UUID(0x12345678_abcd_abcdL, 50_000)));
+        assertEquals(ids.size(), store.stream().parallel().map(Account::getId).distinct().count());
+        assertFalse(store.contains(UUID.randomUUID()));
+    }
+
+    @Test
+    public void testRejectsTakenIds() {
+        var store = new CompactAccountStore();
+        var id = UUID.randomUUID();
+        store.add(id, "First", Money.DEFAULT_CURRENCY, 100);
+
+        assertNull(store.add(id, "Second", Money.DEFAULT_CURRENCY, 200));
+        assertEquals("First", store.get(id).getName());
+        assertEquals(100, store.get(id).getBalanceMinorUnits());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testViewsShareBalanceAndLedger() {
+        var store = new CompactAccountStore();
+        var id = UUID.randomUUID();
+        var created = store.add(id, "Zo\u00eb \u00dcnal", JPY, 1_000);
+        var lookedUp = store.get(id);
+
+        assertTrue(created.tryWithdraw(400));
+        lookedUp.deposit(50);
+        assertFalse(lookedUp.tryWithdraw(651));
+        assertEquals(650, created.getBalanceMinorUnits());
+        assertEquals("Zo\u00eb \u00dcnal", lookedUp.getName());
+        assertSame(created.getLedger(), lookedUp.getLedger());
+    }
+
+    @Test
+    public void testConservesMoneyUnderConcurrentTransfers() throws InterruptedException {
+        var store = new CompactAccountStore();
+        var ids = new UUID[64];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = UUID.randomUUID();
+            store.add(ids[i], "Account " + i, Money.DEFAULT_CURRENCY, 1_000);
+        }
+
+        var executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            var seed = t;
+            executor.execute(() -> {
+                var random = new SplittableRandom(seed);
+                for (int i = 0; i < 50_000; i++) {
+                    var amount = random.nextInt(1, 100);
+                    if (store.get(ids[random.nextInt(ids.length)]).tryWithdraw(amount))
+                        store.get(ids[random.nextInt(ids.length)]).deposit(amount);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        long total = 0;
+        for (var id : ids) {
+            var balance = store.get(id).getBalanceMinorUnits();
+            assertTrue(balance >= 0);
+            total += balance;
+        }
+        assertEquals(64 * 1_000, total);
+    }
+}
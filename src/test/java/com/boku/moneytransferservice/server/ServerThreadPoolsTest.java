@@ -0,0 +1,81 @@
+package com.boku.moneytransferservice.server;
+
+import com.boku.moneytransferservice.config.AppConfig;
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ServerThreadPoolsTest {
+
+    @Test
+    public void testBoundedPoolRejectsWhenQueueIsFull() throws Exception {
+        var properties = new Properties();
+        properties.setProperty("server.minThreads", "2");
+        properties.setProperty("server.maxThreads", "2");
+        properties.setProperty("server.queueCapacity", "2");
+        var pool = (BoundedServerThreadPool) ServerThreadPools.create(new AppConfig(properties));
+        pool.start();
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(2);
+        try {
+            for (int i = 0; i < 2; i++) {
+                pool.execute(() -> {
+                    started.countDown();
+                    await(release);
+                });
+            }
+            started.await();
+            pool.execute(() -> { });
+            pool.execute(() -> { });
+            try {
+                pool.execute(() -> { });
+                fail("Expected the third queued task to be rejected");
+            } catch (RejectedExecutionException expected) {
+            }
+
+            var metrics = pool.metrics();
+            assertEquals("pool", metrics.mode());
+            assertEquals(2, metrics.queueDepth());
+            assertEquals(1, metrics.rejectedTasks());
+        } finally {
+            release.countDown();
+            pool.stop();
+        }
+    }
+
+    @Test
+    public void testVirtualPoolCountsRunningAndRejectedTasks() throws Exception {
+        var executor = Executors.newCachedThreadPool();
+        var pool = new VirtualServerThreadPool(executor);
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            assertTrue(pool.tryExecute(() -> {
+                started.countDown();
+                await(release);
+            }));
+        }
+        started.await();
+        assertEquals(new ServerThreadPool.Metrics("virtual", 2, 2, 0, 0), pool.metrics());
+
+        release.countDown();
+        executor.shutdown();
+        assertTrue(!pool.tryExecute(() -> { }));
+        assertEquals(1, pool.metrics().rejectedTasks());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
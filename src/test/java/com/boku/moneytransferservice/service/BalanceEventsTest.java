@@ -0,0 +1,141 @@
+package com.boku.moneytransferservice.service;
+
+import com.boku.moneytransferservice.config.AppConfig;
+import com.boku.moneytransferservice.exception.TooManySubscribersException;
+import com.boku.moneytransferservice.exception.ValidationException;
+import com.boku.moneytransferservice.model.Account;
+import com.boku.moneytransferservice.model.Money;
+import com.boku.moneytransferservice.service.BalanceEvents.BalanceUpdate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public class BalanceEventsTest {
+    private final UUID senderId = UUID.randomUUID();
+    private final UUID receiverId = UUID.randomUUID();
+    private TransferService transferService;
+
+    @Before
+    public void setUp() {
+        var properties = new Properties();
+        properties.setProperty("events.maxSubscribers", "2");
+        transferService = new TransferService(mock(WithdrawalService.class), new AppConfig(properties));
+        transferService.createAccount(senderId, "Sender", 10_000);
+        transferService.createAccount(receiverId, "Receiver", 0);
+    }
+
+    @After
+    public void tearDown() {
+        transferService.executor.shutdownNow();
+    }
+
+    @Test
+    public void testSubscriptionStartsWithCurrentBalanceAndGetsChanges() throws Exception {
+        var wakeUps = new Semaphore(0);
+        var subscription = transferService.subscribeToBalance(receiverId, wakeUps::release);
+
+        assertEquals(new BalanceUpdate(receiverId, Money.DEFAULT_CURRENCY, 0), subscription.poll());
+        assertNull(subscription.poll());
+
+        transferService.transferMoney(senderId, receiverId, 250);
+
+        assertTrue(wakeUps.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(new BalanceUpdate(receiverId, Money.DEFAULT_CURRENCY, 250), subscription.poll());
+        subscription.close();
+    }
+
+    @Test
+    public void testStalledSubscriberHoldsOnlyTheLatestBalance() throws Exception {
+        var wakeUps = new AtomicInteger();
+        var subscription = transferService.subscribeToBalance(receiverId, wakeUps::incrementAndGet);
+        var events = balanceEvents();
+
+        for (int i = 0; i < 100; i++) transferService.transferMoney(senderId, receiverId, 1);
+        awaitTrue(() -> events.published() > 0);
+
+        // The initial balance was never taken, so every update replaced the one before and none woke the subscriber
+        assertTrue(events.coalesced() > 0);
+        assertEquals(0, wakeUps.get());
+        awaitTrue(() -> {
+            var update = subscription.poll();
+            return update != null && update.balance() == 100;
+        });
+        subscription.close();
+    }
+
+    @Test
+    public void testSubscribersAreCapped() throws Exception {
+        var first = transferService.subscribeToBalance(senderId, () -> {
+        });
+        var second = transferService.subscribeToBalance(receiverId, () -> {
+        });
+        try {
+            transferService.subscribeToBalance(receiverId, () -> {
+            });
+            fail("Expected TooManySubscribersException");
+        } catch (TooManySubscribersException e) {
+            // expected
+        }
+        assertEquals(2, balanceEvents().subscribers());
+
+        first.close();
+        first.close();
+        assertEquals(1, balanceEvents().subscribers());
+        transferService.subscribeToBalance(receiverId, () -> {
+        }).close();
+        second.close();
+        assertEquals(0, balanceEvents().subscribers());
+    }
+
+    @Test
+    public void testClosedSubscriptionGetsNothing() throws ValidationException {
+        var wakeUps = new AtomicInteger();
+        var subscription = transferService.subscribeToBalance(receiverId, wakeUps::incrementAndGet);
+        subscription.poll();
+        subscription.close();
+
+        transferService.transferMoney(senderId, receiverId, 1);
+
+        assertNull(subscription.poll());
+        assertEquals(0, wakeUps.get());
+    }
+
+    @Test
+    public void testIdleSubscriptionGetsHeartbeat() throws Exception {
+        var account = new Account(receiverId, "Receiver", 0);
+        var events = new BalanceEvents(id -> account, 10, 50);
+        var wakeUps = new Semaphore(0);
+        var subscription = events.subscribe(account, wakeUps::release);
+        subscription.poll();
+
+        assertTrue(wakeUps.tryAcquire(5, TimeUnit.SECONDS));
+        assertSame(BalanceEvents.HEARTBEAT, subscription.poll());
+        subscription.close();
+    }
+
+    private BalanceEvents balanceEvents() {
+        return transferService.balanceEvents;
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) fail("Condition not met in time");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.boku.moneytransferservice.service;
+
+import com.boku.moneytransferservice.exception.ValidationException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Currency;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExchangeRatesTest {
+    private static final Currency EUR = Currency.getInstance("EUR");
+    private static final Currency USD = Currency.getInstance("USD");
+    private static final Currency JPY = Currency.getInstance("JPY");
+    private static final Currency BHD = Currency.getInstance("BHD");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testConversionMatchesExactArithmetic() throws ValidationException {
+        var rates = new ExchangeRates();
+        rates.replace(Map.of("EUR/JPY", new BigDecimal("162.35"), "USD/BHD", new BigDecimal("0.376"),
+                "EUR/USD", new BigDecimal("1.0850")));
+
+        var random = ThreadLocalRandom.current();
+        for (var pair : new Currency[][]{{EUR, JPY}, {JPY, EUR}, {USD, BHD}, {BHD, USD}, {EUR, USD}}) {
+            var conversion = rates.conversion(pair[0], pair[1]);
+            var factor = conversion.rate().movePointRight(pair[1].getDefaultFractionDigits() - pair[0].getDefaultFractionDigits());
+            // Small amounts take the fixed-point path, the largest ones overflow it into BigDecimal
+            for (var amount : new long[]{1_000, random.nextLong(1, 1L << 20), random.nextLong(1L << 40, Long.MAX_VALUE / 1_000)}) {
+                var expected = BigDecimal.valueOf(amount).multiply(factor).setScale(0, RoundingMode.DOWN);
+                if (expected.signum() > 0)
+                    assertEquals(pair[0] + "/" + pair[1] + " " + amount, expected.longValueExact(), conversion.apply(amount));
+            }
+        }
+    }
+
+    @Test(expected = ValidationException.class)
+    public void testAmountConvertingToNothingIsRejected() throws ValidationException {
+        var rates = new ExchangeRates();
+        rates.replace(Map.of("EUR/JPY", new BigDecimal("162.35")));
+        // 1 yen is worth less than a cent
+        rates.convert(JPY, EUR, 1);
+    }
+
+    @Test
+    public void testReloadsChangedFile() throws IOException, ValidationException {
+        var file = folder.getRoot().toPath().resolve("fx-rates.properties");
+        Files.writeString(file, "EUR/USD=1.10\n");
+        var rates = new ExchangeRates(file);
+        assertEquals(110, rates.convert(EUR, USD, 100));
+        assertEquals(2, rates.size());
+        assertFalse(rates.reloadIfChanged());
+
+        Files.writeString(file, "EUR/USD=1.20\nUSD/EUR=0.80\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1_000));
+        assertTrue(rates.reloadIfChanged());
+        assertEquals(120, rates.convert(EUR, USD, 100));
+        assertEquals(80, rates.convert(USD, EUR, 100));
+    }
+}
@@ -0,0 +1,183 @@
+package com.boku.moneytransferservice.service;
+
+import com.boku.moneytransferservice.config.AppConfig;
+import com.boku.moneytransferservice.model.BalanceSnapshot;
+import com.boku.moneytransferservice.model.BalanceSnapshot.Balance;
+import com.boku.moneytransferservice.model.BalanceSnapshot.PendingWithdrawal;
+import com.boku.moneytransferservice.model.Money;
+import com.boku.moneytransferservice.service.WithdrawalService.WithdrawalId;
+import com.boku.moneytransferservice.service.WithdrawalService.WithdrawalState;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReconciliationTest {
+    private static final Currency EUR = Money.DEFAULT_CURRENCY;
+    private static final Currency JPY = Currency.getInstance("JPY");
+
+    @Test
+    public void testReportsLiabilityFlaggedAccountsAndWithdrawalMismatches() throws Exception {
+        var negative = new Balance(UUID.randomUUID(), EUR, -500);
+        var large = new Balance(UUID.randomUUID(), JPY, 2_000_000);
+        var accounts = List.of(new Balance(UUID.randomUUID(), EUR, 10_000), negative, large,
+                new Balance(UUID.randomUUID(), JPY, 1_000_000));
+        var processing = new PendingWithdrawal(UUID.randomUUID(), accounts.get(0).accountId(), EUR, 300);
+        var completed = new PendingWithdrawal(UUID.randomUUID(), accounts.get(0).accountId(), EUR, 200);
+        var unknown = new PendingWithdrawal(UUID.randomUUID(), large.accountId(), JPY, 700);
+        var withdrawalService = mock(WithdrawalService.class);
+        when(withdrawalService.getRequestStates(any())).thenReturn(Map.of(
+                new WithdrawalId(processing.withdrawalId()), WithdrawalState.PROCESSING,
+                new WithdrawalId(completed.withdrawalId()), WithdrawalState.COMPLETED));
+
+        var report = new RecordingReport();
+        newReconciliation(withdrawalService, snapshot(true, accounts, List.of(processing, completed, unknown)),
+                new Properties()).run(report);
+
+        assertEquals(List.of(true), report.snapshots);
+        assertEquals(Map.of(negative, Reconciliation.Flag.NEGATIVE, large, Reconciliation.Flag.LARGE), report.flagged);
+        assertEquals(Map.of(completed, "COMPLETED", unknown, "UNKNOWN"), report.mismatches);
+        var eur = report.currencies.get(EUR);
+        assertEquals(new Reconciliation.CurrencyTotal(EUR, 2, 9_500, 500, 1), eur);
+        assertEquals(10_000, eur.liability());
+        assertEquals(new Reconciliation.CurrencyTotal(JPY, 2, 3_000_000, 700, 0), report.currencies.get(JPY));
+
+        var summary = report.summary;
+        assertTrue(summary.consistent());
+        assertEquals(4, summary.accounts());
+        assertEquals(2, summary.flaggedAccounts());
+        assertEquals(3, summary.pendingWithdrawals());
+        assertEquals(2, summary.withdrawalMismatches());
+        assertEquals(0, summary.uncheckedWithdrawals());
+        assertTrue(summary.threadsUsed() >= 1 && summary.threadsUsed() <= summary.parallelism());
+    }
+
+    @Test
+    public void testParallelTotalsMatchAndFlaggedListIsCapped() throws Exception {
+        var accounts = new ArrayList<Balance>();
+        long expected = 0;
+        for (int i = 0; i < 200_000; i++) {
+            var balance = i % 10 == 0 ? -i : i;
+            accounts.add(new Balance(UUID.randomUUID(), EUR, balance));
+            expected += balance;
+        }
+        var properties = new Properties();
+        properties.setProperty("reconciliation.parallelism", "4");
+        properties.setProperty("reconciliation.maxListedAccounts", "100");
+
+        var report = new RecordingReport();
+        newReconciliation(mock(WithdrawalService.class), snapshot(true, accounts, List.of()), properties).run(report);
+
+        assertEquals(expected, report.currencies.get(EUR).balances());
+        assertEquals(20_000 - 1, report.currencies.get(EUR).negativeAccounts());
+        assertEquals(20_000 - 1, report.summary.flaggedAccounts());
+        assertEquals(100, report.flagged.size());
+        assertEquals(100, report.summary.listedAccounts());
+        assertEquals(4, report.summary.parallelism());
+    }
+
+    @Test
+    public void testProviderFailureLeavesWithdrawalsUnchecked() throws Exception {
+        var withdrawal = new PendingWithdrawal(UUID.randomUUID(), UUID.randomUUID(), EUR, 100);
+        var withdrawalService = mock(WithdrawalService.class);
+        when(withdrawalService.getRequestStates(any())).thenThrow(new IllegalStateException("Provider down"));
+
+        var report = new RecordingReport();
+        newReconciliation(withdrawalService, snapshot(true, List.of(), List.of(withdrawal)), new Properties()).run(report);
+
+        assertEquals(1, report.summary.uncheckedWithdrawals());
+        assertEquals(0, report.summary.withdrawalMismatches());
+        assertEquals(100, report.currencies.get(EUR).liability());
+    }
+
+    @Test
+    public void testLiveBalancesOfTransferService() throws Exception {
+        var withdrawalService = mock(WithdrawalService.class);
+        var transferService = new TransferService(withdrawalService, new AppConfig(new Properties()));
+        var sender = UUID.randomUUID();
+        transferService.createAccount(sender, "Sender", 10_000);
+        transferService.createAccount(UUID.randomUUID(), "Receiver", JPY, 500);
+        var withdrawalId = transferService.withdrawMoney(sender, "Address", 2_500);
+        when(withdrawalService.getRequestStates(any()))
+                .thenReturn(Map.of(new WithdrawalId(withdrawalId), WithdrawalState.PROCESSING));
+
+        var report = new RecordingReport();
+        newReconciliation(withdrawalService, transferService::readLiveBalances, new Properties()).run(report);
+
+        assertFalse(report.summary.consistent());
+        assertEquals(new Reconciliation.CurrencyTotal(EUR, 1, 7_500, 2_500, 0), report.currencies.get(EUR));
+        assertEquals(new Reconciliation.CurrencyTotal(JPY, 1, 500, 0, 0), report.currencies.get(JPY));
+        assertTrue(report.mismatches.isEmpty());
+    }
+
+    private static Reconciliation newReconciliation(WithdrawalService withdrawalService, BalanceSnapshot.Source source,
+                                                    Properties properties) {
+        return new Reconciliation(withdrawalService, source, new AppConfig(properties));
+    }
+
+    private static BalanceSnapshot.Source snapshot(boolean consistent, List<Balance> accounts,
+                                                   List<PendingWithdrawal> withdrawals) {
+        return reader -> reader.read(new BalanceSnapshot() {
+            @Override
+            public boolean isConsistent() {
+                return consistent;
+            }
+
+            @Override
+            public Stream<Balance> accounts() {
+                return accounts.stream();
+            }
+
+            @Override
+            public Stream<PendingWithdrawal> pendingWithdrawals() {
+                return withdrawals.stream();
+            }
+        });
+    }
+
+    private static class RecordingReport implements Reconciliation.Report {
+        final List<Boolean> snapshots = new ArrayList<>();
+        final Map<Balance, Reconciliation.Flag> flagged = new HashMap<>();
+        final Map<PendingWithdrawal, String> mismatches = new HashMap<>();
+        final Map<Currency, Reconciliation.CurrencyTotal> currencies = new HashMap<>();
+        Reconciliation.Summary summary;
+
+        @Override
+        public void snapshot(boolean consistent) {
+            snapshots.add(consistent);
+        }
+
+        @Override
+        public void flaggedAccount(Balance account, Reconciliation.Flag flag) {
+            flagged.put(account, flag);
+        }
+
+        @Override
+        public void withdrawalMismatch(PendingWithdrawal withdrawal, WithdrawalState providerState) {
+            mismatches.put(withdrawal, providerState == null ? "UNKNOWN" : providerState.name());
+        }
+
+        @Override
+        public void currencyTotal(Reconciliation.CurrencyTotal total) {
+            currencies.put(total.currency(), total);
+        }
+
+        @Override
+        public void summary(Reconciliation.Summary summary) {
+            this.summary = summary;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.boku.moneytransferservice.service;
+
+import com.boku.moneytransferservice.config.AppConfig;
+import com.boku.moneytransferservice.exception.ValidationException;
+import com.boku.moneytransferservice.journal.Journal;
+import com.boku.moneytransferservice.model.Money;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The whole TransferServiceTest suite with commands applied by the sequencer's engine thread
+ */
+public class SequencedTransferServiceTest extends TransferServiceTest {
+    @Override
+    protected TransferService newTransferService(WithdrawalService withdrawalService, Properties properties,
+                                                 Journal journal) {
+        var sequenced = new Properties();
+        sequenced.putAll(properties);
+        sequenced.setProperty("engine.mode", "sequencer");
+        sequenced.setProperty("engine.ringSize", "64");
+        return new TransferService(withdrawalService, new AppConfig(sequenced), journal);
+    }
+
+    @Test
+    public void testCommandsAreAppliedOnTheEngineThread() throws Exception {
+        var journal = mock(Journal.class);
+        when(journal.inOrder(any())).thenAnswer(invocation -> invocation.<Journal.Operation<?>>getArgument(0).apply());
+        List<String> appliedOn = Collections.synchronizedList(new ArrayList<>());
+        when(journal.accountCreated(any(), any(), any(), anyLong())).thenAnswer(invocation -> {
+            appliedOn.add(Thread.currentThread().getName());
+            return 1L;
+        });
+        when(journal.transferred(any(), any(), anyLong(), anyLong())).thenAnswer(invocation -> {
+            appliedOn.add(Thread.currentThread().getName());
+            return 2L;
+        });
+        var service = newTransferService(mock(WithdrawalService.class), new Properties(), journal);
+
+        var sender = UUID.randomUUID();
+        var receiver = UUID.randomUUID();
+        service.createAccount(sender, "Sender", 1_000);
+        service.createAccount(receiver, "Receiver", 0);
+        service.transferMoney(sender, receiver, 400);
+
+        assertEquals(List.of("sequencer", "sequencer", "sequencer"), appliedOn);
+        assertEquals(400, service.getAccountById(receiver).getBalanceMinorUnits());
+    }
+
+    @Test
+    public void testRingSizeIsAPowerOfTwoOfAtLeastFour() {
+        var handler = mock(Sequencer.Handler.class);
+        for (var size : List.of(0, 1, 2, 3, 6))
+            assertThrows(String.valueOf(size), IllegalArgumentException.class, () -> new Sequencer(handler, size));
+
+        // Several laps of the smallest ring
+        when(handler.createAccount(any(), any(), any(), anyLong())).thenAnswer(invocation -> invocation.getArgument(3));
+        var sequencer = new Sequencer(handler, 4);
+        for (long i = 0; i < 10; i++)
+            assertEquals(i, sequencer.createAccount(UUID.randomUUID(), "Account", Money.DEFAULT_CURRENCY, i));
+    }
+}
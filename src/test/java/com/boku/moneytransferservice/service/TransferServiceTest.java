@@ -1,19 +1,55 @@
 package com.boku.moneytransferservice.service;
 
+import com.boku.moneytransferservice.config.AppConfig;
 import com.boku.moneytransferservice.exception.ValidationException;
+import com.boku.moneytransferservice.exception.WithdrawalBacklogFullException;
+import com.boku.moneytransferservice.journal.Journal;
+import com.boku.moneytransferservice.journal.JournalReplayHandler;
+import com.boku.moneytransferservice.journal.MappedJournal;
+import com.boku.moneytransferservice.journal.NoOpJournal;
+import com.boku.moneytransferservice.model.Account;
+import com.boku.moneytransferservice.model.BatchMode;
+import com.boku.moneytransferservice.model.LedgerEntry;
+import com.boku.moneytransferservice.model.TransferLeg;
+import com.boku.moneytransferservice.model.TransferLegResult;
+import com.boku.moneytransferservice.service.WithdrawalService.WithdrawalId;
 import com.boku.moneytransferservice.service.WithdrawalService.WithdrawalState;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 public class TransferServiceTest {
+    private static final Currency EUR = Currency.getInstance("EUR");
+    private static final Currency USD = Currency.getInstance("USD");
+    private static final Currency JPY = Currency.getInstance("JPY");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
 
     private TransferService transferService;
     private WithdrawalService withdrawalService;
@@ -21,19 +57,19 @@ public class TransferServiceTest {
     @Before
     public void setUp() {
         withdrawalService = mock(WithdrawalService.class);
-        transferService = new TransferService(withdrawalService);
+        transferService = newTransferService(withdrawalService, new Properties());
     }
 
     @Test
     public void testTransferMoney() throws ValidationException {
         var senderAccountId = UUID.randomUUID();
         var receiverAccountId = UUID.randomUUID();
-        var initialBalance = new BigDecimal("100.00");
+        var initialBalance = 10_000;
 
         var senderAccount = transferService.createAccount(senderAccountId, "Sender", initialBalance);
         var receiverAccount = transferService.createAccount(receiverAccountId, "Receiver", initialBalance);
 
-        transferService.transferMoney(senderAccountId, receiverAccountId, new BigDecimal("50.00"));
+        transferService.transferMoney(senderAccountId, receiverAccountId, 5_000);
         assertEquals(new BigDecimal("50.00"), senderAccount.getBalance());
         assertEquals(new BigDecimal("150.00"), receiverAccount.getBalance());
     }
@@ -42,54 +78,240 @@ public class TransferServiceTest {
     public void testTransferMoneyInvalidAmount() throws ValidationException {
         var senderAccountId = UUID.randomUUID();
         var receiverAccountId = UUID.randomUUID();
-        var initialBalance = new BigDecimal("100.00");
+        var initialBalance = 10_000;
 
         transferService.createAccount(senderAccountId, "Sender", initialBalance);
         transferService.createAccount(receiverAccountId, "Receiver", initialBalance);
-        transferService.transferMoney(senderAccountId, receiverAccountId, new BigDecimal("-50.00"));
+        transferService.transferMoney(senderAccountId, receiverAccountId, -5_000);
+    }
+
+    @Test
+    public void testAccountNameLimitHoldsForEveryStore() {
+        for (var store : List.of("map", "compact")) {
+            var properties = new Properties();
+            properties.setProperty("account.store", store);
+            var service = newTransferService(withdrawalService, properties);
+            var tooLong = UUID.randomUUID();
+
+            // 65536 bytes of UTF-8 in 32768 chars
+            assertThrows(store, IllegalArgumentException.class,
+                    () -> service.createAccount(tooLong, "\u00e9".repeat(32_768), 0));
+            assertThrows(store, IllegalArgumentException.class, () -> service.getAccountById(tooLong));
+            var longest = service.createAccount(UUID.randomUUID(), "a".repeat(Account.MAX_NAME_BYTES), 0);
+            assertEquals(store, Account.MAX_NAME_BYTES, longest.getName().length());
+        }
     }
 
     @Test(expected = IllegalArgumentException.class)
     public void testTransferMoneyInsufficientBalance() throws ValidationException {
         var senderAccountId = UUID.randomUUID();
         var receiverAccountId = UUID.randomUUID();
-        var initialBalance = new BigDecimal("100.00");
+        var initialBalance = 10_000;
 
         transferService.createAccount(senderAccountId, "Sender", initialBalance);
         transferService.createAccount(receiverAccountId, "Receiver", initialBalance);
-        transferService.transferMoney(senderAccountId, receiverAccountId, new BigDecimal("150.00"));
+        transferService.transferMoney(senderAccountId, receiverAccountId, 15_000);
+    }
+
+    @Test
+    public void testTransferBatchAllOrNothingNetsLegs() {
+        var a = UUID.randomUUID();
+        var b = UUID.randomUUID();
+        var c = UUID.randomUUID();
+        var accountA = transferService.createAccount(a, "A", 1_000);
+        var accountB = transferService.createAccount(b, "B", 0);
+        var accountC = transferService.createAccount(c, "C", 0);
+
+        // B spends more than it holds, but the batch nets it out
+        var results = transferService.transferBatch(List.of(
+                new TransferLeg(a, b, 1_000),
+                new TransferLeg(b, c, 1_500),
+                new TransferLeg(c, b, 500)), BatchMode.ALL_OR_NOTHING);
+
+        assertTrue(results.stream().allMatch(TransferLegResult::succeeded));
+        assertEquals(0, accountA.getBalanceMinorUnits());
+        assertEquals(0, accountB.getBalanceMinorUnits());
+        assertEquals(1_000, accountC.getBalanceMinorUnits());
+    }
+
+    @Test
+    public void testTransferBatchAllOrNothingRollsBack() {
+        var a = UUID.randomUUID();
+        var b = UUID.randomUUID();
+        var accountA = transferService.createAccount(a, "A", 1_000);
+        var accountB = transferService.createAccount(b, "B", 100);
+
+        var results = transferService.transferBatch(List.of(
+                new TransferLeg(a, b, 500),
+                new TransferLeg(b, a, 800)), BatchMode.ALL_OR_NOTHING);
+
+        assertEquals(TransferLegResult.failed("Batch rejected"), results.get(0));
+        assertEquals(TransferLegResult.failed("Insufficient balance for transfer"), results.get(1));
+        assertEquals(1_000, accountA.getBalanceMinorUnits());
+        assertEquals(100, accountB.getBalanceMinorUnits());
+    }
+
+    @Test
+    public void testTransferBatchBestEffortSkipsFailedLegs() {
+        var a = UUID.randomUUID();
+        var b = UUID.randomUUID();
+        var accountA = transferService.createAccount(a, "A", 1_000);
+        var accountB = transferService.createAccount(b, "B", 0);
+
+        var results = transferService.transferBatch(List.of(
+                new TransferLeg(a, b, 600),
+                new TransferLeg(a, b, 600),
+                new TransferLeg(a, UUID.randomUUID(), 100),
+                new TransferLeg(a, b, 400)), BatchMode.BEST_EFFORT);
+
+        assertEquals(List.of(true, false, false, true),
+                results.stream().map(TransferLegResult::succeeded).collect(Collectors.toList()));
+        assertEquals(0, accountA.getBalanceMinorUnits());
+        assertEquals(1_000, accountB.getBalanceMinorUnits());
+    }
+
+    @Test
+    public void testTransactionsListNewestFirst() throws ValidationException {
+        var listener = ArgumentCaptor.forClass(WithdrawalService.CompletionListener.class);
+        when(withdrawalService.addCompletionListener(listener.capture())).thenReturn(true);
+        transferService = newTransferService(withdrawalService, new Properties());
+        var senderAccountId = UUID.randomUUID();
+        var receiverAccountId = UUID.randomUUID();
+        transferService.createAccount(senderAccountId, "Sender", 10_000);
+        transferService.createAccount(receiverAccountId, "Receiver", 0);
+
+        transferService.transferMoney(senderAccountId, receiverAccountId, 1_000);
+        var withdrawalId = transferService.withdrawMoney(senderAccountId, "Address", 2_000);
+        listener.getValue().onCompletion(new WithdrawalId(withdrawalId), WithdrawalState.FAILED);
+
+        var page = transferService.getTransactions(senderAccountId, null, 2);
+        assertEquals(List.of(LedgerEntry.Type.WITHDRAWAL_REFUND, LedgerEntry.Type.WITHDRAWAL),
+                page.transactions().stream().map(LedgerEntry::type).collect(Collectors.toList()));
+        assertEquals(withdrawalId, page.transactions().get(0).counterparty());
+        assertEquals("1", page.nextCursor());
+
+        var older = transferService.getTransactions(senderAccountId, 1L, 2).transactions();
+        assertEquals(List.of(new LedgerEntry(0, older.get(0).time(), LedgerEntry.Type.TRANSFER_OUT,
+                new BigDecimal("10.00"), receiverAccountId)), older);
+        assertEquals(LedgerEntry.Type.TRANSFER_IN,
+                transferService.getTransactions(receiverAccountId, null, 10).transactions().get(0).type());
     }
 
     @Test
     public void testWithdrawMoney() throws ValidationException {
         var senderAccountId = UUID.randomUUID();
-        var senderAccount = transferService.createAccount(senderAccountId, "Sender", new BigDecimal("100.00"));
+        var senderAccount = transferService.createAccount(senderAccountId, "Sender", 10_000);
         when(withdrawalService.getRequestState(any())).thenReturn(WithdrawalService.WithdrawalState.COMPLETED);
 
-        var withdrawalId = transferService.withdrawMoney(senderAccountId, "Address", new BigDecimal("50.00"));
+        var withdrawalId = transferService.withdrawMoney(senderAccountId, "Address", 5_000);
         assertEquals(new BigDecimal("50.00"), senderAccount.getBalance());
+        awaitSent(transferService, 1);
         assertEquals(WithdrawalService.WithdrawalState.COMPLETED, transferService.getWithdrawalStatus(withdrawalId));
     }
 
     @Test(expected = ValidationException.class)
     public void testWithdrawMoneyInvalidAmount() throws ValidationException {
         var senderAccountId = UUID.randomUUID();
-        transferService.createAccount(senderAccountId, "Sender", new BigDecimal("100.00"));
-        transferService.withdrawMoney(senderAccountId, "Address", new BigDecimal("-50.00"));
+        transferService.createAccount(senderAccountId, "Sender", 10_000);
+        transferService.withdrawMoney(senderAccountId, "Address", -5_000);
     }
 
     @Test(expected = IllegalArgumentException.class)
     public void testWithdrawMoneyInsufficientBalance() throws ValidationException {
         var senderAccountId = UUID.randomUUID();
-        transferService.createAccount(senderAccountId, "Sender", new BigDecimal("100.00"));
-        transferService.withdrawMoney(senderAccountId, "Address", new BigDecimal("150.00"));
+        transferService.createAccount(senderAccountId, "Sender", 10_000);
+        transferService.withdrawMoney(senderAccountId, "Address", 15_000);
+    }
+
+    @Test
+    public void testWithdrawalSendIsRetried() throws ValidationException {
+        var properties = new Properties();
+        properties.setProperty("withdrawal.sender.initialBackoffMillis", "1");
+        transferService = newTransferService(withdrawalService, properties);
+        doThrow(new IllegalStateException("Provider unavailable")).doNothing()
+                .when(withdrawalService).requestWithdrawal(any(), any(), any());
+        when(withdrawalService.getRequestState(any())).thenReturn(WithdrawalState.PROCESSING);
+
+        var senderAccountId = UUID.randomUUID();
+        transferService.createAccount(senderAccountId, "Sender", 10_000);
+        var withdrawalId = transferService.withdrawMoney(senderAccountId, "Address", 5_000);
+        assertEquals(WithdrawalState.PROCESSING, transferService.getWithdrawalStatus(withdrawalId));
+
+        awaitSent(transferService, 1);
+        verify(withdrawalService, times(2)).requestWithdrawal(eq(new WithdrawalId(withdrawalId)), any(), eq(new BigDecimal("50.00")));
+        assertEquals(1, transferService.getWithdrawalSenderMetrics().retries());
+    }
+
+    @Test
+    public void testWithdrawalIsSentOnceTheProviderRecoversAfterMaxAttempts() throws ValidationException {
+        var properties = new Properties();
+        properties.setProperty("withdrawal.sender.initialBackoffMillis", "1");
+        properties.setProperty("withdrawal.sender.maxBackoffMillis", "20");
+        properties.setProperty("withdrawal.sender.maxAttempts", "2");
+        transferService = newTransferService(withdrawalService, properties);
+        var outage = new IllegalStateException("Provider unavailable");
+        doThrow(outage).doThrow(outage).doThrow(outage).doThrow(outage).doThrow(outage).doNothing()
+                .when(withdrawalService).requestWithdrawal(any(), any(), any());
+
+        var senderAccountId = UUID.randomUUID();
+        transferService.createAccount(senderAccountId, "Sender", 10_000);
+        var withdrawalId = transferService.withdrawMoney(senderAccountId, "Address", 5_000);
+
+        awaitSent(transferService, 1);
+        verify(withdrawalService, times(6)).requestWithdrawal(eq(new WithdrawalId(withdrawalId)), any(), eq(new BigDecimal("50.00")));
+        var metrics = transferService.getWithdrawalSenderMetrics();
+        assertEquals(5, metrics.retries());
+        assertEquals(0, metrics.parked());
+        assertEquals(0, metrics.backlog());
     }
 
     @Test
-    public void testGetWithdrawalStatus() throws ValidationException {
+    public void testWithdrawalRefusedWhenBacklogIsFull() throws ValidationException {
+        var properties = new Properties();
+        properties.setProperty("withdrawal.sender.capacity", "1");
+        properties.setProperty("withdrawal.sender.initialBackoffMillis", "3600000");
+        transferService = newTransferService(withdrawalService, properties);
+        doThrow(new IllegalStateException("Provider unavailable")).when(withdrawalService).requestWithdrawal(any(), any(), any());
+
         var senderAccountId = UUID.randomUUID();
-        transferService.createAccount(senderAccountId, "Sender", new BigDecimal("100.00"));
-        var withdrawalId = transferService.withdrawMoney(senderAccountId, "Address", new BigDecimal("50.00"));
+        var senderAccount = transferService.createAccount(senderAccountId, "Sender", 10_000);
+        transferService.withdrawMoney(senderAccountId, "Address", 1_000);
+        try {
+            transferService.withdrawMoney(senderAccountId, "Address", 1_000);
+            fail("Expected the second withdrawal to be refused");
+        } catch (WithdrawalBacklogFullException expected) {
+        }
+        assertEquals(new BigDecimal("90.00"), senderAccount.getBalance());
+    }
+
+    @Test
+    public void testWithdrawalIsSentWhenWaitingForTheJournalFails() throws ValidationException {
+        var properties = new Properties();
+        properties.setProperty("withdrawal.sender.capacity", "1");
+        var journal = mock(Journal.class);
+        when(journal.inOrder(any())).thenAnswer(invocation -> invocation.<Journal.Operation<?>>getArgument(0).apply());
+        when(journal.withdrawalRequested(any(), any(), anyLong(), any())).thenReturn(1L, 2L);
+        doThrow(new IllegalStateException("Journal is closed")).when(journal).awaitDurable(1L);
+        transferService = newTransferService(withdrawalService, properties, journal);
+
+        var senderAccountId = UUID.randomUUID();
+        transferService.createAccount(senderAccountId, "Sender", 10_000);
+        assertThrows(IllegalStateException.class, () -> transferService.withdrawMoney(senderAccountId, "Address", 1_000));
+
+        awaitSent(transferService, 1);
+        verify(withdrawalService).requestWithdrawal(any(), any(), eq(new BigDecimal("10.00")));
+        // The failed withdrawal's sender slot was freed
+        transferService.withdrawMoney(senderAccountId, "Address", 1_000);
+        awaitSent(transferService, 2);
+    }
+
+    @Test
+    public void testGetWithdrawalStatus()throws ValidationException {
+        transferService = withUncachedProcessingStatus();
+        var senderAccountId = UUID.randomUUID();
+        transferService.createAccount(senderAccountId, "Sender", 10_000);
+        var withdrawalId = transferService.withdrawMoney(senderAccountId, "Address", 5_000);
+        awaitSent(transferService, 1);
 
         when(withdrawalService.getRequestState(any())).thenReturn(WithdrawalState.PROCESSING);
         assertEquals(WithdrawalState.PROCESSING, transferService.getWithdrawalStatus(withdrawalId));
@@ -100,7 +322,7 @@ public class TransferServiceTest {
     @Test
     public void testCreateAccount() {
         var accountId = UUID.randomUUID();
-        var account = transferService.createAccount(accountId, "Test Account", new BigDecimal("100.00"));
+        var account = transferService.createAccount(accountId, "Test Account", 10_000);
 
         assertNotNull(account);
         assertEquals(accountId, account.getId());
@@ -111,14 +333,14 @@ public class TransferServiceTest {
     @Test
     public void testGetAccountById() {
         var accountId = UUID.randomUUID();
-        var initialBalance = new BigDecimal("100.00");
+        var initialBalance = 10_000;
         transferService.createAccount(accountId, "Test Account", initialBalance);
         var retrievedAccount = transferService.getAccountById(accountId);
 
         assertNotNull(retrievedAccount);
         assertEquals(accountId, retrievedAccount.getId());
         assertEquals("Test Account", retrievedAccount.getName());
-        assertEquals(initialBalance, retrievedAccount.getBalance());
+        assertEquals(new BigDecimal("100.00"), retrievedAccount.getBalance());
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -129,10 +351,12 @@ public class TransferServiceTest {
 
     @Test
     public void testCheckWithdrawalStatus() throws ValidationException {
+        transferService = withUncachedProcessingStatus();
         var senderAccountId = UUID.randomUUID();
-        var initialBalance = new BigDecimal("100.00");
+        var initialBalance = 10_000;
         var senderAccount = transferService.createAccount(senderAccountId, "Sender", initialBalance);
-        var withdrawalId = transferService.withdrawMoney(senderAccountId, "Address", new BigDecimal("50.00"));
+        var withdrawalId = transferService.withdrawMoney(senderAccountId, "Address", 5_000);
+        awaitSent(transferService, 1);
         when(withdrawalService.getRequestState(any())).thenReturn(WithdrawalState.PROCESSING);
 
         WithdrawalService.WithdrawalState withdrawalState = transferService.getWithdrawalStatus(withdrawalId);
@@ -145,13 +369,59 @@ public class TransferServiceTest {
         assertEquals(new BigDecimal("50.00"), senderAccount.getBalance());
     }
 
+    @Test
+    public void testProcessingStatusIsSharedWithinTtl() throws ValidationException {
+        var senderAccountId = UUID.randomUUID();
+        transferService.createAccount(senderAccountId, "Sender", 10_000);
+        var withdrawalId = transferService.withdrawMoney(senderAccountId, "Address", 5_000);
+        awaitSent(transferService, 1);
+
+        when(withdrawalService.getRequestState(any())).thenReturn(WithdrawalState.PROCESSING);
+        for (int i = 0; i < 3; i++)
+            assertEquals(WithdrawalState.PROCESSING, transferService.getWithdrawalStatus(withdrawalId));
+        verify(withdrawalService, times(1)).getRequestState(any());
+    }
+
+    @Test
+    public void testFinalStatusIsCachedAfterSettling() throws ValidationException {
+        var senderAccountId = UUID.randomUUID();
+        var senderAccount = transferService.createAccount(senderAccountId, "Sender", 10_000);
+        var withdrawalId = transferService.withdrawMoney(senderAccountId, "Address", 5_000);
+        awaitSent(transferService, 1);
+
+        when(withdrawalService.getRequestState(any())).thenReturn(WithdrawalState.FAILED);
+        for (int i = 0; i < 3; i++)
+            assertEquals(WithdrawalState.FAILED, transferService.getWithdrawalStatus(withdrawalId));
+        verify(withdrawalService, times(1)).getRequestState(any());
+        assertEquals(new BigDecimal("100.00"), senderAccount.getBalance());
+    }
+
+    @Test
+    public void testPolledFinalStatusIsAnsweredFromCache() throws ValidationException {
+        var properties = new Properties();
+        properties.setProperty("withdrawal.poll.intervalMillis", "3600000");
+        properties.setProperty("withdrawal.poll.initialDelayMillis", "0");
+        transferService = newTransferService(withdrawalService, properties);
+
+        var senderAccountId = UUID.randomUUID();
+        transferService.createAccount(senderAccountId, "Sender", 10_000);
+        var withdrawalId = transferService.withdrawMoney(senderAccountId, "Address", 1_000);
+        awaitSent(transferService, 1);
+        when(withdrawalService.getRequestStates(any())).thenReturn(Map.of(new WithdrawalId(withdrawalId), WithdrawalState.COMPLETED));
+
+        transferService.checkWithdrawalStatus();
+
+        assertEquals(WithdrawalState.COMPLETED, transferService.getWithdrawalStatus(withdrawalId));
+        verify(withdrawalService, never()).getRequestState(any());
+    }
+
     @Test
     public void testScheduledTask() throws InterruptedException, ValidationException {
         var senderAccountId = UUID.randomUUID();
-        var initialBalance = new BigDecimal("100.00");
+        var initialBalance = 10_000;
 
         var senderAccount = transferService.createAccount(senderAccountId, "Sender", initialBalance);
-        var withdrawalId = transferService.withdrawMoney(senderAccountId, "Address", new BigDecimal("50.00"));
+        var withdrawalId = transferService.withdrawMoney(senderAccountId, "Address", 5_000);
 
         // Simulate time passing by waiting for the task to execute
         TimeUnit.SECONDS.sleep(2);
@@ -161,4 +431,365 @@ public class TransferServiceTest {
         assertEquals(WithdrawalService.WithdrawalState.COMPLETED, withdrawalState);
         assertEquals(new BigDecimal("50.00"), senderAccount.getBalance());
     }
+
+    @Test
+    public void testCheckWithdrawalStatusInBatches() throws ValidationException {
+        var properties = new Properties();
+        properties.setProperty("withdrawal.poll.batchSize", "2");
+        properties.setProperty("withdrawal.poll.intervalMillis", "3600000");
+        properties.setProperty("withdrawal.poll.initialDelayMillis", "0");
+        transferService = newTransferService(withdrawalService, properties);
+
+        var senderAccountId = UUID.randomUUID();
+        var senderAccount = transferService.createAccount(senderAccountId, "Sender", 10_000);
+        for (int i = 0; i < 3; i++) {
+            transferService.withdrawMoney(senderAccountId, "Address", 1_000);
+        }
+        awaitSent(transferService, 3);
+        when(withdrawalService.getRequestStates(any())).thenAnswer(invocation -> {
+            Collection<WithdrawalId> ids = invocation.getArgument(0);
+            return ids.stream().collect(Collectors.toMap(id -> id, id -> WithdrawalState.FAILED));
+        });
+
+        transferService.checkWithdrawalStatus();
+
+        verify(withdrawalService, times(2)).getRequestStates(any());
+        assertEquals(new BigDecimal("100.00"), senderAccount.getBalance());
+    }
+
+    @Test
+    public void testProcessingWithdrawalBacksOff() throws ValidationException {
+        var properties = new Properties();
+        properties.setProperty("withdrawal.poll.intervalMillis", "3600000");
+        properties.setProperty("withdrawal.poll.initialDelayMillis", "0");
+        properties.setProperty("withdrawal.poll.maxBackoffMillis", "3600000");
+        transferService = newTransferService(withdrawalService, properties);
+
+        var senderAccountId = UUID.randomUUID();
+        transferService.createAccount(senderAccountId, "Sender", 10_000);
+        var withdrawalId = transferService.withdrawMoney(senderAccountId, "Address", 1_000);
+        awaitSent(transferService, 1);
+        when(withdrawalService.getRequestStates(any())).thenReturn(Map.of(new WithdrawalId(withdrawalId), WithdrawalState.PROCESSING));
+
+        transferService.checkWithdrawalStatus();
+        transferService.checkWithdrawalStatus();
+
+        // The second pass finds nothing due, so the provider is asked only once
+        verify(withdrawalService, times(1)).getRequestStates(any());
+    }
+
+    @Test
+    public void testPushedCompletionRefundsFailedWithdrawal() throws ValidationException {
+        var listener = ArgumentCaptor.forClass(WithdrawalService.CompletionListener.class);
+        when(withdrawalService.addCompletionListener(listener.capture())).thenReturn(true);
+        transferService = newTransferService(withdrawalService, new Properties());
+
+        var senderAccountId = UUID.randomUUID();
+        var senderAccount = transferService.createAccount(senderAccountId, "Sender", 10_000);
+        var withdrawalId = transferService.withdrawMoney(senderAccountId, "Address", 5_000);
+        assertEquals(new BigDecimal("50.00"), senderAccount.getBalance());
+
+        listener.getValue().onCompletion(new WithdrawalId(withdrawalId), WithdrawalState.FAILED);
+        assertEquals(new BigDecimal("100.00"), senderAccount.getBalance());
+
+        // A duplicate notification must not refund twice
+        listener.getValue().onCompletion(new WithdrawalId(withdrawalId), WithdrawalState.FAILED);
+        assertEquals(new BigDecimal("100.00"), senderAccount.getBalance());
+    }
+
+    @Test
+    public void testRecoverFromJournal() throws ValidationException, IOException {
+        var directory = folder.getRoot().toPath();
+        var senderAccountId = UUID.randomUUID();
+        var receiverAccountId = UUID.randomUUID();
+        var properties = new Properties();
+        properties.setProperty("journal.dir", directory.toString());
+        var config = new AppConfig(properties);
+
+        UUID withdrawalId;
+        try (var journal = MappedJournal.open(config)) {
+            transferService = newTransferService(withdrawalService, properties, journal);
+            transferService.createAccount(senderAccountId, "Sender", 10_000);
+            transferService.createAccount(receiverAccountId, "Receiver", 10_000);
+            transferService.transferMoney(senderAccountId, receiverAccountId, 2_500);
+            withdrawalId = transferService.withdrawMoney(senderAccountId, "Address", 1_000);
+        }
+
+        var restartedWithdrawalService = mock(WithdrawalService.class);
+        when(restartedWithdrawalService.getRequestState(any())).thenReturn(WithdrawalState.FAILED);
+        try (var journal = MappedJournal.open(config)) {
+            var recovered = newTransferService(restartedWithdrawalService, properties, journal);
+            assertEquals(new BigDecimal("65.00"), recovered.getAccountById(senderAccountId).getBalance());
+            assertEquals(new BigDecimal("125.00"), recovered.getAccountById(receiverAccountId).getBalance());
+
+            // The pending withdrawal is handed back to the provider and settles as usual
+            awaitSent(recovered, 1);
+            verify(restartedWithdrawalService).requestWithdrawal(eq(new WithdrawalId(withdrawalId)), any(), eq(new BigDecimal("10.00")));
+            assertEquals(WithdrawalState.FAILED, recovered.getWithdrawalStatus(withdrawalId));
+            assertEquals(new BigDecimal("75.00"), recovered.getAccountById(senderAccountId).getBalance());
+        }
+    }
+
+    @Test
+    public void testBatchRecoversFromJournalAndOneTooLargeToJournalIsUndone() throws IOException {
+        var senderAccountId = UUID.randomUUID();
+        var receiverAccountId = UUID.randomUUID();
+        var properties = new Properties();
+        properties.setProperty("journal.dir", folder.getRoot().toPath().toString());
+        properties.setProperty("journal.segmentSizeBytes", "512");
+        var config = new AppConfig(properties);
+
+        try (var journal = MappedJournal.open(config)) {
+            transferService = newTransferService(withdrawalService, properties, journal);
+            transferService.createAccount(senderAccountId, "Sender", 10_000);
+            transferService.createAccount(receiverAccountId, "Receiver", 0);
+            var batch = List.of(new TransferLeg(senderAccountId, receiverAccountId, 3_000),
+                    new TransferLeg(receiverAccountId, senderAccountId, 1_000));
+            transferService.transferBatch(batch, BatchMode.ALL_OR_NOTHING);
+
+            // Twelve legs make a record larger than a segment
+            var tooLarge = Collections.nCopies(12, new TransferLeg(senderAccountId, receiverAccountId, 1));
+            try {
+                transferService.transferBatch(tooLarge, BatchMode.ALL_OR_NOTHING);
+                fail("The batch does not fit a journal segment");
+            } catch (IllegalArgumentException expected) {
+            }
+            assertEquals(8_000, transferService.getAccountById(senderAccountId).getBalanceMinorUnits());
+            assertEquals(2_000, transferService.getAccountById(receiverAccountId).getBalanceMinorUnits());
+        }
+
+        try (var journal = MappedJournal.open(config)) {
+            var recovered = newTransferService(withdrawalService, properties, journal);
+            assertEquals(8_000, recovered.getAccountById(senderAccountId).getBalanceMinorUnits());
+            assertEquals(2_000, recovered.getAccountById(receiverAccountId).getBalanceMinorUnits());
+        }
+    }
+
+    @Test
+    public void testTransferConvertsToReceiverCurrency() throws ValidationException {
+        var senderAccountId = UUID.randomUUID();
+        var receiverAccountId = UUID.randomUUID();
+        var sender = transferService.createAccount(senderAccountId, "Sender", EUR, 10_000);
+        var receiver = transferService.createAccount(receiverAccountId, "Receiver", JPY, 0);
+        transferService.getExchangeRates().replace(Map.of("EUR/JPY", new BigDecimal("162.35")));
+
+        transferService.transferMoney(senderAccountId, receiverAccountId, transferService.toMinorUnits(senderAccountId, new BigDecimal("10")));
+        assertEquals(new BigDecimal("90.00"), sender.getBalance());
+        assertEquals(new BigDecimal("1623"), receiver.getBalance());
+        assertEquals(new BigDecimal("1623"), transferService.getTransactions(receiverAccountId, null, 1).transactions().get(0).amount());
+
+        // The reverse rate is derived, and conversion rounds down to the receiver's minor unit
+        transferService.transferMoney(receiverAccountId, senderAccountId, 1623);
+        assertEquals(new BigDecimal("99.99"), sender.getBalance());
+        assertEquals(new BigDecimal("0"), receiver.getBalance());
+    }
+
+    @Test
+    public void testAmountsUseAccountCurrencyScale() throws ValidationException {
+        var accountId = UUID.randomUUID();
+        transferService.createAccount(accountId, "Yen", JPY, 0);
+
+        assertEquals(150, transferService.toMinorUnits(accountId, new BigDecimal("150")));
+        assertEquals(15_000, transferService.toMinorUnits(UUID.randomUUID(), new BigDecimal("150")));
+        try {
+            transferService.toMinorUnits(accountId, new BigDecimal("150.5"));
+            fail("Yen have no minor unit");
+        } catch (ValidationException expected) {
+        }
+    }
+
+    @Test
+    public void testTransferWithoutExchangeRateIsRejected() throws ValidationException {
+        var senderAccountId = UUID.randomUUID();
+        var receiverAccountId = UUID.randomUUID();
+        var sender = transferService.createAccount(senderAccountId, "Sender", EUR, 10_000);
+        transferService.createAccount(receiverAccountId, "Receiver", USD, 0);
+
+        try {
+            transferService.transferMoney(senderAccountId, receiverAccountId, 1_000);
+            fail("No EUR/USD rate");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(new BigDecimal("100.00"), sender.getBalance());
+
+        var results = transferService.transferBatch(List.of(new TransferLeg(senderAccountId, receiverAccountId, 1_000)),
+                BatchMode.ALL_OR_NOTHING);
+        assertEquals(TransferLegResult.failed("No exchange rate from EUR to USD"), results.get(0));
+    }
+
+    @Test
+    public void testExchangeRateUpdatesApplyToLaterTransfers() throws ValidationException {
+        var senderAccountId = UUID.randomUUID();
+        var receiverAccountId = UUID.randomUUID();
+        transferService.createAccount(senderAccountId, "Sender", EUR, 10_000);
+        var receiver = transferService.createAccount(receiverAccountId, "Receiver", USD, 0);
+
+        transferService.getExchangeRates().update(EUR, USD, new BigDecimal("1.10"));
+        transferService.transferMoney(senderAccountId, receiverAccountId, 1_000);
+        transferService.getExchangeRates().update(EUR, USD, new BigDecimal("1.20"));
+        transferService.transferMoney(senderAccountId, receiverAccountId, 1_000);
+        assertEquals(new BigDecimal("23.00"), receiver.getBalance());
+    }
+
+    @Test
+    public void testRecoverConvertedTransfersAtTheirOriginalRate() throws ValidationException, IOException {
+        var senderAccountId = UUID.randomUUID();
+        var receiverAccountId = UUID.randomUUID();
+        var properties = new Properties();
+        properties.setProperty("journal.dir", folder.getRoot().toPath().toString());
+        var config = new AppConfig(properties);
+
+        try (var journal = MappedJournal.open(config)) {
+            transferService = newTransferService(withdrawalService, properties, journal);
+            transferService.createAccount(senderAccountId, "Sender", USD, 10_000);
+            transferService.createAccount(receiverAccountId, "Receiver", JPY, 0);
+            transferService.getExchangeRates().replace(Map.of("USD/JPY", new BigDecimal("149.60")));
+            transferService.transferMoney(senderAccountId, receiverAccountId, 2_500);
+        }
+
+        try (var journal = MappedJournal.open(config)) {
+            var recovered = newTransferService(withdrawalService, properties, journal);
+            assertEquals(USD, recovered.getAccountById(senderAccountId).getCurrency());
+            assertEquals(new BigDecimal("75.00"), recovered.getAccountById(senderAccountId).getBalance());
+            assertEquals(JPY, recovered.getAccountById(receiverAccountId).getCurrency());
+            assertEquals(new BigDecimal("3740"), recovered.getAccountById(receiverAccountId).getBalance());
+        }
+    }
+
+    @Test
+    public void testConcurrentTransfersConserveMoney() throws InterruptedException {
+        var accountIds = new ArrayList<UUID>();
+        for (int i = 0; i < 16; i++) {
+            var accountId = UUID.randomUUID();
+            transferService.createAccount(accountId, "Account " + i, 100_000);
+            accountIds.add(accountId);
+        }
+        var initialTotal = totalBalance(accountIds);
+
+        var threads = 8;
+        var executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                var random = ThreadLocalRandom.current();
+                for (int i = 0; i < 20_000; i++) {
+                    var sender = accountIds.get(random.nextInt(accountIds.size()));
+                    var receiver = accountIds.get(random.nextInt(accountIds.size()));
+                    try {
+                        transferService.transferMoney(sender, receiver, random.nextInt(1, 50_000));
+                    } catch (ValidationException | IllegalArgumentException e) {
+                        // Insufficient balance is expected under random load
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue("Transfers did not finish, possible deadlock", executor.awaitTermination(60, TimeUnit.SECONDS));
+
+        assertEquals(initialTotal, totalBalance(accountIds));
+        accountIds.forEach(id -> assertTrue(transferService.getAccountById(id).getBalanceMinorUnits() >= 0));
+    }
+
+    @Test
+    public void testConcurrentTransfersAreJournaledInTheOrderApplied() throws InterruptedException, IOException {
+        var properties = new Properties();
+        properties.setProperty("journal.dir", folder.getRoot().toPath().toString());
+        properties.setProperty("journal.fsync", "false");
+        var config = new AppConfig(properties);
+
+        var accountIds = new ArrayList<UUID>();
+        try (var journal = MappedJournal.open(config)) {
+            transferService = newTransferService(withdrawalService, properties, journal);
+            // Money starts in one account, so most transfers spend money that was only just credited
+            for (int i = 0; i < 4; i++) {
+                var accountId = UUID.randomUUID();
+                transferService.createAccount(accountId, "Account " + i, i == 0 ? 100_000 : 0);
+                accountIds.add(accountId);
+            }
+            var executor = Executors.newFixedThreadPool(8);
+            for (int t = 0; t < 8; t++) {
+                executor.execute(() -> {
+                    var random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 20_000; i++) {
+                        try {
+                            transferService.transferMoney(accountIds.get(random.nextInt(4)),
+                                    accountIds.get(random.nextInt(4)), random.nextInt(1, 50_000));
+                        } catch (ValidationException | IllegalArgumentException e) {
+                            // Insufficient balance is expected under random load
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            assertTrue("Transfers did not finish", executor.awaitTermination(60, TimeUnit.SECONDS));
+        }
+
+        // Any prefix of the journal is what a crash could leave, none may overdraw an account
+        var balances = new HashMap<UUID, Long>();
+        try (var journal = MappedJournal.open(config)) {
+            journal.replay(new JournalReplayHandler() {
+                @Override
+                public void accountCreated(UUID accountId, String name, Currency currency, long balance) {
+                    balances.put(accountId, balance);
+                }
+
+                @Override
+                public void transferred(UUID senderAccountId, UUID receiverAccountId, long amount, long creditedAmount) {
+                    assertTrue("Journal overdraws an account", balances.merge(senderAccountId, -amount, Long::sum) >= 0);
+                    balances.merge(receiverAccountId, creditedAmount, Long::sum);
+                }
+
+                @Override
+                public void withdrawalRequested(UUID withdrawalId, UUID accountId, long amount, String address) {
+                }
+
+                @Override
+                public void withdrawalCompleted(UUID withdrawalId) {
+                }
+
+                @Override
+                public void withdrawalRefunded(UUID withdrawalId) {
+                }
+
+                @Override
+                public void withdrawalPending(UUID withdrawalId, UUID accountId, long amount, String address) {
+                }
+            });
+        }
+        assertEquals(100_000, balances.values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    private long totalBalance(List<UUID> accountIds) {
+        return accountIds.stream()
+                .mapToLong(id -> transferService.getAccountById(id).getBalanceMinorUnits())
+                .sum();
+    }
+
+    /**
+     * Every service under test is built here, so a subclass can run the whole suite against another configuration
+     */
+    protected TransferService newTransferService(WithdrawalService withdrawalService, Properties properties,
+                                                 Journal journal) {
+        return new TransferService(withdrawalService, new AppConfig(properties), journal);
+    }
+
+    private TransferService newTransferService(WithdrawalService withdrawalService, Properties properties) {
+        return newTransferService(withdrawalService, properties, NoOpJournal.INSTANCE);
+    }
+
+    /**
+     * For tests moving a withdrawal through its states faster than PROCESSING answers are cached
+     */
+    private TransferService withUncachedProcessingStatus() {
+        var properties = new Properties();
+        properties.setProperty("withdrawal.status.cache.processingTtlMillis", "0");
+        return newTransferService(withdrawalService, properties);
+    }
+
+    private static void awaitSent(TransferService service, long count) {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (service.getWithdrawalSenderMetrics().sent() < count) {
+            if (System.nanoTime() > deadline) fail("Withdrawals were not sent to the provider");
+            Thread.onSpinWait();
+        }
+    }
 }